@@ -6,23 +6,39 @@ import akka.actor.Props;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import example.akka.remote.shared.Messages;
+import example.akka.remote.shared.Startup;
 
+import java.io.IOException;
 import java.util.Properties;
 
 public class Client {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
 
         // Saving passed arguments
-        SaveArguments(args);
+        Configuration configuration = SaveArguments(args);
 
         // Creating environment
-        ActorSystem system = ActorSystem.create("AkkaRemoteClient", GetConfig(args));
+        ActorSystem system = ActorSystem.create("AkkaRemoteClient", Startup.config(GetConfig(args)));
 
-        // Client actor
-        ActorRef client = system.actorOf(Props.create(ClientActor.class));
+        // Heartbeat sender shared by all clients of this host
+        system.actorOf(Props.create(HeartbeatActor.class), "Heartbeat");
 
-        // Send a Calc job
-        client.tell(new Messages.StartLearning("mnist"), ActorRef.noSender());
+        ActorRef client;
+        if (args.length > 1 && "host".equals(args[1])) {
+            // Host mode, e.g. "2553 host", runs all participants listed in appConfig.json
+            client = system.actorOf(Props.create(ClientHost.class, configuration.get()), "Clients");
+        } else {
+            // Client actor
+            client = system.actorOf(Props.create(ClientActor.class, configuration.get()), "Client");
+        }
+
+        // Send a Calc job, a dry run does not contact the server
+        if (!Startup.isDryRun()) {
+            client.tell(new Messages.StartLearning("mnist"), ActorRef.noSender());
+        }
+
+        Startup.ready(system, "Client", start);
     }
 
     // overrides default port
@@ -37,9 +53,14 @@ public class Client {
         return ConfigFactory.load();
     }
 
-    // Saving arguments in static properties
-    private static void SaveArguments(String[] args) {
+    // Saving arguments in configuration of the client
+    private static Configuration SaveArguments(String[] args) {
         Configuration configuration = new Configuration();
+        if (args.length > 1 && "host".equals(args[1])) {
+            // Participants have their own ids, ports and datasets
+            return configuration;
+        }
         configuration.SaveArguments(args);
+        return configuration;
     }
 }
@@ -1,41 +1,45 @@
 package example.akka.remote.client;
 
 import akka.actor.*;
-import akka.event.Logging;
-import akka.event.LoggingAdapter;
+import example.akka.remote.shared.BlockingIO;
+import example.akka.remote.shared.EventLog;
 import example.akka.remote.shared.Messages;
+import example.akka.remote.shared.Timeline;
+import scala.PartialFunction;
 import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
 
 import java.io.*;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 public class ClientActor extends UntypedActor {
 
-    public ClientActor() {
-        try {
-            // Getting configuration
-            Configuration configurationHandler = new Configuration();
-            Configuration.ConfigurationDTO configuration = configurationHandler.get();
-
-            // Setting configuration
-            this.address = configuration.address;
-            this.pathToModules = configuration.pathToModules;
-            this.port = configuration.port;
-            this.clientId = configuration.id;
-
-            // Getting the other actors
-            // // flserver.eastus.azurecontainer.io:5000 - azure address
-            this.selection = getContext().actorSelection("akka.tcp://AkkaRemoteServer@" + address + "/user/Selector");
-            this.injector = getContext().actorSelection("akka.tcp://AkkaRemoteServer@" + address + "/user/Injector");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public ClientActor(Configuration.ConfigurationDTO configuration) {
+        // Setting configuration
+        this.configuration = configuration;
+        this.address = configuration.address;
+        this.pathToModules = configuration.pathToModules;
+        this.port = configuration.port;
+        this.clientId = configuration.id;
+        this.runtime = configuration.runtime;
+        this.capabilities = new Messages.DeviceCapabilities(configuration.RAMInGB, configuration.useCuda, configuration.instanceType);
+
+        // Getting the other actors
+        // // flserver.eastus.azurecontainer.io:5000 - azure address
+        this.selection = getContext().actorSelection("akka.tcp://AkkaRemoteServer@" + address + "/user/Selector");
+        this.injector = getContext().actorSelection("akka.tcp://AkkaRemoteServer@" + address + "/user/Injector");
     }
 
-    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+    // Structured log, thread-safe so blocking work can log too
+    private EventLog events = EventLog.get(getContext().system());
+
+    // Configuration of this client, several clients with different configurations can run in one JVM
+    private Configuration.ConfigurationDTO configuration;
 
     private String address;
     private String pathToModules;
@@ -43,18 +47,72 @@ public class ClientActor extends UntypedActor {
     private String clientId;
     private String taskId;
     private String moduleFileName;
+    private Messages.DeviceCapabilities capabilities;
+    private String runtime;
+
+    // Trains the model when JVM runtime is used
+    private ActorRef localTraining;
+
+    // Global model of the task stored on the disk, created when task is known
+    private ModelCache modelCache;
 
     private ActorSelection selection;
     private ActorSelection injector;
 
+    // Aggregator of the round the learning module runs for
+    private ActorRef moduleServer;
+
+    // Number of consecutive requests the server asked to retry
+    private int retryAttempts;
+    private Random random = new Random();
+
+    // Request to the server which has not been answered yet. Server actors have bounded mailboxes which drop
+    // requests above capacity, so the request is sent again when no answer comes in time
+    private Object pendingRequest;
+    private ActorSelection pendingTarget;
+    private Cancellable requestTimeout;
+
+    // Records handled messages when timeline is enabled
+    private Timeline timeline = Timeline.get(getContext().system());
+
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message) {
+        long start = this.timeline.start();
+        super.aroundReceive(receive, message);
+        this.timeline.record("Client", message, start, 0);
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
+        if (message instanceof Messages.GetModulesListResponse
+                || message instanceof Messages.GetModuleResponse
+                || (message instanceof Messages.JoinRoundResponse && ((Messages.JoinRoundResponse) message).isLearningAvailable)) {
+            this.retryAttempts = 0;
+        }
+        if (message instanceof Messages.GetModulesListResponse
+                || message instanceof Messages.GetModuleResponse
+                || message instanceof Messages.JoinRoundResponse) {
+            this.requestAnswered();
+        }
+
         // Message received at the beginning from main class
         if (message instanceof Messages.StartLearning) {
             this.taskId = ((Messages.StartLearning) message).id;
 
-            // Finding proper module for specified task id
-            List<ModulesManager.ModuleDTO> modules = ModulesManager.GetAvailableModules();
+            if ("jvm".equals(this.runtime)) {
+                // JVM runtime does not need python module
+                this.request(selection, this.createJoinRoundRequest());
+                return;
+            }
+
+            // Finding proper module for specified task id, without a readable list the module is downloaded again
+            List<ModulesManager.ModuleDTO> modules;
+            try {
+                modules = ModulesManager.GetAvailableModules();
+            } catch (IOException e) {
+                this.events.error("Client", "modules-not-readable", e).task(this.taskId).client(this.clientId).log();
+                modules = new ArrayList<>();
+            }
 
             ModulesManager.ModuleDTO module = modules
                     .stream()
@@ -64,52 +122,231 @@ public class ClientActor extends UntypedActor {
 
             if (module == null) {
                 // if module not found then ask for modules list
-                injector.tell(new Messages.GetModulesListRequest(((Messages.StartLearning) message).id), getSelf());
+                this.request(injector, new Messages.GetModulesListRequest(((Messages.StartLearning) message).id));
                 return;
             }
             // Set module filename
             this.moduleFileName = module.fileName;
             // When we confirm that we have module we can ask server to join round
-            selection.tell(new Messages.JoinRoundRequest(LocalDateTime.now(), this.taskId, this.clientId, this.port), getSelf());
-            log.info("After send to selector, address -> " + this.address);
+            this.request(selection, this.createJoinRoundRequest());
+            this.events.info("Client", "join-requested").task(this.taskId).client(this.clientId).with("server", this.address).log();
         } else if(message instanceof Messages.GetModulesListResponse) {
             // Find the best module
             Messages.ModuleData module = this.findProperModuleStrategy(((Messages.GetModulesListResponse) message).modules);
             // Ask for module
-            getSender().tell(new Messages.GetModuleRequest(module.fileName), getSelf());
+            this.request(injector, new Messages.GetModuleRequest(module.fileName));
         } else if (message instanceof Messages.GetModuleResponse) {
             // Save received module
             Messages.GetModuleResponse module = (Messages.GetModuleResponse) message;
-            log.info("File name: " + module.fileName + ", length: " + module.content.length);
-            SaveFile(module);
-            log.info("File saved");
-            ModulesManager.SaveModule(this.taskId, module.fileName);
-            log.info("Module list saved");
-            this.moduleFileName = module.fileName;
-            selection.tell(new Messages.JoinRoundRequest(LocalDateTime.now(), this.taskId, this.clientId, this.port), getSelf());
+            this.events.debug("Client", "module-received").task(this.taskId).client(this.clientId)
+                    .with("file", module.fileName).with("bytes", module.content.length).log();
+            String taskId = this.taskId;
+            BlockingIO.get(getContext().system()).pipeToSelf(() -> {
+                SaveFile(module);
+                ModulesManager.SaveModule(taskId, module.fileName);
+                return new ModuleSaved(module.fileName);
+            }, getSelf());
+        } else if (message instanceof ModuleSaved) {
+            this.events.info("Client", "module-saved").task(this.taskId).client(this.clientId).with("file", ((ModuleSaved) message).fileName).log();
+            this.moduleFileName = ((ModuleSaved) message).fileName;
+            this.request(selection, this.createJoinRoundRequest());
         } else if (message instanceof Messages.JoinRoundResponse) {
             // Response if device can join round
             Messages.JoinRoundResponse result = (Messages.JoinRoundResponse) message;
-            log.info("Got join round response {}", result.isLearningAvailable);
-            // TODO Need to be handled negative scenario
+            this.events.info("Client", "join-response").task(this.taskId).client(this.clientId)
+                    .with("learningAvailable", result.isLearningAvailable).log();
+            if (result.modelHash != null && result.modelHash.equals(this.cachedModelHash())) {
+                this.events.debug("Client", "cached-model-up-to-date").client(this.clientId).with("modelVersion", result.modelVersion).log();
+            }
+            if (result.isLearningAvailable && result.aggregator != null) {
+                // Let aggregator know that this client is alive while taking part in the round
+                getContext().actorSelection("/user/Heartbeat")
+                        .tell(new HeartbeatActor.RegisterHeartbeat(this.clientId, result.aggregator), getSelf());
+            } else {
+                this.stopHeartbeat();
+            }
+            if (result.sampling != null) {
+                // Server samples cohorts, device decides itself whether to try one of the next rounds
+                this.scheduleSampling(result.sampling.nextRoundInMillis, result.sampling);
+            } else if (!result.isLearningAvailable) {
+                // No round has started yet, device asks again with growing delays
+                long delay = this.retryDelay(0);
+                this.events.info("Client", "join-retry").task(this.taskId).client(this.clientId).with("delayMillis", delay).log();
+                ActorSystem system = getContext().system();
+                system
+                    .scheduler()
+                    .scheduleOnce(new FiniteDuration(delay, TimeUnit.MILLISECONDS), getSelf(), new JoinAgain(), system.dispatcher(), getSelf());
+            }
+        } else if (message instanceof JoinAgain) {
+            this.request(selection, this.createJoinRoundRequest());
+        } else if (message instanceof SampleForRound) {
+            Messages.SamplingHint hint = ((SampleForRound) message).hint;
+            if (this.random.nextDouble() < hint.samplingProbability) {
+                this.events.info("Client", "sampled").round(hint.roundNumber).client(this.clientId).log();
+                this.request(selection, this.createJoinRoundRequest());
+            } else {
+                // Not sampled, next round is expected after the usual round duration
+                this.scheduleSampling(hint.roundDurationMillis,
+                        new Messages.SamplingHint(hint.roundNumber + 1, hint.roundDurationMillis, hint.roundDurationMillis, hint.samplingProbability));
+            }
+        } else if (message instanceof Messages.RetryAfter) {
+            // Server is overloaded, send the same request again later
+            Messages.RetryAfter retryAfter = (Messages.RetryAfter) message;
+            long delay = this.retryDelay(retryAfter.delayMillis);
+            this.events.info("Client", "retry").client(this.clientId).with("requestedMillis", retryAfter.delayMillis).with("delayMillis", delay).log();
+            this.cancelRequestTimeout();
+            this.pendingRequest = retryAfter.request;
+            this.scheduleSendAgain(delay);
+        } else if (message instanceof RequestTimeout) {
+            if (((RequestTimeout) message).request != this.pendingRequest) {
+                // Answer came in the meantime
+                return;
+            }
+            long delay = this.retryDelay(0);
+            this.events.warning("Client", "request-timeout").task(this.taskId).client(this.clientId)
+                    .with("request", this.pendingRequest.getClass().getSimpleName()).with("delayMillis", delay).log();
+            this.scheduleSendAgain(delay);
+        } else if (message instanceof SendAgain) {
+            if (((SendAgain) message).request == this.pendingRequest) {
+                this.request(this.pendingTarget, this.pendingRequest);
+            }
+        } else if (message instanceof Messages.GlobalModelChunk || message instanceof Messages.GlobalModelBroadcast
+                || message instanceof Messages.GlobalModelDelta) {
+            // Global model for the upcoming training streamed in chunks, it may arrive after StartLearningProcessCommand.
+            // Not sent at all when the cached model is up to date
+            this.getLocalTraining().forward(message, getContext());
         } else if (message instanceof Messages.StartLearningProcessCommand) {
             // Server told that device should run learning module
-            log.info("Received start learning command");
+            this.events.info("Client", "start-learning").task(this.taskId).client(this.clientId).log();
 
-            ActorSystem system = getContext().system();
+            if ("jvm".equals(this.runtime)) {
+                this.getLocalTraining().tell(new LocalTrainingActor.TrainModel((Messages.StartLearningProcessCommand) message, getSender()), getSelf());
+                return;
+            }
 
-            // Start learning module
-            ActorRef moduleRummer = system.actorOf(Props.create(ClientRunModuleActor.class), "ClientRunModuleActor");
+            // Start learning module, child of the client so modules of clients sharing the JVM do not clash.
+            // Server is told how it ended once it exits
+            this.moduleServer = getSender();
+            ActorRef moduleRummer = getContext().actorOf(Props.create(ClientRunModuleActor.class, this.configuration));
             moduleRummer.tell(new RunModule(this.moduleFileName), getSelf());
+        } else if (message instanceof ModuleFinished) {
+            ModuleFinished finished = (ModuleFinished) message;
+            if (finished.exitCode == 0 && finished.reason == null) {
+                this.events.info("Client", "module-finished").task(this.taskId).client(this.clientId)
+                        .with("durationMillis", finished.durationMillis).log();
+                this.moduleServer.tell(new Messages.StartLearningModule(0, finished.durationMillis), getSelf());
+            } else {
+                // Failed or killed module has no update, server drops the device from the round
+                this.events.warning("Client", "module-failed").task(this.taskId).client(this.clientId)
+                        .with("exitCode", finished.exitCode).with("reason", finished.reason).log();
+                this.moduleServer.tell(new Messages.LearningModuleFailed(finished.exitCode, finished.reason), getSelf());
+            }
+            this.stopHeartbeat();
+        } else if (message instanceof LocalTrainingActor.TrainingFinished) {
+            // Update has been sent, aggregator no longer watches this client in the round
+            this.stopHeartbeat();
+        } else if (message instanceof Status.Failure) {
+            // Module could not be saved, the client does not join without it
+            this.events.error("Client", "module-not-saved", ((Status.Failure) message).cause()).task(this.taskId).client(this.clientId).log();
+        }
+    }
 
-            ActorRef server = getSender();
-            FiniteDuration delay =  new FiniteDuration(60, TimeUnit.SECONDS);
+    private void stopHeartbeat() {
+        getContext().actorSelection("/user/Heartbeat").tell(new HeartbeatActor.UnregisterHeartbeat(this.clientId), getSelf());
+    }
+
+    private ActorRef getLocalTraining() {
+        if (this.localTraining == null) {
+            this.localTraining = getContext().actorOf(Props.create(LocalTrainingActor.class, this.getModelCache(), this.configuration)
+                    .withDispatcher("local-training-dispatcher"), "LocalTraining");
+        }
+        return this.localTraining;
+    }
 
-            // Tell server, after 60 sec, that script has been ran
-            system
-                .scheduler()
-                .scheduleOnce(delay, server, new Messages.StartLearningModule(), system.dispatcher(), getSelf());
+    private ModelCache getModelCache() {
+        if (this.modelCache == null) {
+            this.modelCache = new ModelCache(this.pathToModules, this.taskId, this.clientId);
         }
+        return this.modelCache;
+    }
+
+    // Sends request to the server, it is sent again when the answer does not come in requestTimeoutMillis
+    private void request(ActorSelection target, Object request) {
+        this.pendingRequest = request;
+        this.pendingTarget = target;
+        target.tell(request, getSelf());
+
+        this.cancelRequestTimeout();
+        ActorSystem system = getContext().system();
+        this.requestTimeout = system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(this.configuration.requestTimeoutMillis, TimeUnit.MILLISECONDS), getSelf(),
+                    new RequestTimeout(request), system.dispatcher(), getSelf());
+    }
+
+    private void requestAnswered() {
+        this.cancelRequestTimeout();
+        this.pendingRequest = null;
+    }
+
+    private void cancelRequestTimeout() {
+        if (this.requestTimeout != null) {
+            this.requestTimeout.cancel();
+            this.requestTimeout = null;
+        }
+    }
+
+    // Pending request is sent again after the delay unless it is answered before
+    private void scheduleSendAgain(long delayMillis) {
+        ActorSystem system = getContext().system();
+        system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(delayMillis, TimeUnit.MILLISECONDS), getSelf(),
+                    new SendAgain(this.pendingRequest), system.dispatcher(), getSelf());
+    }
+
+    // Join request with the cached model, so the server sends only what has changed. Without a readable
+    // cache the server sends the whole model
+    private Messages.JoinRoundRequest createJoinRoundRequest() {
+        ModelCache cache = this.getModelCache();
+        int cachedVersion = 0;
+        String cachedHash = null;
+        try {
+            cachedVersion = cache.version();
+            cachedHash = cache.hash();
+        } catch (IOException e) {
+            this.events.error("Client", "model-cache-not-readable", e).task(this.taskId).client(this.clientId).log();
+            cachedVersion = 0;
+            cachedHash = null;
+        }
+        return new Messages.JoinRoundRequest(LocalDateTime.now(), this.taskId, this.clientId, this.port, this.capabilities,
+                cachedVersion, cachedHash);
+    }
+
+    // Hash of the cached model, null when there is none or it cannot be read
+    private String cachedModelHash() {
+        try {
+            return this.getModelCache().hash();
+        } catch (IOException e) {
+            this.events.error("Client", "model-cache-not-readable", e).task(this.taskId).client(this.clientId).log();
+            return null;
+        }
+    }
+
+    // Exponential backoff with jitter, never shorter than the delay asked by the server
+    private long retryDelay(long requestedMillis) {
+        long backoff = Math.min(60_000, 500L << Math.min(this.retryAttempts, 7));
+        this.retryAttempts++;
+        return requestedMillis + (long) (this.random.nextDouble() * backoff);
+    }
+
+    // Schedules decision about joining the round, jitter spreads join requests of sampled devices
+    private void scheduleSampling(long delayMillis, Messages.SamplingHint hint) {
+        long jitter = (long) (this.random.nextDouble() * Math.min(hint.roundDurationMillis, 10_000) / 2);
+        ActorSystem system = getContext().system();
+        system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(delayMillis + jitter, TimeUnit.MILLISECONDS), getSelf(), new SampleForRound(hint), system.dispatcher(), getSelf());
     }
 
     // Saves file - module
@@ -117,35 +354,74 @@ public class ClientActor extends UntypedActor {
         try (FileOutputStream fos = new FileOutputStream(pathToModules + result.fileName)) {
             fos.write(result.content);
         } catch (Exception e) {
-            log.info("Error:");
-            e.printStackTrace();
+            this.events.error("Client", "module-not-saved", e).client(this.clientId).with("file", result.fileName).log();
         }
     }
 
     // Finds module that meets requirements
     private Messages.ModuleData findProperModuleStrategy(List<Messages.ModuleData> modules) throws Exception {
-        try {
-            Configuration configurationHandler = new Configuration();
-            Configuration.ConfigurationDTO configuration = configurationHandler.get();
+        Configuration.ConfigurationDTO configuration = this.configuration;
 
-            Messages.ModuleData m = modules.stream().findFirst().get();
-            Optional<Messages.ModuleData> moduleOpt = modules
-                    .stream()
-                    .filter(element ->
-                            element.useCUDA.equals(configuration.useCuda)
-                            && element.instanceType == configuration.instanceType
-                            && element.minRAMInGB <= configuration.RAMInGB)
-                    .findFirst();
-            Messages.ModuleData module = moduleOpt.orElse(null);
+        Optional<Messages.ModuleData> moduleOpt = modules
+                .stream()
+                .filter(element ->
+                        element.useCUDA.equals(configuration.useCuda)
+                        && element.instanceType == configuration.instanceType
+                        && element.minRAMInGB <= configuration.RAMInGB)
+                .findFirst();
+        Messages.ModuleData module = moduleOpt.orElse(null);
 
-            if (module == null) {
-                throw new Exception("Could not find proper module");
-            }
-            return module;
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw e;
+        if (module == null) {
+            throw new Exception("Could not find proper module");
+        }
+        return module;
+    }
+
+    // Message that module received from the server has been saved
+    public static class ModuleSaved {
+        public ModuleSaved(String fileName) {
+            this.fileName = fileName;
+        }
+        public String fileName;
+    }
+
+    // Message to decide whether to join the round described by the hint
+    public static class SampleForRound {
+        public SampleForRound(Messages.SamplingHint hint) {
+            this.hint = hint;
+        }
+        public Messages.SamplingHint hint;
+    }
+
+    // Message to send the join request again
+    public static class JoinAgain { }
+
+    // Message that the request has not been answered in time
+    public static class RequestTimeout {
+        public RequestTimeout(Object request) {
+            this.request = request;
+        }
+        public Object request;
+    }
+
+    // Message to send the pending request again
+    public static class SendAgain {
+        public SendAgain(Object request) {
+            this.request = request;
+        }
+        public Object request;
+    }
+
+    // Message that the learning module ended, reason is set when it was killed or could not be started
+    public static class ModuleFinished {
+        public ModuleFinished(int exitCode, long durationMillis, String reason) {
+            this.exitCode = exitCode;
+            this.durationMillis = durationMillis;
+            this.reason = reason;
         }
+        public int exitCode;
+        public long durationMillis;
+        public String reason;
     }
 
     // Run module message
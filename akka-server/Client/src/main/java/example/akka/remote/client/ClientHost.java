@@ -0,0 +1,42 @@
+package example.akka.remote.client;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import example.akka.remote.shared.Messages;
+
+import java.io.IOException;
+
+// Runs participants listed in appConfig.json as ClientActor children in one actor system, so they share
+// the connection to the server, the heartbeat sender and the loaded dataset. Children are named by the
+// client id.
+public class ClientHost extends UntypedActor {
+
+    public ClientHost(Configuration.ConfigurationDTO hostConfiguration) throws IOException {
+        int participants = hostConfiguration.participants.size();
+        for (Configuration.ParticipantDTO participant : hostConfiguration.participants) {
+            Configuration.ConfigurationDTO configuration = new Configuration(participant).get();
+            if (configuration.trainingThreads == 0) {
+                // Participants train at the same time, processors are split between them
+                configuration.trainingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / participants);
+            }
+            getContext().actorOf(Props.create(ClientActor.class, configuration), participant.id);
+        }
+        log.info("Host runs " + participants + " participants");
+    }
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof Messages.StartLearning) {
+            for (ActorRef client : getContext().getChildren()) {
+                client.forward(message, getContext());
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+}
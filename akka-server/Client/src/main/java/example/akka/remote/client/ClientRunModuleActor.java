@@ -1,10 +1,12 @@
 package example.akka.remote.client;
 
 import akka.actor.ActorSelection;
+import akka.actor.Status;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import example.akka.remote.shared.Messages;
+import example.akka.remote.shared.ProcessSupervisor;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -13,6 +15,13 @@ import java.io.InputStreamReader;
 import java.time.LocalDateTime;
 
 public class ClientRunModuleActor extends UntypedActor {
+    public ClientRunModuleActor(Configuration.ConfigurationDTO configuration) {
+        this.configuration = configuration;
+    }
+
+    // Configuration of the client which runs the module
+    private Configuration.ConfigurationDTO configuration;
+
     private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
     @Override
@@ -21,21 +30,28 @@ public class ClientRunModuleActor extends UntypedActor {
         if (message instanceof ClientActor.RunModule) {
             log.info("Received RunModule command");
             this.runLearning(((ClientActor.RunModule) message).moduleFileName);
+        } else if (message instanceof ProcessSupervisor.Exited) {
+            // Actor is created for a single run, client reports the result to the server
+            ProcessSupervisor.Exited exited = (ProcessSupervisor.Exited) message;
+            log.info("Module finished with exit code " + exited.exitCode + " in " + exited.durationMillis + " ms");
+            getContext().parent().tell(new ClientActor.ModuleFinished(exited.exitCode, exited.durationMillis, exited.killReason), getSelf());
+            getContext().stop(getSelf());
+        } else if (message instanceof ProcessSupervisor.Metric) {
+            ProcessSupervisor.Metric metric = (ProcessSupervisor.Metric) message;
+            log.info("Module " + metric.name + ": " + metric.value);
+        } else if (message instanceof Status.Failure) {
+            this.failed(((Status.Failure) message).cause());
         }
     }
 
     // Runs module
     private void runLearning(String moduleFileName) {
-        Configuration.ConfigurationDTO configuration;
+        Configuration.ConfigurationDTO configuration = this.configuration;
         try {
-            Configuration configurationHandler = new Configuration();
-            configuration = configurationHandler.get();
-
             // execute scrips with proper parameters
             ProcessBuilder processBuilder = new ProcessBuilder();
             processBuilder.directory(new File(System.getProperty("user.dir")));
             processBuilder
-                .inheritIO()
                 .command("python", configuration.pathToModules + moduleFileName,
                          "--datapath", configuration.datapath,
                          "--id", configuration.id,
@@ -43,10 +59,18 @@ public class ClientRunModuleActor extends UntypedActor {
                          "--port", String.valueOf(configuration.port),
                          "--data_set_id", String.valueOf(configuration.dataSetId));
 
-            Process process = processBuilder.start();
-            int exitCode = process.waitFor();
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+            // Output goes to the log, runaway module is killed when it exceeds the limits
+            ProcessSupervisor.start(getContext().system(), "client-module", processBuilder,
+                    new ProcessSupervisor.Limits(configuration.moduleTimeoutSeconds * 1000L, configuration.moduleMemoryLimitMB),
+                    getSelf());
+        } catch (IOException e) {
+            this.failed(e);
         }
     }
+
+    private void failed(Throwable cause) {
+        log.error(cause, "Module could not be run");
+        getContext().parent().tell(new ClientActor.ModuleFinished(-1, 0, "could not be run: " + cause.getMessage()), getSelf());
+        getContext().stop(getSelf());
+    }
 }
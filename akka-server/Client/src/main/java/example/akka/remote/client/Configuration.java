@@ -5,17 +5,27 @@ import example.akka.remote.shared.Messages;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Configuration {
 
-    public static Integer dataSetId;  // number of dataset
-    public static String id; // Id of the client e.g. alice
-    public static Integer port; // port on which the client is working
+    public Configuration() { }
+
+    // Configuration of one of the participants running in host mode
+    public Configuration(ParticipantDTO participant) {
+        this.dataSetId = participant.dataSetId;
+        this.id = participant.id;
+        this.port = participant.port;
+    }
+
+    // Values which override appConfig.json, kept per instance so several clients can run in one JVM
+    private Integer dataSetId;  // number of dataset
+    private String id; // Id of the client e.g. alice
+    private Integer port; // port on which the client is working
 
     // Method which saves arguments passed as execution arguments
     public void SaveArguments(String[] args) {
-        System.out.println("Len: " + args.length);
-
         if (args.length > 1) {
             this.dataSetId = Integer.parseInt(args[1]);
         }
@@ -26,14 +36,21 @@ public class Configuration {
         if (args.length > 3) {
             this.port = Integer.parseInt(args[3]);
         }
-        System.out.println("dataSetId: " + this.dataSetId + ", id: " + this.id + ", port: " + this.port);
+    }
+
+    // Mapper is thread-safe and expensive to create, so it is shared by all participants of the host
+    private static ObjectMapper mapper;
+
+    private static synchronized ObjectMapper mapper() {
+        if (mapper == null) {
+            mapper = new ObjectMapper();
+        }
+        return mapper;
     }
 
     // Method which returns configuration from appConfig.json file
     public ConfigurationDTO get() throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-
-        Configuration.ConfigurationDTO configuration = mapper.readValue(new File("./src/main/resources/appConfig.json"), Configuration.ConfigurationDTO.class);
+        Configuration.ConfigurationDTO configuration = mapper().readValue(new File("./src/main/resources/appConfig.json"), Configuration.ConfigurationDTO.class);
 
         FillWithArguments(configuration);
         return configuration;
@@ -41,20 +58,14 @@ public class Configuration {
 
     public void FillWithArguments(ConfigurationDTO configuration) {
         if (this.dataSetId != null) {
-            System.out.println("dataSetId NOT NULL: " + this.dataSetId);
             configuration.dataSetId = this.dataSetId;
-        } else {
-            System.out.println("dataSetId NOT NULL");
         }
         if (this.id != null) {
             configuration.id = this.id;
         }
         if (this.port != null) {
             configuration.port = this.port;
-        } else {
-            System.out.println("PORT IS NULL");
         }
-
     }
 
     public static class ConfigurationDTO {
@@ -70,6 +81,33 @@ public class Configuration {
         public String pathToModules;
         public String pathToModulesList;
         public int dataSetId;
+        public int heartbeatIntervalMillis = 1000;
+        // Requests to the server not answered in this time are sent again with a random delay
+        public int requestTimeoutMillis = 10000;
+        // Model updates are sent in chunks of this size
+        public int updateChunkSizeKB = 1024;
+
+        // Training runtime: "python" runs downloaded module, "jvm" trains inside the client
+        public String runtime = "python";
+        // Threads used by the JVM runtime, 0 means number of processors
+        public int trainingThreads = 0;
+
+        // Limits of the python module process, 0 means no limit
+        public int moduleTimeoutSeconds = 3600;
+        public int moduleMemoryLimitMB = 0;
+
+        // Number of partitions the training set is split into, participant trains on partition dataSetId.
+        // 0 means every participant uses the whole set
+        public int dataSetPartitions = 0;
+
+        // Participants run by the client started in host mode, they share the actor system and the dataset
+        public List<ParticipantDTO> participants = new ArrayList<>();
+    }
+
+    public static class ParticipantDTO {
+        public String id;
+        public int port;
+        public int dataSetId;
     }
 }
 
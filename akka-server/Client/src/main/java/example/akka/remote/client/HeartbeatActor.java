@@ -0,0 +1,94 @@
+package example.akka.remote.client;
+
+import akka.actor.ActorPath;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import example.akka.remote.shared.Messages;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Sends heartbeats of all clients running on this host. Heartbeats for the same aggregator
+// are coalesced into a single message per interval. They are sent to the path of the aggregator,
+// so they reach a restarted server as well, not only the incarnation the client joined.
+public class HeartbeatActor extends UntypedActor {
+
+    public HeartbeatActor() {
+        int intervalMillis = 1000;
+        try {
+            intervalMillis = new Configuration().get().heartbeatIntervalMillis;
+        } catch (IOException e) {
+            log.error(e, "Configuration could not be read, heartbeats are sent every {} ms", intervalMillis);
+        }
+
+        FiniteDuration interval = new FiniteDuration(intervalMillis, TimeUnit.MILLISECONDS);
+        this.tick = getContext().system()
+                .scheduler()
+                .schedule(interval, interval, getSelf(), new Tick(), getContext().dispatcher(), ActorRef.noSender());
+    }
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    // Clients registered on this host grouped by aggregator they take part in, paths ignore the incarnation
+    private Map<ActorPath, Set<String>> clientsByAggregator = new HashMap<>();
+
+    private Cancellable tick;
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof RegisterHeartbeat) {
+            RegisterHeartbeat register = (RegisterHeartbeat) message;
+            // Client takes part in one round at a time
+            this.clientsByAggregator.values().forEach(clientIds -> clientIds.remove(register.clientId));
+            this.clientsByAggregator
+                    .computeIfAbsent(register.aggregator.path(), aggregator -> new LinkedHashSet<>())
+                    .add(register.clientId);
+            log.debug("Heartbeat registered for {}", register.clientId);
+        } else if (message instanceof UnregisterHeartbeat) {
+            // Client has finished its part of the round or was not accepted
+            String clientId = ((UnregisterHeartbeat) message).clientId;
+            this.clientsByAggregator.values().forEach(clientIds -> clientIds.remove(clientId));
+        } else if (message instanceof Tick) {
+            this.clientsByAggregator.values().removeIf(Set::isEmpty);
+            for (Map.Entry<ActorPath, Set<String>> entry : this.clientsByAggregator.entrySet()) {
+                getContext().actorSelection(entry.getKey()).tell(new Messages.Heartbeat(new ArrayList<>(entry.getValue())), getSelf());
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+
+    @Override
+    public void postStop() {
+        this.tick.cancel();
+    }
+
+    // Message that starts sending heartbeats of the client to the aggregator
+    public static class RegisterHeartbeat {
+        public RegisterHeartbeat(String clientId, ActorRef aggregator) {
+            this.clientId = clientId;
+            this.aggregator = aggregator;
+        }
+        public String clientId;
+        public ActorRef aggregator;
+    }
+
+    // Message that stops sending heartbeats of the client
+    public static class UnregisterHeartbeat {
+        public UnregisterHeartbeat(String clientId) {
+            this.clientId = clientId;
+        }
+        public String clientId;
+    }
+
+    private static class Tick { }
+}
@@ -0,0 +1,107 @@
+package example.akka.remote.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Trains MnistNetwork with SGD on the local dataset. Samples of every batch are split between
+// threads, each accumulating gradients in its own workspace, which are then summed up.
+public class LocalTrainer {
+
+    public LocalTrainer(MnistDataset dataset, int threads, long seed) {
+        this.dataset = dataset;
+        this.executor = sharedExecutor();
+        this.workspaces = new MnistNetwork.Workspace[threads];
+        for (int i = 0; i < threads; i++) {
+            this.workspaces[i] = new MnistNetwork.Workspace();
+        }
+        this.random = new Random(seed);
+    }
+
+    private final MnistDataset dataset;
+
+    // Threads of all trainers in the JVM, clients running in host mode do not start their own pools
+    private final ExecutorService executor;
+
+    private static ExecutorService sharedExecutor;
+
+    private final MnistNetwork.Workspace[] workspaces;
+
+    private final Random random;
+
+    // Runs given number of SGD steps starting from the weights, which are updated in place
+    public Result train(float[] weights, int steps, int batchSize, float learningRate) throws InterruptedException, ExecutionException {
+        double lastLoss = 0;
+        int samples = 0;
+        for (int step = 0; step < steps; step++) {
+            int[] batch = new int[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = this.random.nextInt(this.dataset.size());
+            }
+            lastLoss = this.step(weights, batch, learningRate);
+            samples += batchSize;
+        }
+        return new Result(samples, lastLoss);
+    }
+
+    // Single SGD step on the batch, returns mean loss
+    private double step(float[] weights, int[] batch, float learningRate) throws InterruptedException, ExecutionException {
+        int threads = this.workspaces.length;
+        int chunk = (batch.length + threads - 1) / threads;
+
+        List<Future<Double>> losses = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            MnistNetwork.Workspace workspace = this.workspaces[t];
+            int from = t * chunk;
+            int to = Math.min(batch.length, from + chunk);
+            losses.add(this.executor.submit(() -> {
+                double loss = 0;
+                for (int i = from; i < to; i++) {
+                    this.dataset.copyImage(batch[i], workspace.input);
+                    loss += MnistNetwork.forwardBackward(weights, workspace, this.dataset.label(batch[i]));
+                }
+                return loss;
+            }));
+        }
+
+        double loss = 0;
+        for (Future<Double> threadLoss : losses) {
+            loss += threadLoss.get();
+        }
+
+        // Apply averaged gradient and clear workspaces for the next step
+        float scale = learningRate / batch.length;
+        for (MnistNetwork.Workspace workspace : this.workspaces) {
+            float[] gradients = workspace.gradients;
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] -= scale * gradients[i];
+                gradients[i] = 0;
+            }
+        }
+        return loss / batch.length;
+    }
+
+    private static synchronized ExecutorService sharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "local-trainer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedExecutor;
+    }
+
+    public static class Result {
+        public Result(int numberOfSamples, double loss) {
+            this.numberOfSamples = numberOfSamples;
+            this.loss = loss;
+        }
+        public int numberOfSamples;
+        public double loss;
+    }
+}
@@ -0,0 +1,476 @@
+package example.akka.remote.client;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.util.ByteString;
+import example.akka.remote.shared.Messages;
+import example.akka.remote.shared.ModelDelta;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+// Trains the model inside the client JVM, used instead of the python module when runtime is "jvm".
+// Update is streamed to the server in chunks, at most UPLOAD_WINDOW of them wait for acknowledgement.
+// Chunks not acknowledged in requestTimeoutMillis are sent again, the server drops them when it is busy.
+// Global model arrives the same way, its chunks are written to a download file of the cache and acknowledged.
+// Training whose model has not arrived yet waits for it, the whole model is requested when no chunk comes
+// in requestTimeoutMillis or when the delta cannot be applied, and the request is repeated until it is answered.
+public class LocalTrainingActor extends UntypedActor {
+
+    private static final int UPLOAD_WINDOW = 4;
+    private static final int UPLOAD_ATTEMPTS = 10;
+    private static final int MODEL_REQUEST_ATTEMPTS = 10;
+
+    public LocalTrainingActor(ModelCache cache, Configuration.ConfigurationDTO configuration) {
+        this.cache = cache;
+        this.configuration = configuration;
+    }
+
+    // Configuration of the client owning this actor
+    private Configuration.ConfigurationDTO configuration;
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    // Created with the first training, dataset is loaded only once
+    private LocalTrainer trainer;
+
+    // Last global model received from the server
+    private float[] weights;
+    private int weightsVersion;
+
+    // Global model kept on the disk between rounds
+    private ModelCache cache;
+
+    // Update being sent to the server, null when there is none
+    private Upload upload;
+
+    // Training waiting for its model
+    private TrainModel pendingTraining;
+
+    // Model being received in chunks, null when there is none
+    private ModelDownload download;
+
+    // Last model received completely, its chunks sent again are only acknowledged
+    private int downloadedVersion;
+
+    // Model version requested from the server, 0 when none is missing
+    private int requestedVersion;
+    private ActorRef modelSource;
+    private int modelRequestAttempts;
+    private int modelTimeoutId;
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof Messages.GlobalModelChunk) {
+            Messages.GlobalModelChunk chunk = (Messages.GlobalModelChunk) message;
+            if (chunk.version == this.downloadedVersion || this.receiveChunk(chunk)) {
+                getSender().tell(new Messages.GlobalModelAck(this.configuration.id, chunk.baseVersion, chunk.version, chunk.offset), getSelf());
+            }
+        } else if (message instanceof Messages.GlobalModelBroadcast) {
+            Messages.GlobalModelBroadcast broadcast = (Messages.GlobalModelBroadcast) message;
+            ModelDownload download = this.completeDownload(0, broadcast.version, broadcast.length);
+            if (download == null) {
+                return;
+            }
+            boolean saved;
+            try {
+                saved = this.cache.save(broadcast.version, broadcast.hash, download.file);
+            } catch (IOException e) {
+                log.warning("Model version " + broadcast.version + " could not be cached: " + e.getMessage());
+                saved = false;
+            }
+            if (!saved) {
+                log.info("Model version " + broadcast.version + " does not match the server one");
+                this.requestModel(getSender(), broadcast.version);
+                return;
+            }
+            // Loaded from the cache for the training
+            this.weights = null;
+            this.modelReceived(broadcast.version);
+        } else if (message instanceof Messages.GlobalModelDelta) {
+            // Difference to the cached model, new model is used only when its hash matches the server one
+            Messages.GlobalModelDelta delta = (Messages.GlobalModelDelta) message;
+            ModelDownload download = this.completeDownload(delta.baseVersion, delta.version, delta.length);
+            if (download == null) {
+                return;
+            }
+            float[] base = this.getWeights(delta.baseVersion);
+            if (base == null) {
+                this.discard(download);
+                log.info("Missing base model version " + delta.baseVersion + " for the delta");
+                this.requestModel(getSender(), delta.version);
+                return;
+            }
+            float[] weights;
+            try {
+                weights = ModelDelta.apply(base, download.file.read());
+            } catch (IOException | DataFormatException e) {
+                // Restarting the actor would lose the pending training, so the whole model is requested instead
+                log.info("Delta to model version " + delta.version + " is corrupted: " + e.getMessage());
+                this.requestModel(getSender(), delta.version);
+                return;
+            } finally {
+                this.discard(download);
+            }
+            ByteString checkpoint = ModelDelta.checkpoint(delta.version, weights);
+            if (!ModelDelta.checksum(checkpoint).equals(delta.hash)) {
+                log.info("Model version " + delta.version + " created from the delta does not match the server one");
+                this.requestModel(getSender(), delta.version);
+                return;
+            }
+            this.weights = weights;
+            this.weightsVersion = delta.version;
+            try {
+                this.cache.save(delta.version, delta.hash, checkpoint.asByteBuffer());
+            } catch (IOException e) {
+                // Model is trained from memory, without the cache the next round needs the whole model
+                log.warning("Model version " + delta.version + " could not be cached: " + e.getMessage());
+            }
+            this.modelReceived(delta.version);
+        } else if (message instanceof ModelTimeout) {
+            if (((ModelTimeout) message).id != this.modelTimeoutId || this.requestedVersion == 0) {
+                return;
+            }
+            if (this.download != null && this.download.version == this.requestedVersion && this.download.progressed) {
+                // Model is still arriving, requesting it again would start the transfer over
+                this.download.progressed = false;
+                this.scheduleModelTimeout();
+                return;
+            }
+            if (++this.modelRequestAttempts > MODEL_REQUEST_ATTEMPTS) {
+                // Client stops sending heartbeats, so the server drops it from the round
+                log.warning("Model version " + this.requestedVersion + " has not arrived, giving up");
+                this.requestedVersion = 0;
+                if (this.pendingTraining != null) {
+                    this.pendingTraining = null;
+                    getContext().parent().tell(new TrainingFinished(), getSelf());
+                }
+                return;
+            }
+            this.sendModelRequest();
+            this.scheduleModelTimeout();
+        } else if (message instanceof Messages.ModelUpdateAck) {
+            Messages.ModelUpdateAck ack = (Messages.ModelUpdateAck) message;
+            if (this.upload == null || ack.modelVersion != this.upload.update.modelVersion) {
+                return;
+            }
+            this.upload.attempts = 0;
+            if (ack.offset == -1) {
+                this.finishUpload();
+                return;
+            }
+            this.upload.inFlight.remove(ack.offset);
+            this.sendChunks();
+        } else if (message instanceof UploadTimeout) {
+            if (this.upload == null || ((UploadTimeout) message).id != this.upload.timeoutId) {
+                return;
+            }
+            if (++this.upload.attempts > UPLOAD_ATTEMPTS) {
+                // Client stops sending heartbeats, so the server drops it from the round
+                log.warning("Update of model version " + this.upload.update.modelVersion + " was not acknowledged, giving up");
+                this.finishUpload();
+                return;
+            }
+            for (int offset : this.upload.inFlight) {
+                this.sendChunk(offset);
+            }
+            if (this.upload.closed) {
+                this.upload.receiver.tell(this.upload.update, getSelf());
+            }
+            this.scheduleUploadTimeout();
+        } else if (message instanceof TrainModel) {
+            TrainModel train = (TrainModel) message;
+            // Update of the previous round is not needed any more
+            this.upload = null;
+            Messages.StartLearningProcessCommand command = train.command;
+            Configuration.ConfigurationDTO configuration = this.configuration;
+
+            if (this.trainer == null) {
+                int threads = configuration.trainingThreads > 0
+                        ? configuration.trainingThreads
+                        : Runtime.getRuntime().availableProcessors();
+                MnistDataset dataset = MnistDataset.shared(configuration.datapath, true);
+                if (configuration.dataSetPartitions > 0) {
+                    dataset = dataset.partition(configuration.dataSetId, configuration.dataSetPartitions);
+                }
+                this.trainer = new LocalTrainer(dataset, threads, configuration.id.hashCode());
+            }
+
+            if (command.modelVersion == 0) {
+                // Server has no model yet, every client starts from the same one like torch.manual_seed(1) in mnist.py
+                this.weights = MnistNetwork.initialWeights(1);
+                this.weightsVersion = 0;
+            } else {
+                this.weights = this.getWeights(command.modelVersion);
+                this.weightsVersion = command.modelVersion;
+                if (this.weights == null) {
+                    // Model is usually on its way, trained once it arrives
+                    log.info("Waiting for global model version " + command.modelVersion);
+                    this.pendingTraining = train;
+                    this.awaitModel(train.replyTo, command.modelVersion);
+                    return;
+                }
+            }
+
+            // Model requested before is not needed any more
+            this.requestedVersion = 0;
+            log.info("Training " + command.localSteps + " steps of batch " + command.batchSize);
+            long start = System.currentTimeMillis();
+            LocalTrainer.Result result = this.trainer.train(this.weights, command.localSteps, command.batchSize, command.learningRate);
+            long trainingMillis = System.currentTimeMillis() - start;
+            log.info("Training finished in " + trainingMillis + " ms, loss: " + result.loss);
+
+            Messages.ModelUpdate update = new Messages.ModelUpdate(configuration.id, command.modelVersion, this.weights,
+                    result.numberOfSamples, result.loss, trainingMillis);
+            // Weights were trained in place and handed over with the update
+            float[] weights = this.weights;
+            this.weights = null;
+            if (command.updateReceiver == null) {
+                // Aggregator receives whole updates
+                train.replyTo.tell(update, getSelf());
+                getContext().parent().tell(new TrainingFinished(), getSelf());
+                return;
+            }
+            update.weights = null;
+            this.upload = new Upload(command.updateReceiver, update, weights, configuration.updateChunkSizeKB * 256);
+            this.sendChunks();
+        } else {
+            unhandled(message);
+        }
+    }
+
+    // Sends chunks until the window is full, update itself closes the upload once all chunks are acknowledged
+    private void sendChunks() {
+        Upload upload = this.upload;
+        while (upload.inFlight.size() < UPLOAD_WINDOW && upload.nextOffset < upload.weights.length) {
+            upload.inFlight.add(upload.nextOffset);
+            this.sendChunk(upload.nextOffset);
+            upload.nextOffset += upload.chunkSize;
+        }
+        if (upload.nextOffset >= upload.weights.length && upload.inFlight.isEmpty() && !upload.closed) {
+            upload.closed = true;
+            upload.receiver.tell(upload.update, getSelf());
+        }
+        this.scheduleUploadTimeout();
+    }
+
+    private void sendChunk(int offset) {
+        Upload upload = this.upload;
+        float[] chunk = Arrays.copyOfRange(upload.weights, offset, Math.min(offset + upload.chunkSize, upload.weights.length));
+        upload.receiver.tell(new Messages.ModelUpdateChunk(upload.update.clientId, upload.update.modelVersion,
+                offset, upload.weights.length, chunk), getSelf());
+    }
+
+    // Timeouts scheduled before are ignored
+    private void scheduleUploadTimeout() {
+        ActorSystem system = getContext().system();
+        system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(this.configuration.requestTimeoutMillis, TimeUnit.MILLISECONDS), getSelf(),
+                    new UploadTimeout(++this.upload.timeoutId), system.dispatcher(), getSelf());
+    }
+
+    private void finishUpload() {
+        this.upload = null;
+        getContext().parent().tell(new TrainingFinished(), getSelf());
+    }
+
+    // Writes the chunk into the download, a chunk of another transfer replaces it. Returns false when it could not
+    // be written, the server sends it again
+    private boolean receiveChunk(Messages.GlobalModelChunk chunk) {
+        ModelDownload download = this.download;
+        if (download == null || download.baseVersion != chunk.baseVersion || download.version != chunk.version
+                || download.length != chunk.length) {
+            if (download != null) {
+                this.discard(download);
+            }
+            try {
+                download = new ModelDownload(chunk.baseVersion, chunk.version, chunk.length, this.cache.download());
+            } catch (IOException e) {
+                log.warning("Model version " + chunk.version + " could not be downloaded: " + e.getMessage());
+                this.download = null;
+                return false;
+            }
+            this.download = download;
+        }
+        if (download.offsets.contains(chunk.offset)) {
+            // Sent again because its acknowledgement was late
+            return true;
+        }
+        try {
+            download.file.write(chunk.offset, chunk.bytes);
+        } catch (IOException e) {
+            log.warning("Chunk of model version " + chunk.version + " could not be written: " + e.getMessage());
+            return false;
+        }
+        download.offsets.add(chunk.offset);
+        download.received += chunk.bytes.length;
+        download.progressed = true;
+        return true;
+    }
+
+    // Acknowledges the closing message and returns the download once all its chunks have arrived, null when
+    // there is nothing to use. Closing message sent again after the model was used is only acknowledged
+    private ModelDownload completeDownload(int baseVersion, int version, int length) {
+        ModelDownload download = this.download;
+        Messages.GlobalModelAck ack = new Messages.GlobalModelAck(this.configuration.id, baseVersion, version, -1);
+        if (version == this.downloadedVersion) {
+            getSender().tell(ack, getSelf());
+            return null;
+        }
+        if (download == null || download.baseVersion != baseVersion || download.version != version
+                || download.length != length || download.received < length) {
+            // Chunks were lost, e.g. when the actor restarted, the model is requested when it does not arrive
+            return null;
+        }
+        this.download = null;
+        // Content is checked by the hash, sending the closing message again would not help
+        getSender().tell(ack, getSelf());
+        return download;
+    }
+
+    // Asks the aggregator for the whole model, it is sent to the client like any other broadcast
+    private void requestModel(ActorRef aggregator, int version) {
+        if (this.requestedVersion == version && this.modelRequestAttempts > 0) {
+            // Already requested, sent again by the timeout
+            return;
+        }
+        this.awaitModel(aggregator, version);
+        this.modelRequestAttempts = 1;
+        this.sendModelRequest();
+    }
+
+    // Aggregator answers the client, which forwards the model here. Broadcaster forwards requests to the aggregator
+    private void sendModelRequest() {
+        this.modelSource.tell(new Messages.GlobalModelRequest(this.configuration.id, this.requestedVersion), getContext().parent());
+    }
+
+    // Model is requested when it does not arrive in requestTimeoutMillis
+    private void awaitModel(ActorRef aggregator, int version) {
+        if (this.requestedVersion == version) {
+            return;
+        }
+        this.requestedVersion = version;
+        this.modelSource = aggregator;
+        this.modelRequestAttempts = 0;
+        this.scheduleModelTimeout();
+    }
+
+    // Timeouts scheduled before are ignored
+    private void scheduleModelTimeout() {
+        ActorSystem system = getContext().system();
+        system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(this.configuration.requestTimeoutMillis, TimeUnit.MILLISECONDS), getSelf(),
+                    new ModelTimeout(++this.modelTimeoutId), system.dispatcher(), getSelf());
+    }
+
+    // Stops waiting for the model and starts the training waiting for it
+    private void modelReceived(int version) {
+        this.downloadedVersion = version;
+        if (this.requestedVersion == version) {
+            this.requestedVersion = 0;
+        }
+        if (this.pendingTraining != null && this.pendingTraining.command.modelVersion == version) {
+            getSelf().tell(this.pendingTraining, getSelf());
+            this.pendingTraining = null;
+        }
+    }
+
+    // Returns model with given version from memory or from the cache, null when there is none or the cache
+    // cannot be read, the model is requested from the server then
+    private float[] getWeights(int version) {
+        if (this.weights != null && this.weightsVersion == version) {
+            return this.weights;
+        }
+        try {
+            return this.cache.load(version);
+        } catch (IOException e) {
+            log.warning("Cached model version " + version + " could not be read: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void discard(ModelDownload download) {
+        try {
+            download.file.delete();
+        } catch (IOException e) {
+            log.warning("Download of model version " + download.version + " could not be removed: " + e.getMessage());
+        }
+    }
+
+    // Message to the client that its update has been sent
+    public static class TrainingFinished { }
+
+    // Update being streamed, offsets of chunks waiting for acknowledgement are in flight
+    private static class Upload {
+        Upload(ActorRef receiver, Messages.ModelUpdate update, float[] weights, int chunkSize) {
+            this.receiver = receiver;
+            this.update = update;
+            this.weights = weights;
+            this.chunkSize = chunkSize;
+        }
+        final ActorRef receiver;
+        final Messages.ModelUpdate update;
+        final float[] weights;
+        final int chunkSize;
+        int nextOffset;
+        Set<Integer> inFlight = new HashSet<>();
+        // Update itself has been sent
+        boolean closed;
+        int attempts;
+        int timeoutId;
+    }
+
+    // Model or delta being received, base version is 0 for the whole model
+    private static class ModelDownload {
+        ModelDownload(int baseVersion, int version, int length, ModelCache.Download file) {
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.length = length;
+            this.file = file;
+        }
+        final int baseVersion;
+        final int version;
+        final int length;
+        final ModelCache.Download file;
+        Set<Integer> offsets = new HashSet<>();
+        long received;
+        // New chunk arrived since the last model timeout
+        boolean progressed;
+    }
+
+    // Message that chunks have not been acknowledged in time
+    private static class UploadTimeout {
+        UploadTimeout(int id) {
+            this.id = id;
+        }
+        final int id;
+    }
+
+    // Message that the requested model has not arrived in time
+    private static class ModelTimeout {
+        ModelTimeout(int id) {
+            this.id = id;
+        }
+        final int id;
+    }
+
+    // Message that starts local training, result is sent to replyTo
+    public static class TrainModel {
+        public TrainModel(Messages.StartLearningProcessCommand command, ActorRef replyTo) {
+            this.command = command;
+            this.replyTo = replyTo;
+        }
+        public Messages.StartLearningProcessCommand command;
+        public ActorRef replyTo;
+    }
+}
@@ -0,0 +1,114 @@
+package example.akka.remote.client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+// MNIST images and labels read from the IDX files downloaded by torchvision (data/MNIST/raw).
+// Pixels are kept as bytes and normalized when copied into the network input.
+public class MnistDataset {
+
+    // Same normalization as transforms.Normalize((0.1307,), (0.3081,)) in the python modules
+    private static final float MEAN = 0.1307f;
+    private static final float STD = 0.3081f;
+
+    private static final int PIXELS = MnistNetwork.IMAGE_SIZE * MnistNetwork.IMAGE_SIZE;
+
+    private MnistDataset(byte[] images, byte[] labels, int offset, int size) {
+        this.images = images;
+        this.labels = labels;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    private final byte[] images;
+    private final byte[] labels;
+
+    // Range of the samples used by this dataset, partitions share arrays of the whole set
+    private final int offset;
+    private final int size;
+
+    // Datasets loaded by clients running in this JVM
+    private static final ConcurrentHashMap<String, MnistDataset> SHARED = new ConcurrentHashMap<>();
+
+    // Loads training or test set from the data path passed to the modules
+    public static MnistDataset load(String datapath, boolean train) throws IOException {
+        String prefix = train ? "train" : "t10k";
+        File raw = new File(datapath, "MNIST/raw");
+        byte[] images = readIdx(new File(raw, prefix + "-images-idx3-ubyte"), 2051);
+        byte[] labels = readIdx(new File(raw, prefix + "-labels-idx1-ubyte"), 2049);
+        return new MnistDataset(images, labels, 0, labels.length);
+    }
+
+    // Returns dataset loaded only once for all clients of the JVM
+    public static MnistDataset shared(String datapath, boolean train) throws IOException {
+        String key = new File(datapath).getCanonicalPath() + (train ? ":train" : ":test");
+        MnistDataset dataset = SHARED.get(key);
+        if (dataset != null) {
+            return dataset;
+        }
+        synchronized (SHARED) {
+            dataset = SHARED.get(key);
+            if (dataset == null) {
+                dataset = load(datapath, train);
+                SHARED.put(key, dataset);
+            }
+            return dataset;
+        }
+    }
+
+    // Returns one of count equal parts of the dataset without copying it
+    public MnistDataset partition(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("Partition " + index + " out of " + count);
+        }
+        int partitionSize = this.size / count;
+        return new MnistDataset(this.images, this.labels, this.offset + index * partitionSize, partitionSize);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int label(int index) {
+        return this.labels[this.offset + index];
+    }
+
+    // Copies normalized image into the network input
+    public void copyImage(int index, float[] input) {
+        int offset = (this.offset + index) * PIXELS;
+        for (int i = 0; i < PIXELS; i++) {
+            input[i] = ((this.images[offset + i] & 0xFF) / 255f - MEAN) / STD;
+        }
+    }
+
+    // Reads content of an IDX file, falls back to the gzipped version
+    private static byte[] readIdx(File file, int expectedMagic) throws IOException {
+        InputStream stream;
+        if (file.exists()) {
+            stream = new FileInputStream(file);
+        } else {
+            stream = new GZIPInputStream(new FileInputStream(file.getPath() + ".gz"));
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+            int magic = input.readInt();
+            if (magic != expectedMagic) {
+                throw new IOException("Unexpected IDX file " + file + ", magic number " + magic);
+            }
+            int size = input.readInt();
+            int itemSize = 1;
+            for (int dimension = 1; dimension < (magic & 0xFF); dimension++) {
+                itemSize *= input.readInt();
+            }
+            byte[] content = new byte[size * itemSize];
+            input.readFully(content);
+            return content;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package example.akka.remote.client;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Convolutional network for MNIST with the same architecture as Net in mnist.py:
+// conv(1->20, 5x5) relu maxpool(2), conv(20->50, 5x5) relu maxpool(2), linear(800->500) relu, linear(500->10) log_softmax.
+// All parameters are stored in one flat array in the order of the PyTorch state dict.
+public class MnistNetwork {
+
+    public static final int IMAGE_SIZE = 28;
+    public static final int CLASSES = 10;
+
+    private static final int KERNEL = 5;
+    private static final int CONV1_CHANNELS = 20;
+    private static final int CONV1_SIZE = IMAGE_SIZE - KERNEL + 1;      // 24
+    private static final int POOL1_SIZE = CONV1_SIZE / 2;               // 12
+    private static final int CONV2_CHANNELS = 50;
+    private static final int CONV2_SIZE = POOL1_SIZE - KERNEL + 1;      // 8
+    private static final int POOL2_SIZE = CONV2_SIZE / 2;               // 4
+    private static final int FLATTENED = CONV2_CHANNELS * POOL2_SIZE * POOL2_SIZE;  // 800
+    private static final int HIDDEN = 500;
+
+    // Offsets of the parameters in the flat array
+    private static final int CONV1_W = 0;
+    private static final int CONV1_B = CONV1_W + CONV1_CHANNELS * KERNEL * KERNEL;
+    private static final int CONV2_W = CONV1_B + CONV1_CHANNELS;
+    private static final int CONV2_B = CONV2_W + CONV2_CHANNELS * CONV1_CHANNELS * KERNEL * KERNEL;
+    private static final int FC1_W = CONV2_B + CONV2_CHANNELS;
+    private static final int FC1_B = FC1_W + HIDDEN * FLATTENED;
+    private static final int FC2_W = FC1_B + HIDDEN;
+    private static final int FC2_B = FC2_W + CLASSES * HIDDEN;
+
+    public static final int PARAMETERS = FC2_B + CLASSES;
+
+    // Parameters initialized the way PyTorch initializes Conv2d and Linear layers
+    public static float[] initialWeights(long seed) {
+        Random random = new Random(seed);
+        float[] weights = new float[PARAMETERS];
+        fillUniform(weights, CONV1_W, CONV2_W, KERNEL * KERNEL, random);
+        fillUniform(weights, CONV2_W, FC1_W, CONV1_CHANNELS * KERNEL * KERNEL, random);
+        fillUniform(weights, FC1_W, FC2_W, FLATTENED, random);
+        fillUniform(weights, FC2_W, PARAMETERS, HIDDEN, random);
+        return weights;
+    }
+
+    private static void fillUniform(float[] weights, int from, int to, int fanIn, Random random) {
+        double bound = 1.0 / Math.sqrt(fanIn);
+        for (int i = from; i < to; i++) {
+            weights[i] = (float) ((random.nextDouble() * 2 - 1) * bound);
+        }
+    }
+
+    // Buffers of a single forward and backward pass, one per training thread
+    public static class Workspace {
+        final float[] input = new float[IMAGE_SIZE * IMAGE_SIZE];
+        final float[] conv1 = new float[CONV1_CHANNELS * CONV1_SIZE * CONV1_SIZE];
+        final float[] pool1 = new float[CONV1_CHANNELS * POOL1_SIZE * POOL1_SIZE];
+        final int[] pool1Index = new int[CONV1_CHANNELS * POOL1_SIZE * POOL1_SIZE];
+        final float[] conv2 = new float[CONV2_CHANNELS * CONV2_SIZE * CONV2_SIZE];
+        final float[] pool2 = new float[FLATTENED];
+        final int[] pool2Index = new int[FLATTENED];
+        final float[] hidden = new float[HIDDEN];
+        final float[] output = new float[CLASSES];
+
+        final float[] gradOutput = new float[CLASSES];
+        final float[] gradHidden = new float[HIDDEN];
+        final float[] gradPool2 = new float[FLATTENED];
+        final float[] gradConv2 = new float[CONV2_CHANNELS * CONV2_SIZE * CONV2_SIZE];
+        final float[] gradPool1 = new float[CONV1_CHANNELS * POOL1_SIZE * POOL1_SIZE];
+        final float[] gradConv1 = new float[CONV1_CHANNELS * CONV1_SIZE * CONV1_SIZE];
+
+        // Gradient of the parameters accumulated over the samples processed by this workspace
+        public final float[] gradients = new float[PARAMETERS];
+    }
+
+    // Computes log probabilities of the classes for the image in workspace.input
+    public static void forward(float[] w, Workspace ws) {
+        // conv1 + relu
+        for (int c = 0; c < CONV1_CHANNELS; c++) {
+            int kernel = CONV1_W + c * KERNEL * KERNEL;
+            float bias = w[CONV1_B + c];
+            for (int y = 0; y < CONV1_SIZE; y++) {
+                for (int x = 0; x < CONV1_SIZE; x++) {
+                    float sum = bias;
+                    for (int ky = 0; ky < KERNEL; ky++) {
+                        int row = (y + ky) * IMAGE_SIZE + x;
+                        int k = kernel + ky * KERNEL;
+                        for (int kx = 0; kx < KERNEL; kx++) {
+                            sum += w[k + kx] * ws.input[row + kx];
+                        }
+                    }
+                    ws.conv1[(c * CONV1_SIZE + y) * CONV1_SIZE + x] = Math.max(0, sum);
+                }
+            }
+        }
+        maxPool(ws.conv1, CONV1_CHANNELS, CONV1_SIZE, ws.pool1, ws.pool1Index);
+
+        // conv2 + relu
+        for (int co = 0; co < CONV2_CHANNELS; co++) {
+            float bias = w[CONV2_B + co];
+            int out = co * CONV2_SIZE * CONV2_SIZE;
+            for (int i = 0; i < CONV2_SIZE * CONV2_SIZE; i++) {
+                ws.conv2[out + i] = bias;
+            }
+            for (int ci = 0; ci < CONV1_CHANNELS; ci++) {
+                int kernel = CONV2_W + (co * CONV1_CHANNELS + ci) * KERNEL * KERNEL;
+                int in = ci * POOL1_SIZE * POOL1_SIZE;
+                for (int ky = 0; ky < KERNEL; ky++) {
+                    for (int kx = 0; kx < KERNEL; kx++) {
+                        float weight = w[kernel + ky * KERNEL + kx];
+                        for (int y = 0; y < CONV2_SIZE; y++) {
+                            int row = in + (y + ky) * POOL1_SIZE + kx;
+                            int outRow = out + y * CONV2_SIZE;
+                            for (int x = 0; x < CONV2_SIZE; x++) {
+                                ws.conv2[outRow + x] += weight * ws.pool1[row + x];
+                            }
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < CONV2_SIZE * CONV2_SIZE; i++) {
+                ws.conv2[out + i] = Math.max(0, ws.conv2[out + i]);
+            }
+        }
+        maxPool(ws.conv2, CONV2_CHANNELS, CONV2_SIZE, ws.pool2, ws.pool2Index);
+
+        // fc1 + relu
+        for (int h = 0; h < HIDDEN; h++) {
+            int row = FC1_W + h * FLATTENED;
+            float sum = w[FC1_B + h];
+            for (int i = 0; i < FLATTENED; i++) {
+                sum += w[row + i] * ws.pool2[i];
+            }
+            ws.hidden[h] = Math.max(0, sum);
+        }
+
+        // fc2 + log_softmax
+        float max = Float.NEGATIVE_INFINITY;
+        for (int o = 0; o < CLASSES; o++) {
+            int row = FC2_W + o * HIDDEN;
+            float sum = w[FC2_B + o];
+            for (int h = 0; h < HIDDEN; h++) {
+                sum += w[row + h] * ws.hidden[h];
+            }
+            ws.output[o] = sum;
+            max = Math.max(max, sum);
+        }
+        double total = 0;
+        for (int o = 0; o < CLASSES; o++) {
+            total += Math.exp(ws.output[o] - max);
+        }
+        float logTotal = (float) (max + Math.log(total));
+        for (int o = 0; o < CLASSES; o++) {
+            ws.output[o] -= logTotal;
+        }
+    }
+
+    // Runs forward pass and accumulates gradient of the NLL loss into workspace.gradients, returns the loss
+    public static float forwardBackward(float[] w, Workspace ws, int label) {
+        forward(w, ws);
+        float[] g = ws.gradients;
+
+        // log_softmax + nll loss
+        for (int o = 0; o < CLASSES; o++) {
+            ws.gradOutput[o] = (float) Math.exp(ws.output[o]) - (o == label ? 1 : 0);
+        }
+
+        // fc2
+        Arrays.fill(ws.gradHidden, 0);
+        for (int o = 0; o < CLASSES; o++) {
+            float grad = ws.gradOutput[o];
+            int row = FC2_W + o * HIDDEN;
+            g[FC2_B + o] += grad;
+            for (int h = 0; h < HIDDEN; h++) {
+                g[row + h] += grad * ws.hidden[h];
+                ws.gradHidden[h] += grad * w[row + h];
+            }
+        }
+
+        // fc1
+        Arrays.fill(ws.gradPool2, 0);
+        for (int h = 0; h < HIDDEN; h++) {
+            if (ws.hidden[h] <= 0) {
+                continue;
+            }
+            float grad = ws.gradHidden[h];
+            int row = FC1_W + h * FLATTENED;
+            g[FC1_B + h] += grad;
+            for (int i = 0; i < FLATTENED; i++) {
+                g[row + i] += grad * ws.pool2[i];
+                ws.gradPool2[i] += grad * w[row + i];
+            }
+        }
+
+        // pool2 + relu
+        Arrays.fill(ws.gradConv2, 0);
+        for (int i = 0; i < FLATTENED; i++) {
+            int index = ws.pool2Index[i];
+            if (ws.conv2[index] > 0) {
+                ws.gradConv2[index] = ws.gradPool2[i];
+            }
+        }
+
+        // conv2
+        Arrays.fill(ws.gradPool1, 0);
+        for (int co = 0; co < CONV2_CHANNELS; co++) {
+            int out = co * CONV2_SIZE * CONV2_SIZE;
+            // Channel without gradient, e.g. completely cut by relu
+            if (isZero(ws.gradConv2, out, CONV2_SIZE * CONV2_SIZE)) {
+                continue;
+            }
+            float biasGrad = 0;
+            for (int i = 0; i < CONV2_SIZE * CONV2_SIZE; i++) {
+                biasGrad += ws.gradConv2[out + i];
+            }
+            g[CONV2_B + co] += biasGrad;
+            for (int ci = 0; ci < CONV1_CHANNELS; ci++) {
+                int kernel = CONV2_W + (co * CONV1_CHANNELS + ci) * KERNEL * KERNEL;
+                int in = ci * POOL1_SIZE * POOL1_SIZE;
+                for (int ky = 0; ky < KERNEL; ky++) {
+                    for (int kx = 0; kx < KERNEL; kx++) {
+                        float weight = w[kernel + ky * KERNEL + kx];
+                        float weightGrad = 0;
+                        for (int y = 0; y < CONV2_SIZE; y++) {
+                            int row = in + (y + ky) * POOL1_SIZE + kx;
+                            int outRow = out + y * CONV2_SIZE;
+                            for (int x = 0; x < CONV2_SIZE; x++) {
+                                float grad = ws.gradConv2[outRow + x];
+                                weightGrad += grad * ws.pool1[row + x];
+                                ws.gradPool1[row + x] += grad * weight;
+                            }
+                        }
+                        g[kernel + ky * KERNEL + kx] += weightGrad;
+                    }
+                }
+            }
+        }
+
+        // pool1 + relu
+        Arrays.fill(ws.gradConv1, 0);
+        for (int i = 0; i < ws.pool1.length; i++) {
+            int index = ws.pool1Index[i];
+            if (ws.conv1[index] > 0) {
+                ws.gradConv1[index] = ws.gradPool1[i];
+            }
+        }
+
+        // conv1
+        for (int c = 0; c < CONV1_CHANNELS; c++) {
+            int kernel = CONV1_W + c * KERNEL * KERNEL;
+            int out = c * CONV1_SIZE * CONV1_SIZE;
+            float biasGrad = 0;
+            for (int i = 0; i < CONV1_SIZE * CONV1_SIZE; i++) {
+                biasGrad += ws.gradConv1[out + i];
+            }
+            g[CONV1_B + c] += biasGrad;
+            for (int ky = 0; ky < KERNEL; ky++) {
+                for (int kx = 0; kx < KERNEL; kx++) {
+                    float weightGrad = 0;
+                    for (int y = 0; y < CONV1_SIZE; y++) {
+                        int row = (y + ky) * IMAGE_SIZE + kx;
+                        int outRow = out + y * CONV1_SIZE;
+                        for (int x = 0; x < CONV1_SIZE; x++) {
+                            weightGrad += ws.gradConv1[outRow + x] * ws.input[row + x];
+                        }
+                    }
+                    g[kernel + ky * KERNEL + kx] += weightGrad;
+                }
+            }
+        }
+
+        return -ws.output[label];
+    }
+
+    // Returns index of the most probable class, valid after forward pass
+    public static int predicted(Workspace ws) {
+        int best = 0;
+        for (int o = 1; o < CLASSES; o++) {
+            if (ws.output[o] > ws.output[best]) {
+                best = o;
+            }
+        }
+        return best;
+    }
+
+    // 2x2 max pooling with stride 2, remembers which input was the maximum
+    private static void maxPool(float[] input, int channels, int size, float[] output, int[] indexes) {
+        int outSize = size / 2;
+        for (int c = 0; c < channels; c++) {
+            for (int y = 0; y < outSize; y++) {
+                for (int x = 0; x < outSize; x++) {
+                    int first = (c * size + y * 2) * size + x * 2;
+                    int best = first;
+                    if (input[first + 1] > input[best]) {
+                        best = first + 1;
+                    }
+                    if (input[first + size] > input[best]) {
+                        best = first + size;
+                    }
+                    if (input[first + size + 1] > input[best]) {
+                        best = first + size + 1;
+                    }
+                    int out = (c * outSize + y) * outSize + x;
+                    output[out] = input[best];
+                    indexes[out] = best;
+                }
+            }
+        }
+    }
+
+    private static boolean isZero(float[] values, int from, int length) {
+        for (int i = from; i < from + length; i++) {
+            if (values[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
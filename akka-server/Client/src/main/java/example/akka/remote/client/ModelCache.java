@@ -0,0 +1,148 @@
+package example.akka.remote.client;
+
+import akka.util.ByteString;
+import example.akka.remote.shared.ModelDelta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Last global model of the task kept on the disk next to the modules, so it survives client restarts.
+// Model is stored in the same format as on the server, version and hash are kept in a separate file
+// so they can be sent with the join request without reading the model. Models received in chunks are written
+// to a download file first and moved into the cache once they are complete.
+public class ModelCache {
+
+    // Clients sharing the JVM and the modules directory have their own files
+    public ModelCache(String pathToModules, String taskId, String clientId) {
+        this.modelFile = new File(pathToModules + taskId + "-" + clientId + ".model");
+        this.metaFile = new File(pathToModules + taskId + "-" + clientId + ".model.meta");
+    }
+
+    private final File modelFile;
+    private final File metaFile;
+
+    // Version of the cached model, 0 when there is none
+    public int version() throws IOException {
+        String[] meta = this.readMeta();
+        return meta == null ? 0 : Integer.parseInt(meta[0]);
+    }
+
+    // Hash of the cached model, null when there is none
+    public String hash() throws IOException {
+        String[] meta = this.readMeta();
+        return meta == null ? null : meta[1];
+    }
+
+    // Returns weights of the cached model, null when there is no model with given version
+    public float[] load(int version) throws IOException {
+        if (this.version() != version || !this.modelFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile input = new RandomAccessFile(this.modelFile, "r")) {
+            ByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            if (buffer.getInt() != version) {
+                return null;
+            }
+            float[] weights = new float[buffer.getInt()];
+            buffer.asFloatBuffer().get(weights);
+            return weights;
+        }
+    }
+
+    // Stores model checkpoint, meta file is written last so a partially written model is never used
+    public void save(int version, String hash, ByteBuffer checkpoint) throws IOException {
+        File temp = new File(this.modelFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = checkpoint.duplicate();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        this.metaFile.delete();
+        Files.move(temp.toPath(), this.modelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(this.metaFile.toPath(), (version + " " + hash).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Moves the downloaded model into the cache when its checksum matches the hash, returns false otherwise
+    public boolean save(int version, String hash, Download download) throws IOException {
+        download.channel.close();
+        String checksum;
+        try (FileChannel channel = FileChannel.open(download.file.toPath(), StandardOpenOption.READ)) {
+            checksum = ModelDelta.checksum(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        if (!checksum.equals(hash)) {
+            download.delete();
+            return false;
+        }
+        this.metaFile.delete();
+        Files.move(download.file.toPath(), this.modelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(this.metaFile.toPath(), (version + " " + hash).getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    public void save(int version, float[] weights) throws IOException {
+        ByteString checkpoint = ModelDelta.checkpoint(version, weights);
+        this.save(version, ModelDelta.checksum(checkpoint), checkpoint.asByteBuffer());
+    }
+
+    // Starts download of a model or a delta received in chunks, the previous download is replaced
+    public Download download() throws IOException {
+        File file = new File(this.modelFile.getPath() + ".download");
+        return new Download(file, FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    // File the chunks are written to at their offsets
+    public static class Download {
+        private Download(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        private final File file;
+        private final FileChannel channel;
+
+        public void write(int offset, byte[] bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer, offset + buffer.position());
+            }
+        }
+
+        // Returns the whole content, used for deltas which are applied on the heap anyway
+        public byte[] read() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) this.channel.size());
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("Download of " + this.file + " is shorter than its size");
+                }
+            }
+            return buffer.array();
+        }
+
+        // File is removed even when the channel cannot be closed
+        public void delete() throws IOException {
+            try {
+                this.channel.close();
+            } finally {
+                Files.deleteIfExists(this.file.toPath());
+            }
+        }
+    }
+
+    private String[] readMeta() throws IOException {
+        if (!this.metaFile.isFile()) {
+            return null;
+        }
+        String[] meta = new String(Files.readAllBytes(this.metaFile.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        return meta.length == 2 ? meta : null;
+    }
+}
@@ -21,26 +21,20 @@ public class ModulesManager {
     public String fileName;
 
     // Returns saved modules. Reads data from json file
-    public static List<ModuleDTO> GetAvailableModules() {
-        String path = null;
-        try {
-            Configuration configurationHandler = new Configuration();
-            Configuration.ConfigurationDTO configuration = configurationHandler.get();
-
-            path = configuration.pathToModulesList;
-
-            File f = new File(path);
-            if (!f.exists() || f.isDirectory()) {
-                return new ArrayList();
-            }
-            ObjectMapper mapper = GetMapper();
-
-            List<ModuleDTO> modules = mapper.readValue(f, mapper.getTypeFactory().constructCollectionType(List.class, ModuleDTO.class));
-            return modules;
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static List<ModuleDTO> GetAvailableModules() throws IOException {
+        Configuration configurationHandler = new Configuration();
+        Configuration.ConfigurationDTO configuration = configurationHandler.get();
+
+        String path = configuration.pathToModulesList;
+
+        File f = new File(path);
+        if (!f.exists() || f.isDirectory()) {
+            return new ArrayList();
         }
-        return new ArrayList();
+        ObjectMapper mapper = GetMapper();
+
+        List<ModuleDTO> modules = mapper.readValue(f, mapper.getTypeFactory().constructCollectionType(List.class, ModuleDTO.class));
+        return modules;
     }
 
     private static ObjectMapper GetMapper() {
@@ -51,32 +45,31 @@ public class ModulesManager {
         return mapper;
     }
 
-    // Saves module received from the server
-    public static void SaveModule(String taskId, String fileName) {
+    // Saves module received from the server, clients running in host mode share the list
+    public static synchronized void SaveModule(String taskId, String fileName) throws IOException {
         ModuleDTO newModule = new ModuleDTO(taskId, fileName);
 
         List<ModuleDTO> modules = GetAvailableModules();
+        if (modules.stream().anyMatch(module -> module.taskId.equals(taskId) && module.fileName.equals(fileName))) {
+            return;
+        }
 
         modules.add(newModule);
 
-        try {
-            Configuration configurationHandler = new Configuration();
-            Configuration.ConfigurationDTO configuration = configurationHandler.get();
-
-            String path = configuration.pathToModulesList;
+        Configuration configurationHandler = new Configuration();
+        Configuration.ConfigurationDTO configuration = configurationHandler.get();
 
-            File f = new File(path);
-            if (!f.exists() || f.isDirectory()) {
-                f.createNewFile();
-            }
-            ObjectMapper mapper = GetMapper();
+        String path = configuration.pathToModulesList;
 
-            String json = mapper.writeValueAsString(modules);
-            Path p = Paths.get(path);
-            Files.write(p, json.getBytes());
-        } catch (Exception e) {
-            e.printStackTrace();
+        File f = new File(path);
+        if (!f.exists() || f.isDirectory()) {
+            f.createNewFile();
         }
+        ObjectMapper mapper = GetMapper();
+
+        String json = mapper.writeValueAsString(modules);
+        Path p = Paths.get(path);
+        Files.write(p, json.getBytes());
     }
 
     public static class ModuleDTO {
@@ -100,7 +93,6 @@ public class ModulesManager {
             String taskId = node.get("taskId").asText();
             String fileName = node.get("fileName").asText();
 
-            System.out.println("taskId -> " + taskId);
             ModuleDTO clientModule =  new ModuleDTO(taskId, fileName);
             return clientModule;
         }
@@ -0,0 +1,49 @@
+package example.akka.remote.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Measures cost of the robust aggregators compared to federated averaging.
+// Run with number of models and number of parameters, defaults to 50 models of the MNIST network size.
+public class AggregationBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 431080;
+        int repetitions = 5;
+
+        Random random = new Random(1);
+        List<float[]> models = new ArrayList<>();
+        double[] weights = new double[count];
+        for (int m = 0; m < count; m++) {
+            float[] model = new float[length];
+            for (int i = 0; i < length; i++) {
+                model[i] = (float) random.nextGaussian();
+            }
+            models.add(model);
+            weights[m] = 100 + random.nextInt(1000);
+        }
+
+        Configuration.ConfigurationDTO configuration = new Configuration.ConfigurationDTO();
+        configuration.byzantineCount = Math.max(1, count / 10);
+        String[] names = {"fedavg", "median", "trimmedMean", "krum", "multiKrum"};
+        double fedAvgMillis = 0;
+        for (String name : names) {
+            configuration.aggregator = name;
+            ModelAggregator aggregator = ModelAggregator.create(configuration);
+            // First run warms up the JIT compiler
+            aggregator.aggregate(models, weights);
+
+            long start = System.nanoTime();
+            for (int r = 0; r < repetitions; r++) {
+                aggregator.aggregate(models, weights);
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / repetitions;
+            if (name.equals("fedavg")) {
+                fedAvgMillis = millis;
+            }
+            System.out.println(String.format("%-12s %10.1f ms %8.1fx fedavg", name, millis, millis / fedAvgMillis));
+        }
+    }
+}
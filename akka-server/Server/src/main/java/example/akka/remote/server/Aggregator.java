@@ -2,8 +2,8 @@ package example.akka.remote.server;
 
 import akka.actor.*;
 import akka.actor.dsl.Creators;
-import akka.event.Logging;
-import akka.event.LoggingAdapter;
+import akka.remote.FailureDetector$;
+import akka.remote.PhiAccrualFailureDetector;
 import akka.remote.transport.ThrottlerTransportAdapter;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -12,9 +12,16 @@ import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import example.akka.remote.shared.BlockingIO;
+import example.akka.remote.shared.BulkTransport;
+import example.akka.remote.shared.EventLog;
 import example.akka.remote.shared.LoggingActor;
 import example.akka.remote.shared.Messages;
+import example.akka.remote.shared.ProcessSupervisor;
+import example.akka.remote.shared.Timeline;
+import scala.PartialFunction;
 import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -23,26 +30,74 @@ import java.io.InputStreamReader;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static example.akka.remote.shared.Messages.*;
 
 public class Aggregator extends UntypedActor {
 
-    public Aggregator(ActorRef coordinator) {
-        log.info("Selector created");
+    public Aggregator(ActorRef coordinator, ActorRef selector, RoundJournal journal) {
+        this.configuration = Configuration.get();
         this.coordinator = coordinator;
+        this.selector = selector;
+        this.journal = journal;
+        this.selectionStrategy = SelectionStrategy.create(this.configuration.selectionStrategy);
+        // With a memory budget the weights of the global model stay in its file
+        try {
+            this.globalModel = GlobalModel.load(this.configuration.jvmModelPath, this.configuration.aggregationMemoryBudgetMB == 0);
+        } catch (IOException e) {
+            // Job starts from the first model, the unreadable file is replaced after the first round
+            this.events.error("Aggregator", "model-not-loaded", e).with("path", this.configuration.jvmModelPath).log();
+            this.globalModel = new GlobalModel(null, 0);
+        }
+        this.modelAggregator = ModelAggregator.create(this.configuration);
+        this.serverOptimizer = ServerOptimizer.create(this.configuration);
+        try {
+            this.serverOptimizer.load(this.configuration.jvmModelPath, this.globalModel.version);
+        } catch (IOException e) {
+            // Optimizer starts over
+            this.events.error("Aggregator", "optimizer-state-not-loaded", e).with("modelVersion", this.globalModel.version).log();
+        }
+        this.spillDirectory = new File(this.configuration.aggregationSpillPath);
+        this.deleteSpilledUpdates();
         tickActor = getContext().system().actorOf(Props.create(Ticker.class), "Ticker");
-        log.info("coordinator -> " + coordinator.path());
+        Props receiverProps = Props.create(ModelUpdateReceiver.class, getSelf(), this.spillDirectory, this.events);
+        if (this.configuration.aggregationMemoryBudgetMB > 0) {
+            // Receiver writes updates to the disk
+            receiverProps = receiverProps.withDispatcher("blocking-io-dispatcher");
+        }
+        // Chunks above the mailbox capacity are dropped and sent again by the device
+        updateReceiver = this.bulk.actorOf(getContext(), receiverProps.withMailbox("model-update-mailbox"), "ModelUpdates");
+        // Chunks of the global model are read from its mapped file
+        broadcaster = this.bulk.actorOf(getContext(), Props.create(ModelBroadcaster.class, getSelf(), this.events)
+                .withDispatcher("blocking-io-dispatcher"), "ModelBroadcaster");
+        serverModule = getContext().actorOf(Props.create(ServerModule.class), "ServerModule");
+        if (this.configuration.evaluateOnServer) {
+            evaluator = getContext().system().actorOf(Props.create(Evaluator.class), "Evaluator");
+        }
+        this.events.info("Aggregator", "created").with("coordinator", coordinator.path()).log();
     }
 
-    // Participants taking part in the round
-    private List<ParticipantData> roundParticipants;
+    // Read once, appConfig.json is not parsed again for every message
+    private final Configuration.ConfigurationDTO configuration;
 
-    // Logger
-    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+    // Participants taking part in the round by their device, messages of participants are matched in constant time
+    private HashMap<ActorRef, ParticipantData> roundParticipants;
+
+    // Same participants by client id, used by messages which do not come from the device itself
+    private HashMap<String, ParticipantData> participantsById;
+
+    // Number of participants which have finished learning in the current round
+    private int completedCount;
+
+    // Structured log, handled messages are sampled by type
+    private EventLog events = EventLog.get(getContext().system());
 
     // Event that checks if enough number of devices connected to current round
     private Cancellable checkReadyToRunLearning;
@@ -50,75 +105,509 @@ public class Aggregator extends UntypedActor {
     // Coordinator actor
     private ActorRef coordinator;
 
+    // Selector actor, told when participants leave the cohort
+    private ActorRef selector;
+
     // Ticker actor
     private ActorRef tickActor;
 
+    // Receives model updates on the bulk connection and forwards them to the aggregator
+    private ActorRef updateReceiver;
+
+    // Streams the global model to participants on the large message lane
+    private ActorRef broadcaster;
+
+    // Model weights travel on their own connections
+    private BulkTransport bulk = BulkTransport.get(getContext().system());
+
+    // Resident server learning module used by the python runtime
+    private ActorRef serverModule;
+
+    // Evaluates aggregated models outside of the round, null when modules test models themselves
+    private ActorRef evaluator;
+
+    // Journal of round events
+    private RoundJournal journal;
+
+    // Number of the current round
+    private int roundNumber;
+
+    // Event that periodically evicts participants which stopped sending heartbeats
+    private Cancellable checkParticipantsHealth;
+
+    // Flag that tells if participants were told to run learning in the current round
+    private boolean learningStarted;
+
+    // Flag that tells if the round is being aggregated, late messages of participants do not finish it again
+    private boolean roundFinishing;
+
+    // Flag that tells if updates of the round are aggregated on BlockingIO, traffic of participants of the round
+    // is ignored until AggregationFinished arrives
+    private boolean aggregating;
+
+    // Measured performance of clients, kept between rounds
+    private ClientStatistics statistics = new ClientStatistics();
+
+    // Strategy choosing participants out of joined devices
+    private SelectionStrategy selectionStrategy;
+
+    // Model trained with JVM runtime
+    private GlobalModel globalModel;
+
+    // Combines models of participants into the global model
+    private ModelAggregator modelAggregator;
+
+    // Applies aggregated model to the global model
+    private ServerOptimizer serverOptimizer;
+
+    // Directory of updates spilled to the disk by the update receiver
+    private File spillDirectory;
+
+    // Hash of the saved global model, participants with the same cached model do not receive it
+    private String modelHash;
+    private int hashVersion = -1;
+
+    // Model of the previous version kept in jvmModelPath.previous, participants which cached it receive only the delta
+    private int previousVersion;
+    private String previousHash;
+
+    // Delta from the previous model written with each version to jvmModelPath.delta, not sent when it would not
+    // be smaller than the model
+    private boolean deltaUseful;
+    private int deltaVersion = -1;
+
+    // Records handled messages when timeline is enabled
+    private Timeline timeline = Timeline.get(getContext().system());
+
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message) {
+        long start = this.timeline.start();
+        super.aroundReceive(receive, message);
+        this.timeline.record("Aggregator", message, start, this.roundNumber);
+    }
+
+    @Override
+    public void postStop() {
+        if (this.bulk.isEnabled()) {
+            // Receiver and broadcaster of the bulk transport are not children
+            this.updateReceiver.tell(PoisonPill.getInstance(), getSelf());
+            this.broadcaster.tell(PoisonPill.getInstance(), getSelf());
+        }
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
-        log.info("onReceive({})", message);
+        this.events.message("Aggregator", message, getSender(), this.roundNumber);
+
+        if (this.aggregating && this.ignoredWhileAggregating(message)) {
+            return;
+        }
 
         if (message instanceof StartRound) {
             // Message that round should start
+            this.roundNumber = ((StartRound) message).roundNumber;
+            this.timeline.mark("Aggregator", "round-start", this.roundNumber);
             this.startRound();
+            this.restoreParticipants();
         } else if (message instanceof InformAggregatorAboutNewParticipant) {
             // Message about new participant taking part in the new round
             InformAggregatorAboutNewParticipant messageCasted = (InformAggregatorAboutNewParticipant)message;
             ActorRef deviceReference = messageCasted.deviceReference;
-            log.info("Path: " + deviceReference.path());
-            this.roundParticipants.add(new ParticipantData(deviceReference, messageCasted.clientId, messageCasted.port));
+            if (this.learningStarted) {
+                ParticipantData known = this.participantsById.get(messageCasted.clientId);
+                if (known != null && known.deviceReference.equals(deviceReference)) {
+                    // Join request sent again because its answer was late, participant keeps its place
+                    return;
+                }
+                // Training has already been started, the round would wait for the device forever
+                this.events.info("Aggregator", "participant-too-late").round(this.roundNumber).client(messageCasted.clientId).log();
+                this.selector.tell(new LeftCohort(messageCasted.clientId, this.roundNumber, deviceReference), getSelf());
+                return;
+            }
+            this.statistics.registerClient(messageCasted.clientId, messageCasted.capabilities);
+            ParticipantData participant = new ParticipantData(deviceReference, messageCasted.clientId, messageCasted.port, this.createFailureDetector());
+            participant.cachedModelVersion = messageCasted.cachedModelVersion;
+            participant.cachedModelHash = messageCasted.cachedModelHash;
+            this.addParticipant(participant);
+            this.journal.participantJoined(this.roundNumber, messageCasted.clientId, messageCasted.port, deviceReference.path().toString());
+            this.events.debug("Aggregator", "participant-joined").round(this.roundNumber).client(messageCasted.clientId)
+                    .with("port", messageCasted.port).with("device", deviceReference.path()).log();
+            int cohortSize = this.configuration.cohortSize;
+            if (cohortSize > 0 && !this.learningStarted && this.roundParticipants.size() >= cohortSize) {
+                // Cohort is complete, there is no need to wait for the ticker
+                getSelf().tell(new ReadyToRunLearningMessageResponse(true), getSelf());
+            }
         } else if (message instanceof ReadyToRunLearningMessageResponse) {
             // Tell devices to run
-            if (((ReadyToRunLearningMessageResponse) message).canStart) {
+            if (((ReadyToRunLearningMessageResponse) message).canStart && !this.learningStarted) {
                 this.checkReadyToRunLearning.cancel();
-                for (ParticipantData participant : this.roundParticipants) {
-                    participant.deviceReference.tell(new StartLearningProcessCommand(), getSelf());
+                this.learningStarted = true;
+                this.timeline.mark("Aggregator", "training-start", this.roundNumber);
+                this.selectParticipants();
+                this.assignWorkloads();
+                boolean hasModel = this.prepareBroadcast();
+                for (ParticipantData participant : this.roundParticipants.values()) {
+                    // Participants restored from the journal might have already finished
+                    if (!participant.moduleStarted) {
+                        participant.learningStartedAt = System.currentTimeMillis();
+                        if (hasModel) {
+                            // Device trains once the model streamed by the broadcaster has arrived
+                            this.sendModel(participant);
+                        }
+                        participant.deviceReference.tell(this.createStartLearningCommand(participant), getSelf());
+                    }
                 }
             }
         } else if (message instanceof StartLearningModule) {
-            // Message when any of participants started their modules and server can start his own learning module
+            // Message when any of participants finished their modules and server can start his own learning module
             // Updates corresponding device entity
             ActorRef sender = getSender();
-            Optional<ParticipantData> first = roundParticipants.stream().findFirst();
-            log.info("Sender: " + sender.path());
-            log.info("First: " + first.get().deviceReference.path().toString());
-
-            ParticipantData foundOnList = roundParticipants
-                    .stream()
-                    .filter(participantData -> participantData.deviceReference.equals(sender))
-                    .findAny()
-                    .orElse(null);
-
-            foundOnList.moduleStarted = true;
+            ParticipantData foundOnList = this.roundParticipants.get(sender);
 
-            boolean allParticipantsStartedModule = roundParticipants
-                    .stream()
-                    .allMatch(participantData -> participantData.moduleStarted);
-
-            log.info("Found on list" + (foundOnList != null));
-            log.info("All participants started module" + allParticipantsStartedModule);
-
-            if (allParticipantsStartedModule){
-                this.runLearning();
-                this.coordinator.tell(new RoundEnded(), getSelf());
+            if (foundOnList == null) {
+                // Participant has been already evicted from the round
+                this.events.debug("Aggregator", "unknown-participant").round(this.roundNumber).with("device", sender.path()).log();
+                return;
+            }
+            StartLearningModule finished = (StartLearningModule) message;
+            this.participantFinished(foundOnList, finished.numberOfSamples, finished.trainingMillis, 0);
+        } else if (message instanceof LearningModuleFailed) {
+            // Module of the participant failed or was killed, round goes on without it
+            LearningModuleFailed failed = (LearningModuleFailed) message;
+            ParticipantData foundOnList = this.roundParticipants.get(getSender());
+            if (foundOnList == null || foundOnList.moduleStarted) {
+                return;
             }
+            this.events.warning("Aggregator", "participant-module-failed").round(this.roundNumber).client(foundOnList.clientId)
+                    .with("exitCode", failed.exitCode).with("reason", failed.reason).log();
+            this.removeParticipant(foundOnList);
+            this.journal.participantEvicted(this.roundNumber, foundOnList.clientId);
+            this.statistics.recordFailure(foundOnList.clientId);
+            this.continueRound();
+        } else if (message instanceof ModelUpdate || message instanceof SpilledModelUpdate) {
+            // Model trained by a participant using JVM runtime, kept on the disk with out-of-core aggregation
+            ModelUpdate update = message instanceof ModelUpdate ? (ModelUpdate) message : ((SpilledModelUpdate) message).update;
+            OutOfCoreAggregation.Segment segment = message instanceof SpilledModelUpdate ? ((SpilledModelUpdate) message).segment : null;
+            ParticipantData foundOnList = this.participantsById.get(update.clientId);
+
+            if (foundOnList == null || update.modelVersion != this.globalModel.version || foundOnList.moduleStarted) {
+                this.events.info("Aggregator", "update-ignored").round(this.roundNumber).client(update.clientId)
+                        .with("modelVersion", update.modelVersion).log();
+                if (segment != null) {
+                    segment.delete();
+                }
+                return;
+            }
+            foundOnList.update = update;
+            foundOnList.segment = segment;
+            long updateBytes = 4L * (segment != null ? segment.length() : update.weights != null ? update.weights.length : 0);
+            this.participantFinished(foundOnList, update.numberOfSamples, update.trainingMillis, updateBytes);
+        } else if (message instanceof GlobalModelRequest) {
+            // Participant could not use the delta or lost its cached model
+            GlobalModelRequest request = (GlobalModelRequest) message;
+            ParticipantData participant = this.participantsById.get(request.clientId);
+            if (participant == null || participant.moduleStarted) {
+                return;
+            }
+            if (request.version == this.globalModel.version && this.prepareBroadcast()) {
+                participant.cachedModelVersion = 0;
+                participant.cachedModelHash = null;
+                this.sendModel(participant);
+            } else {
+                // Participant cannot train without the model, the round would wait for it forever
+                this.events.warning("Aggregator", "model-unavailable").round(this.roundNumber).client(participant.clientId)
+                        .with("modelVersion", request.version).log();
+                this.removeParticipant(participant);
+                this.journal.participantEvicted(this.roundNumber, participant.clientId);
+                this.continueRound();
+            }
+        } else if (message instanceof Heartbeat) {
+            // Heartbeat from a client host, marks all its participants as alive
+            for (String clientId : ((Heartbeat) message).clientIds) {
+                ParticipantData participant = this.participantsById.get(clientId);
+                if (participant != null) {
+                    participant.failureDetector.heartbeat();
+                }
+            }
+        } else if (message instanceof CheckParticipantsHealth) {
+            this.evictDeadParticipants();
+        } else if (message instanceof ServerModule.RoundTrained) {
+            ServerModule.RoundTrained trained = (ServerModule.RoundTrained) message;
+            if (trained.error != null) {
+                // Round ends without new model
+                this.events.warning("Aggregator", "server-module-failed").round(trained.roundNumber).with("error", trained.error).log();
+            } else if (this.evaluator != null) {
+                this.evaluator.tell(new Evaluator.EvaluateModel(this.configuration.savedModelPath, "torch", trained.roundNumber), getSelf());
+            }
+            this.endRound(trained.roundNumber, null);
+        } else if (message instanceof ProcessSupervisor.Metric) {
+            ProcessSupervisor.Metric metric = (ProcessSupervisor.Metric) message;
+            this.events.info("Aggregator", "server-module-metric").round(this.roundNumber).with("name", metric.name).with("value", metric.value).log();
+        } else if (message instanceof RoundAggregation.AggregationFinished) {
+            this.aggregationFinished((RoundAggregation.AggregationFinished) message);
+        } else if (message instanceof Status.Failure && this.aggregating) {
+            // Updates of the round are lost, participants train the current model again
+            this.events.error("Aggregator", "aggregation-failed", ((Status.Failure) message).cause()).round(this.roundNumber).log();
+            this.aggregationFinished(new RoundAggregation.AggregationFinished(this.globalModel, null, null, false));
         } else {
             unhandled(message);
         }
     }
 
+    // Messages of participants which would change the round while its updates are aggregated
+    private boolean ignoredWhileAggregating(Object message) {
+        if (message instanceof SpilledModelUpdate) {
+            // Segment is not used by the aggregation
+            ((SpilledModelUpdate) message).segment.delete();
+            return true;
+        }
+        return message instanceof ModelUpdate || message instanceof StartLearningModule || message instanceof LearningModuleFailed
+                || message instanceof GlobalModelRequest || message instanceof CheckParticipantsHealth
+                || message instanceof ReadyToRunLearningMessageResponse;
+    }
+
     // Stores information about each participant
     private static class ParticipantData {
-        public ParticipantData(ActorRef deviceReference, String clientId, int port) {
+        public ParticipantData(ActorRef deviceReference, String clientId, int port, PhiAccrualFailureDetector failureDetector) {
             this.deviceReference = deviceReference;
             this.clientId = clientId;
             this.moduleStarted = false;
             this.port = port;
+            this.failureDetector = failureDetector;
+            // Joining counts as the first heartbeat, so silent participants are detected as well
+            this.failureDetector.heartbeat();
         }
 
         public String clientId;
         public ActorRef deviceReference;
         public boolean moduleStarted;
         public int port;
+        public PhiAccrualFailureDetector failureDetector;
+        public long learningStartedAt;
+        public ModelUpdate update;
+        public OutOfCoreAggregation.Segment segment;
+        // Workload assigned for the round
+        public int localSteps;
+        public int batchSize;
+        public int cachedModelVersion;
+        public String cachedModelHash;
+    }
+
+    // Marks participant as finished and ends the round when all of them are done. Training time is measured
+    // by the device, the rest of the time since the command was sent is spent on transferring the model and the update
+    private void participantFinished(ParticipantData participant, int numberOfSamples, long trainingMillis, long updateBytes) {
+        if (participant.moduleStarted) {
+            // Duplicate message of the participant
+            return;
+        }
+        participant.moduleStarted = true;
+        this.completedCount++;
+        this.timeline.mark("Aggregator", "participant-finished", this.roundNumber);
+        if (participant.learningStartedAt > 0) {
+            long millis = System.currentTimeMillis() - participant.learningStartedAt;
+            long training = trainingMillis > 0 ? Math.min(trainingMillis, millis) : millis;
+            this.statistics.recordTraining(participant.clientId, training, numberOfSamples);
+            if (trainingMillis > 0 && updateBytes > 0) {
+                this.statistics.recordUpload(participant.clientId, updateBytes, millis - training);
+            }
+        }
+        this.journal.participantCompleted(this.roundNumber, participant.clientId);
+
+        boolean allParticipantsStartedModule = this.completedCount == this.roundParticipants.size();
+
+        if (allParticipantsStartedModule){
+            this.finishRound();
+        }
+    }
+
+    // Creates command starting training on the device, JVM runtime gets current global model and its workload
+    private StartLearningProcessCommand createStartLearningCommand(ParticipantData participant) {
+        if (!"jvm".equals(this.configuration.runtime)) {
+            return new StartLearningProcessCommand();
+        }
+        return new StartLearningProcessCommand(this.globalModel.version,
+                participant.localSteps, participant.batchSize, this.configuration.learningRate, this.updateReceiver);
+    }
+
+    // Sets local steps and batch size of participants, the same for everyone unless adaptive workload is on
+    private void assignWorkloads() {
+        Map<String, WorkloadPlanner.Workload> workloads = this.configuration.adaptiveWorkload
+                ? new WorkloadPlanner(this.configuration).plan(new ArrayList<>(this.participantsById.keySet()), this.statistics)
+                : new HashMap<>();
+        for (ParticipantData participant : this.roundParticipants.values()) {
+            WorkloadPlanner.Workload workload = workloads.get(participant.clientId);
+            participant.localSteps = workload != null ? workload.localSteps : this.configuration.localSteps;
+            participant.batchSize = workload != null ? workload.batchSize : this.configuration.batchSize;
+            if (workload != null) {
+                this.events.info("Aggregator", "workload").round(this.roundNumber).client(participant.clientId)
+                        .with("localSteps", workload.localSteps).with("batchSize", workload.batchSize).log();
+            }
+        }
+    }
+
+    // Checks the saved global model before it is sent to participants, false when there is no model yet,
+    // it could not be saved or python runtime is used
+    private boolean prepareBroadcast() {
+        if (!"jvm".equals(this.configuration.runtime) || !this.globalModel.exists()) {
+            return false;
+        }
+        if (this.hashVersion != this.globalModel.version) {
+            try {
+                GlobalModel.Saved saved = GlobalModel.readSaved(this.configuration.jvmModelPath);
+                if (saved == null || saved.version != this.globalModel.version) {
+                    this.events.warning("Aggregator", "model-not-saved").round(this.roundNumber)
+                            .with("modelVersion", this.globalModel.version).log();
+                    return false;
+                }
+                this.modelHash = saved.hash;
+                this.hashVersion = saved.version;
+            } catch (IOException e) {
+                this.events.error("Aggregator", "model-not-readable", e).round(this.roundNumber).log();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Streams global model unless participant has it cached, participants with the previous model get only the delta
+    private void sendModel(ParticipantData participant) {
+        if (participant.cachedModelVersion == this.globalModel.version && this.modelHash.equals(participant.cachedModelHash)) {
+            return;
+        }
+        ActorRef device = this.bulk.route(participant.deviceReference);
+        String path = this.configuration.jvmModelPath;
+        if (this.previousHash != null && participant.cachedModelVersion == this.previousVersion
+                && this.previousHash.equals(participant.cachedModelHash)
+                && this.deltaVersion == this.globalModel.version && this.deltaUseful) {
+            this.broadcaster.tell(new ModelBroadcaster.SendModel(device, participant.clientId, path + ".delta",
+                    this.previousVersion, this.globalModel.version, this.modelHash), getSelf());
+            return;
+        }
+        this.broadcaster.tell(new ModelBroadcaster.SendModel(device, participant.clientId, path,
+                0, this.globalModel.version, this.modelHash), getSelf());
+    }
+
+    // Aggregates models sent by participants into new version of the global model on BlockingIO, the result
+    // arrives as AggregationFinished. Updates are handed over to the aggregation, which deletes their segments
+    private void aggregateUpdates() {
+        List<RoundAggregation.Update> updates = new ArrayList<>();
+        for (ParticipantData participant : this.roundParticipants.values()) {
+            if (participant.update == null) {
+                continue;
+            }
+            updates.add(new RoundAggregation.Update(participant.clientId, participant.update.weights, participant.segment,
+                    participant.update.numberOfSamples, Math.max(1, participant.localSteps)));
+            participant.update = null;
+            participant.segment = null;
+        }
+        // Model sent in this round becomes the base of deltas sent in the next one
+        RoundAggregation.Previous previous = this.prepareBroadcast()
+                ? new RoundAggregation.Previous(this.globalModel.version, this.modelHash) : null;
+        this.aggregating = true;
+        BlockingIO.get(getContext().system()).pipeToSelf(new RoundAggregation(this.configuration, this.events, this.roundNumber,
+                this.globalModel, this.modelAggregator, this.serverOptimizer, this.spillDirectory, updates, previous), getSelf());
+    }
+
+    // Applies the aggregated model and ends the round
+    private void aggregationFinished(RoundAggregation.AggregationFinished finished) {
+        this.aggregating = false;
+        this.globalModel = finished.globalModel;
+        if (finished.hash != null) {
+            this.modelHash = finished.hash;
+            this.hashVersion = finished.globalModel.version;
+        }
+        if (finished.previous != null) {
+            this.previousVersion = finished.previous.version;
+            this.previousHash = finished.previous.hash;
+        } else {
+            this.previousHash = null;
+        }
+        this.deltaVersion = finished.globalModel.version;
+        this.deltaUseful = finished.deltaUseful;
+
+        int modelVersion = this.globalModel.version;
+        String modelHash = this.prepareBroadcast() ? this.modelHash : null;
+        if (this.evaluator != null && this.globalModel.exists()) {
+            this.evaluator.tell(new Evaluator.EvaluateModel(this.configuration.jvmModelPath, "jvm", modelVersion), getSelf());
+        }
+        this.endRound(modelVersion, modelHash);
+    }
+
+    // Keeps only participants chosen by the selection strategy, the rest is told to wait for next round
+    private void selectParticipants() {
+        int participantsPerRound = this.configuration.participantsPerRound;
+        if (participantsPerRound <= 0 || this.roundParticipants.size() <= participantsPerRound) {
+            this.roundParticipants.values().forEach(participant -> this.statistics.recordSelected(participant.clientId, this.roundNumber));
+            return;
+        }
+
+        List<String> candidates = this.roundParticipants.values()
+                .stream()
+                .map(participant -> participant.clientId)
+                .collect(Collectors.toList());
+        Set<String> selected = new HashSet<>(this.selectionStrategy.select(candidates, participantsPerRound, this.statistics, this.roundNumber));
+
+        for (ParticipantData participant : new ArrayList<>(this.roundParticipants.values())) {
+            if (selected.contains(participant.clientId)) {
+                this.statistics.recordSelected(participant.clientId, this.roundNumber);
+            } else {
+                this.removeParticipant(participant, true);
+                this.journal.participantEvicted(this.roundNumber, participant.clientId);
+            }
+        }
+        this.events.info("Aggregator", "participants-selected").round(this.roundNumber)
+                .with("selected", this.roundParticipants.size()).with("candidates", candidates.size()).log();
+    }
+
+    // Creates failure detector for a single participant
+    private PhiAccrualFailureDetector createFailureDetector() {
+        // Detector requires positive minimum standard deviation, intervals under 10 ms would give 0
+        long minStdDeviationMillis = Math.max(1, this.configuration.heartbeatIntervalMillis / 10);
+        return new PhiAccrualFailureDetector(
+                this.configuration.failureDetectorThreshold,
+                100,
+                new FiniteDuration(minStdDeviationMillis, TimeUnit.MILLISECONDS),
+                new FiniteDuration(this.configuration.acceptableHeartbeatPauseMillis, TimeUnit.MILLISECONDS),
+                new FiniteDuration(this.configuration.heartbeatIntervalMillis, TimeUnit.MILLISECONDS),
+                FailureDetector$.MODULE$.defaultClock());
+    }
+
+    // Removes participants which are considered dead and continues or reselects the round
+    private void evictDeadParticipants() {
+        List<ParticipantData> dead = this.roundParticipants.values()
+                .stream()
+                .filter(participant -> !participant.moduleStarted && !participant.failureDetector.isAvailable())
+                .collect(Collectors.toList());
+        if (dead.isEmpty()) {
+            return;
+        }
+
+        for (ParticipantData participant : dead) {
+            this.events.info("Aggregator", "participant-evicted").round(this.roundNumber).client(participant.clientId)
+                    .with("phi", participant.failureDetector.phi()).log();
+            this.removeParticipant(participant);
+            this.journal.participantEvicted(this.roundNumber, participant.clientId);
+            this.statistics.recordFailure(participant.clientId);
+        }
+        this.continueRound();
+    }
+
+    // Continues the round after participants were removed
+    private void continueRound() {
+        if (!this.learningStarted) {
+            // Still waiting for devices, ticker will check the remaining ones
+            return;
+        }
+
+        if (this.roundParticipants.isEmpty()) {
+            // Nobody left, wait for new devices to join the round
+            this.events.warning("Aggregator", "all-participants-evicted").round(this.roundNumber).log();
+            this.learningStarted = false;
+            this.scheduleReadyToRunLearningCheck();
+        } else if (this.completedCount == this.roundParticipants.size()) {
+            // Remaining participants have already finished
+            this.finishRound();
+        }
     }
 
     // Starts new round
@@ -126,14 +615,38 @@ public class Aggregator extends UntypedActor {
         ActorSystem system = getContext().system();
 
         // Clears list of participants
-        this.roundParticipants = new ArrayList<>();
+        this.roundParticipants = new HashMap<>();
+        this.participantsById = new HashMap<>();
+        this.completedCount = 0;
+        this.learningStarted = false;
+        this.roundFinishing = false;
         // Cancels events from previous round
         if (this.checkReadyToRunLearning != null) {
             this.checkReadyToRunLearning.cancel();
             this.checkReadyToRunLearning = null;
         }
+        if (this.checkParticipantsHealth != null) {
+            this.checkParticipantsHealth.cancel();
+        }
+
+        // Event that evicts participants which stopped sending heartbeats
+        FiniteDuration healthCheckInterval = new FiniteDuration(this.configuration.healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        this.checkParticipantsHealth = system
+            .scheduler()
+            .schedule(
+                healthCheckInterval,
+                healthCheckInterval,
+                getSelf(),
+                new CheckParticipantsHealth(),
+                system.dispatcher(),
+                ActorRef.noSender());
+
+        this.scheduleReadyToRunLearningCheck();
+    }
 
-        // Event that checks if minimum participants joined current round
+    // Schedules event that checks if minimum participants joined current round
+    private void scheduleReadyToRunLearningCheck() {
+        ActorSystem system = getContext().system();
         FiniteDuration duration =  new FiniteDuration(60, TimeUnit.SECONDS);
         this.checkReadyToRunLearning = system
             .scheduler()
@@ -146,86 +659,282 @@ public class Aggregator extends UntypedActor {
                 ActorRef.noSender());
     }
 
+    // Restores participants of the round which was active when server stopped
+    private void restoreParticipants() {
+        RoundJournal.RoundState state = this.journal.getState();
+        if (state.currentRound != this.roundNumber) {
+            return;
+        }
+
+        ExtendedActorSystem system = (ExtendedActorSystem) getContext().system();
+        for (RoundJournal.JournaledParticipant journaled : state.participants.values()) {
+            ActorRef deviceReference = system.provider().resolveActorRef(journaled.path);
+            ParticipantData participant = new ParticipantData(deviceReference, journaled.clientId, journaled.port, this.createFailureDetector());
+            // Updates of the JVM runtime were in memory or in spill files deleted on startup, participants which
+            // had already sent theirs train again. Python modules left their models on the disk
+            participant.moduleStarted = journaled.completed && !"jvm".equals(this.configuration.runtime);
+            this.addParticipant(participant);
+        }
+        this.events.info("Aggregator", "participants-restored").round(this.roundNumber).with("participants", this.roundParticipants.size()).log();
+
+        boolean allParticipantsStartedModule = !this.roundParticipants.isEmpty() && this.completedCount == this.roundParticipants.size();
+        if (allParticipantsStartedModule) {
+            this.finishRound();
+        }
+    }
+
+    private void addParticipant(ParticipantData participant) {
+        ParticipantData previous = this.roundParticipants.put(participant.deviceReference, participant);
+        if (previous != null) {
+            // Device joined the round again, it starts over
+            this.participantsById.remove(previous.clientId);
+            if (previous.moduleStarted) {
+                this.completedCount--;
+            }
+        }
+        this.participantsById.put(participant.clientId, participant);
+        if (participant.moduleStarted) {
+            this.completedCount++;
+        }
+    }
+
+    private void removeParticipant(ParticipantData participant) {
+        this.removeParticipant(participant, false);
+    }
+
+    // Device which is still alive is told by the selector when to join again
+    private void removeParticipant(ParticipantData participant, boolean rejoin) {
+        if (this.roundParticipants.remove(participant.deviceReference) == null) {
+            return;
+        }
+        this.participantsById.remove(participant.clientId);
+        if (participant.moduleStarted) {
+            this.completedCount--;
+        }
+        // Evicted or deselected devices would otherwise keep their place and the cohort could never fill up again
+        this.selector.tell(new LeftCohort(participant.clientId, this.roundNumber, rejoin ? participant.deviceReference : null), getSelf());
+    }
+
+    // Runs server learning module and tells coordinator that round has ended
+    private void finishRound() {
+        if (this.roundFinishing) {
+            return;
+        }
+        this.roundFinishing = true;
+        this.timeline.mark("Aggregator", "aggregation-start", this.roundNumber);
+        if (this.checkReadyToRunLearning != null) {
+            this.checkReadyToRunLearning.cancel();
+        }
+        if (this.checkParticipantsHealth != null) {
+            this.checkParticipantsHealth.cancel();
+        }
+        if ("jvm".equals(this.configuration.runtime)) {
+            // Round ends when the aggregation reports it, see aggregationFinished
+            this.aggregateUpdates();
+        } else {
+            // Round ends when the module reports it, see ServerModule.RoundTrained
+            this.runLearning();
+        }
+    }
+
+    // Records aggregated model and tells coordinator that round has ended
+    private void endRound(int modelVersion, String modelHash) {
+        this.timeline.mark("Aggregator", "round-end", this.roundNumber);
+        this.journal.modelAggregated(this.roundNumber, modelVersion, modelHash);
+        this.coordinator.tell(new RoundEnded(modelVersion, modelHash), getSelf());
+    }
+
     // TODO move to messages
     public static class CheckReadyToRunLearningMessage {
-        public List<ParticipantData> participants;
+        public Map<ActorRef, ParticipantData> participants;
         public ActorRef replayTo;
-        public CheckReadyToRunLearningMessage(List<ParticipantData> participants, ActorRef replayTo) {
+        public CheckReadyToRunLearningMessage(Map<ActorRef, ParticipantData> participants, ActorRef replayTo) {
             this.participants = participants;
             this.replayTo = replayTo;
         }
     }
 
-    // TODO move to messages
-    public static class ReadyToRunLearningMessageResponse {
-        public Boolean canStart;
-        public ReadyToRunLearningMessageResponse(Boolean canStart) {
-            this.canStart = canStart;
+    // Receives large messages, on the bulk transport when it is enabled, otherwise as a child of the aggregator.
+    // With out-of-core aggregation it spills updates to the disk before they reach the aggregator.
+    public static class ModelUpdateReceiver extends UntypedActor {
+        public ModelUpdateReceiver(ActorRef aggregator, File spillDirectory, EventLog events) {
+            this.aggregator = aggregator;
+            this.spillDirectory = spillDirectory;
+            this.spill = Configuration.get().aggregationMemoryBudgetMB > 0;
+            this.events = events;
         }
-    }
 
-    // Starts server learning module
-    private void runLearning() {
-        System.out.println("Working Directory = " + System.getProperty("user.dir"));
-
-        ProcessBuilder processBuilder = new ProcessBuilder();
-        processBuilder.directory(new File(System.getProperty("user.dir")));
+        // Log of the aggregator, the bulk system does not write its own
+        private final EventLog events;
+        private final ActorRef aggregator;
+        private final File spillDirectory;
+        private final boolean spill;
+
+        // Updates being received in chunks by client, each client sends one update at a time
+        private Map<String, Assembly> assemblies = new HashMap<>();
+        // Last update of the client passed to the aggregator, chunks sent again after it are only acknowledged
+        private Map<String, Integer> completedVersions = new HashMap<>();
+
+        @Override
+        public void onReceive(Object message) {
+            if (message instanceof ModelUpdateChunk) {
+                ModelUpdateChunk chunk = (ModelUpdateChunk) message;
+                if (chunk.modelVersion > this.completedVersions.getOrDefault(chunk.clientId, -1)) {
+                    this.receiveChunk(chunk);
+                }
+                getSender().tell(new ModelUpdateAck(chunk.modelVersion, chunk.offset), getSelf());
+                return;
+            }
+            if (message instanceof ModelUpdate && ((ModelUpdate) message).weights == null) {
+                this.completeUpdate((ModelUpdate) message);
+                return;
+            }
+            if (this.spill && message instanceof ModelUpdate && ((ModelUpdate) message).weights != null) {
+                ModelUpdate update = (ModelUpdate) message;
+                try {
+                    OutOfCoreAggregation.Segment segment = OutOfCoreAggregation.spill(this.spillDirectory,
+                            update.clientId + "-" + update.modelVersion, update.weights);
+                    update.weights = null;
+                    this.aggregator.tell(new SpilledModelUpdate(update, segment), getSender());
+                    return;
+                } catch (IOException e) {
+                    // Aggregator tries again when the round is aggregated
+                    this.events.error("ModelUpdateReceiver", "update-not-spilled", e).client(update.clientId)
+                            .with("modelVersion", update.modelVersion).log();
+                }
+            }
+            this.aggregator.forward(message, getContext());
+        }
 
-        Configuration.ConfigurationDTO configuration = Configuration.get();
+        // Writes the chunk into the update, with out-of-core aggregation directly into its segment
+        private void receiveChunk(ModelUpdateChunk chunk) {
+            Assembly assembly = this.assemblies.get(chunk.clientId);
+            if (assembly == null || assembly.modelVersion != chunk.modelVersion) {
+                if (assembly != null && assembly.segment != null) {
+                    // Client gave up the previous update
+                    assembly.segment.delete();
+                }
+                assembly = new Assembly(chunk.modelVersion, chunk.length);
+                if (this.spill) {
+                    try {
+                        assembly.segment = OutOfCoreAggregation.allocate(this.spillDirectory, chunk.clientId + "-" + chunk.modelVersion, chunk.length);
+                    } catch (IOException e) {
+                        // Aggregator tries again when the round is aggregated
+                        this.events.error("ModelUpdateReceiver", "update-not-spilled", e).client(chunk.clientId)
+                                .with("modelVersion", chunk.modelVersion).log();
+                    }
+                }
+                if (assembly.segment == null) {
+                    assembly.weights = new float[chunk.length];
+                }
+                this.assemblies.put(chunk.clientId, assembly);
+            }
+            if (!assembly.offsets.add(chunk.offset)) {
+                // Sent again because its acknowledgement was late
+                return;
+            }
+            if (assembly.segment != null) {
+                assembly.segment.write(chunk.offset, chunk.weights);
+            } else {
+                System.arraycopy(chunk.weights, 0, assembly.weights, chunk.offset, chunk.weights.length);
+            }
+            assembly.received += chunk.weights.length;
+        }
 
-        String participantsJson = getParticipantsJson();
-        String tempvar = participantsJson.replace('"', '\'');
-        // Executing module script as a command
-        processBuilder
-            .inheritIO()
-            .command("python", configuration.serverModuleFilePath,
-            "--datapath", configuration.testDataPath,
-            "--participantsjsonlist", tempvar,
-            "--epochs", String.valueOf(configuration.epochs),
-            "--modelpath", configuration.savedModelPath);
+        // Passes the update whose chunks have all arrived to the aggregator
+        private void completeUpdate(ModelUpdate update) {
+            Assembly assembly = this.assemblies.get(update.clientId);
+            if (assembly == null || assembly.modelVersion != update.modelVersion) {
+                if (update.modelVersion <= this.completedVersions.getOrDefault(update.clientId, -1)) {
+                    // Sent again because its acknowledgement was late
+                    getSender().tell(new ModelUpdateAck(update.modelVersion, -1), getSelf());
+                }
+                return;
+            }
+            if (assembly.received < assembly.length) {
+                this.events.warning("ModelUpdateReceiver", "update-incomplete").client(update.clientId)
+                        .with("modelVersion", update.modelVersion).with("received", assembly.received).with("length", assembly.length).log();
+                return;
+            }
+            this.assemblies.remove(update.clientId);
+            this.completedVersions.put(update.clientId, update.modelVersion);
+            getSender().tell(new ModelUpdateAck(update.modelVersion, -1), getSelf());
+            if (assembly.segment != null) {
+                this.aggregator.tell(new SpilledModelUpdate(update, assembly.segment), getSender());
+            } else {
+                update.weights = assembly.weights;
+                this.aggregator.tell(update, getSender());
+            }
+        }
 
-        try {
-            System.out.println("Before start");
-            Process process = processBuilder.start();
-            System.out.println("After start");
-            int exitCode = process.waitFor();
-            System.out.println("After execution");
-            BufferedReader read = new BufferedReader(new InputStreamReader(
-                    process.getInputStream()));
-            while (read.ready()) {
-                System.out.println(read.readLine());
+        // Update being received, weights are on the heap or in the segment
+        private static class Assembly {
+            Assembly(int modelVersion, int length) {
+                this.modelVersion = modelVersion;
+                this.length = length;
             }
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+            final int modelVersion;
+            final int length;
+            float[] weights;
+            OutOfCoreAggregation.Segment segment;
+            Set<Integer> offsets = new HashSet<>();
+            long received;
         }
     }
 
-    // Returns participates data as a json
-    private String getParticipantsJson() {
-        ObjectMapper mapper = new ObjectMapper();
-        try {
+    // Model update whose weights were written to the segment
+    public static class SpilledModelUpdate {
+        public SpilledModelUpdate(ModelUpdate update, OutOfCoreAggregation.Segment segment) {
+            this.update = update;
+            this.segment = segment;
+        }
+        public ModelUpdate update;
+        public OutOfCoreAggregation.Segment segment;
+    }
 
-            List<LearningData> listToSerialize = new ArrayList<>();
-            this.roundParticipants.stream()
-                    .forEach(pd -> listToSerialize.add(new LearningData(pd.clientId, pd.port)));
+    // Removes updates spilled before the server was restarted
+    private void deleteSpilledUpdates() {
+        File[] spilled = this.spillDirectory.listFiles((directory, name) -> name.endsWith(".segment"));
+        if (spilled != null) {
+            for (File file : spilled) {
+                file.delete();
+            }
+        }
+    }
 
-            String json = mapper.writeValueAsString(listToSerialize);
-            System.out.println("json -> " + json);
-            return json;
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+    // Message that triggers eviction of dead participants
+    public static class CheckParticipantsHealth { }
+
+    // TODO move to messages
+    public static class ReadyToRunLearningMessageResponse {
+        public Boolean canStart;
+        public ReadyToRunLearningMessageResponse(Boolean canStart) {
+            this.canStart = canStart;
         }
-        return "";
+    }
+
+    // Tells resident server learning module to train the round, round ends with RoundTrained
+    private void runLearning() {
+        List<LearningData> participants = this.roundParticipants.values()
+                .stream()
+                .map(participant -> new LearningData(participant.clientId, participant.port, participant.localSteps, participant.batchSize))
+                .collect(Collectors.toList());
+        this.serverModule.tell(new ServerModule.TrainRound(this.roundNumber, participants), getSelf());
     }
 
     // Class for serializing modules list
-    public class LearningData {
-        public LearningData(String id, int port) {
+    public static class LearningData {
+        public LearningData(String id, int port, int localSteps, int batchSize) {
             this.id = id;
             this.port = port;
+            this.localSteps = localSteps;
+            this.batchSize = batchSize;
         }
 
         public String id;
         public int port;
+        // Workload of the participant, 0 means the module default
+        public int localSteps;
+        public int batchSize;
     }
 }
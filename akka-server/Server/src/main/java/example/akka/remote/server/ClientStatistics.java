@@ -0,0 +1,168 @@
+package example.akka.remote.server;
+
+import example.akka.remote.shared.Messages;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Measured performance of every client seen by the server. Values are kept in primitive
+// columns indexed by a slot assigned to each client id, so the table stays compact for large fleets.
+public class ClientStatistics {
+
+    // Weight of the newest measurement in moving averages
+    private static final double SMOOTHING = 0.3;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    private int size;
+
+    // Size of the last model update, uploads of every client are expected to be this large
+    private long updateBytes;
+
+    private double[] trainingMillisPerSample = new double[16];
+    private int[] numberOfSamples = new int[16];
+    private double[] uploadBytesPerSecond = new double[16];
+    private int[] successes = new int[16];
+    private int[] failures = new int[16];
+    private int[] lastSelectedRound = new int[16];
+    private int[] ramInGB = new int[16];
+    private boolean[] useCuda = new boolean[16];
+    private byte[] instanceType = new byte[16];
+
+    // Stores capabilities declared by the client, creates entry when client is seen for the first time
+    public void registerClient(String clientId, Messages.DeviceCapabilities capabilities) {
+        int slot = this.slotOf(clientId);
+        if (capabilities != null) {
+            this.ramInGB[slot] = capabilities.RAMInGB;
+            this.useCuda[slot] = Boolean.TRUE.equals(capabilities.useCuda);
+            this.instanceType[slot] = (byte) (capabilities.instanceType == null ? 0 : capabilities.instanceType.ordinal());
+        }
+    }
+
+    // Speed is measured only when the client reports the number of samples, python modules do not,
+    // so their clients keep the estimate from declared capabilities
+    public void recordTraining(String clientId, long millis, int numberOfSamples) {
+        int slot = this.slotOf(clientId);
+        this.successes[slot]++;
+        if (numberOfSamples <= 0) {
+            return;
+        }
+        double perSample = (double) millis / Math.max(1, numberOfSamples);
+        this.trainingMillisPerSample[slot] = average(this.trainingMillisPerSample[slot], perSample);
+        this.numberOfSamples[slot] = numberOfSamples;
+    }
+
+    public void recordUpload(String clientId, long bytes, long millis) {
+        int slot = this.slotOf(clientId);
+        double bytesPerSecond = bytes * 1000.0 / Math.max(1, millis);
+        this.uploadBytesPerSecond[slot] = average(this.uploadBytesPerSecond[slot], bytesPerSecond);
+        this.updateBytes = bytes;
+    }
+
+    public void recordFailure(String clientId) {
+        this.failures[this.slotOf(clientId)]++;
+    }
+
+    public void recordSelected(String clientId, int round) {
+        this.lastSelectedRound[this.slotOf(clientId)] = round;
+    }
+
+    // Expected training time per sample, estimated from declared capabilities until first measurement
+    public double expectedMillisPerSample(String clientId) {
+        int slot = this.slotOf(clientId);
+        if (this.trainingMillisPerSample[slot] > 0) {
+            return this.trainingMillisPerSample[slot];
+        }
+        double estimate = 1.0;
+        if (this.useCuda[slot]) {
+            estimate /= 4;
+        }
+        if (this.instanceType[slot] == Messages.InstanceType.Phone.ordinal()) {
+            estimate *= 4;
+        }
+        if (this.ramInGB[slot] > 0 && this.ramInGB[slot] < 4) {
+            estimate *= 2;
+        }
+        return estimate;
+    }
+
+    // Expected time from sending the model until the update arrives, training of the last number of samples plus
+    // upload of the update. Clients without measurements get only the per sample estimate
+    public double expectedRoundMillis(String clientId) {
+        int slot = this.slotOf(clientId);
+        double millis = this.expectedMillisPerSample(clientId) * Math.max(1, this.numberOfSamples[slot]);
+        if (this.uploadBytesPerSecond[slot] > 0) {
+            millis += this.updateBytes * 1000.0 / this.uploadBytesPerSecond[slot];
+        }
+        return millis;
+    }
+
+    // Tells if training time of the client was measured, otherwise expected time is only an estimate
+    public boolean isMeasured(String clientId) {
+        return this.trainingMillisPerSample[this.slotOf(clientId)] > 0;
+    }
+
+    // Fraction of rounds the client finished, optimistic for clients without history
+    public double successRate(String clientId) {
+        int slot = this.slotOf(clientId);
+        return (this.successes[slot] + 1.0) / (this.successes[slot] + this.failures[slot] + 1.0);
+    }
+
+    public double uploadBytesPerSecond(String clientId) {
+        return this.uploadBytesPerSecond[this.slotOf(clientId)];
+    }
+
+    public int lastSelectedRound(String clientId) {
+        return this.lastSelectedRound[this.slotOf(clientId)];
+    }
+
+    public boolean isExplored(String clientId) {
+        int slot = this.slotOf(clientId);
+        return this.successes[slot] + this.failures[slot] > 0;
+    }
+
+    public boolean useCuda(String clientId) {
+        return this.useCuda[this.slotOf(clientId)];
+    }
+
+    public int ramInGB(String clientId) {
+        return this.ramInGB[this.slotOf(clientId)];
+    }
+
+    public Messages.InstanceType instanceType(String clientId) {
+        return Messages.InstanceType.values()[this.instanceType[this.slotOf(clientId)]];
+    }
+
+    private int slotOf(String clientId) {
+        Integer slot = this.slots.get(clientId);
+        if (slot != null) {
+            return slot;
+        }
+        if (this.size == this.successes.length) {
+            this.grow();
+        }
+        this.slots.put(clientId, this.size);
+        return this.size++;
+    }
+
+    private void grow() {
+        int capacity = this.size * 2;
+        this.trainingMillisPerSample = Arrays.copyOf(this.trainingMillisPerSample, capacity);
+        this.numberOfSamples = Arrays.copyOf(this.numberOfSamples, capacity);
+        this.uploadBytesPerSecond = Arrays.copyOf(this.uploadBytesPerSecond, capacity);
+        this.successes = Arrays.copyOf(this.successes, capacity);
+        this.failures = Arrays.copyOf(this.failures, capacity);
+        this.lastSelectedRound = Arrays.copyOf(this.lastSelectedRound, capacity);
+        this.ramInGB = Arrays.copyOf(this.ramInGB, capacity);
+        this.useCuda = Arrays.copyOf(this.useCuda, capacity);
+        this.instanceType = Arrays.copyOf(this.instanceType, capacity);
+    }
+
+    private static double average(double current, double measurement) {
+        if (current == 0) {
+            return measurement;
+        }
+        return (1 - SMOOTHING) * current + SMOOTHING * measurement;
+    }
+}
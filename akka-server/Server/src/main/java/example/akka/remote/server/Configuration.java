@@ -12,25 +12,33 @@ import example.akka.remote.shared.Messages;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 public class Configuration {
 
-    // Returns current configuration read from appConfig.json file
-    public static ConfigurationDTO get() {
-        ObjectMapper mapper = new ObjectMapper();
+    // Configuration is read by many actors, the mapper is created once on first use
+    private static ObjectMapper mapper;
 
-        SimpleModule simpleModule = new SimpleModule();
-        simpleModule.addDeserializer(ClientModule.class, new ClientModuleDeserializer());
-        mapper.registerModule(simpleModule);
+    private static synchronized ObjectMapper mapper() {
+        if (mapper == null) {
+            ObjectMapper objectMapper = new ObjectMapper();
+            SimpleModule simpleModule = new SimpleModule();
+            simpleModule.addDeserializer(ClientModule.class, new ClientModuleDeserializer());
+            objectMapper.registerModule(simpleModule);
+            mapper = objectMapper;
+        }
+        return mapper;
+    }
 
-        ConfigurationDTO configuration = null;
+    // Returns current configuration read from appConfig.json file. Server cannot run without it, so the actor
+    // reading it fails to start instead of getting null
+    public static ConfigurationDTO get() {
         try {
-            configuration = mapper.readValue(new File("./src/main/resources/appConfig.json"), ConfigurationDTO.class);
+            return mapper().readValue(new File("./src/main/resources/appConfig.json"), ConfigurationDTO.class);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Configuration could not be read from appConfig.json", e);
         }
-        return configuration;
     }
 
     public static class ConfigurationDTO {
@@ -41,6 +49,82 @@ public class Configuration {
         public String savedModelPath;
         public int epochs;
 
+        // Limits of the server learning module process, 0 means no limit
+        public int moduleTimeoutSeconds = 3600;
+        public int moduleMemoryLimitMB = 0;
+
+        // Append-only journal of round events used to resume the job after restart
+        public String journalPath = "./round_journal.log";
+        public int journalSnapshotInterval = 100;
+
+        // Failure detection of participants based on heartbeats sent by clients
+        public double failureDetectorThreshold = 8.0;
+        public int acceptableHeartbeatPauseMillis = 3000;
+        public int heartbeatIntervalMillis = 1000;
+        public int healthCheckIntervalMillis = 1000;
+
+        // Number of joined devices taking part in the round, 0 means all of them
+        public int participantsPerRound = 0;
+        // Strategy choosing participants: random, fastest or utility
+        public String selectionStrategy = "random";
+
+        // Size of the cohort sampled from registered devices every round, 0 lets every joining device take part.
+        // Devices rejoin with probability cohortOvercommit * cohortSize / number of registered devices and the server
+        // admits a random sample of those. Only the most recently seen maxRegisteredClients devices are remembered
+        public int cohortSize = 0;
+        public double cohortOvercommit = 1.3;
+        public int maxRegisteredClients = 100000;
+
+        // Admission control of requests sent by devices
+        public double joinRequestsPerSecond = 200;
+        public int joinRequestsBurst = 500;
+        public double moduleRequestsPerSecond = 20;
+        public int moduleRequestsBurst = 50;
+
+        // Training runtime: "python" runs serverModuleFilePath, "jvm" aggregates models trained inside clients
+        public String runtime = "python";
+        public String jvmModelPath = "./saved_model.jvm";
+        public int localSteps = 10;
+        public int batchSize = 32;
+        public float learningRate = 0.1f;
+        // Global model is streamed to participants in chunks of this size, chunks not acknowledged
+        // in requestTimeoutMillis are sent again
+        public int broadcastChunkSizeKB = 1024;
+        public int requestTimeoutMillis = 10000;
+
+        // Local steps and batch size assigned to each participant from its capabilities and measured speed,
+        // so participants finish together. Target of 0 uses time of the median participant with default workload
+        public boolean adaptiveWorkload = false;
+        public int targetRoundSeconds = 0;
+        public int minLocalSteps = 1;
+        public int maxLocalSteps = 100;
+
+        // Aggregation of models of the task: fedavg, median, trimmedMean, krum or multiKrum
+        public String aggregator = "fedavg";
+        // Fraction of the smallest and of the largest values dropped by trimmed mean
+        public double trimFraction = 0.1;
+        // Number of malicious participants tolerated by Krum and number of models averaged by multi-Krum
+        public int byzantineCount = 1;
+        public int krumSelected = 5;
+        // Optimizer applying the aggregated model to the global model: none, momentum, adam or yogi.
+        // Beta1 is also the momentum, epsilon controls adaptivity of adam and yogi
+        public String serverOptimizer = "none";
+        public double serverLearningRate = 1.0;
+        public double serverBeta1 = 0.9;
+        public double serverBeta2 = 0.99;
+        public double serverEpsilon = 0.001;
+
+        // Memory for model updates during aggregation, 0 keeps all updates on the heap. Otherwise updates are
+        // spilled to segment files in aggregationSpillPath as they arrive and aggregated block by block. The global
+        // model and the aggregated one are then kept in files as well
+        public int aggregationMemoryBudgetMB = 0;
+        public String aggregationSpillPath = "./aggregation_spill";
+
+        // Evaluation of aggregated models in a separate, long running process
+        public boolean evaluateOnServer = true;
+        public String evaluationModuleFilePath = "./src/main/python/evaluate.py";
+        public String evaluationMetricsPath = "./evaluation_metrics.csv";
+
         @JsonProperty(value = "clientModules")
         public List<ClientModule> clientModules;
     }
@@ -79,7 +163,6 @@ public class Configuration {
             int minRAMInGB = node.get("minRAMInGB").asInt();
             Messages.InstanceType instanceType = Messages.InstanceType.valueOf(node.get("instanceType").asText());
 
-            System.out.println("learningTaskId -> " + learningTaskId);
             ClientModule clientModule =  new ClientModule(learningTaskId, fileName, description, useCUDA, minRAMInGB, instanceType);
             return clientModule;
         }
@@ -3,22 +3,41 @@ package example.akka.remote.server;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
-import akka.event.Logging;
-import akka.event.LoggingAdapter;
+import example.akka.remote.shared.EventLog;
 import example.akka.remote.shared.LoggingActor;
+import example.akka.remote.shared.Timeline;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 import static example.akka.remote.shared.Messages.*;
 
 public class Coordinator extends UntypedActor {
 
     public Coordinator() {
+        Configuration.ConfigurationDTO configuration = Configuration.get();
+        this.journal = new RoundJournal(configuration.journalPath, configuration.journalSnapshotInterval, this.events);
+
         this.selector = getContext().system().actorOf(Props.create(Selector.class), "Selector");
-        this.aggregator = getContext().system().actorOf(Props.create(Aggregator.class, getSelf()), "Aggregator");
-        // Start first round
-        this.startRound();
+        this.aggregator = getContext().system().actorOf(Props.create(Aggregator.class, getSelf(), this.selector, this.journal), "Aggregator");
+
+        RoundJournal.RoundState state = this.journal.getState();
+        // Devices are told which model they can keep from the first round after a restart
+        this.modelVersion = state.modelVersion;
+        this.modelHash = state.modelHash;
+        if (state.roundActive) {
+            // Server was restarted in the middle of the round, resume it
+            this.events.info("Coordinator", "round-resumed").round(state.currentRound).log();
+            this.roundNumber = state.currentRound;
+            this.resumeRound();
+        } else {
+            // Start first round or the one after the last finished
+            this.roundNumber = state.currentRound;
+            this.startRound();
+        }
     }
 
-    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+    // Structured log, handled messages are sampled by type
+    private EventLog events = EventLog.get(getContext().system());
 
     private ActorRef loggingActor = getContext().actorOf(Props.create(LoggingActor.class), "LoggingActor");
 
@@ -28,12 +47,34 @@ public class Coordinator extends UntypedActor {
     // Aggregator actor
     private ActorRef aggregator;
 
+    // Journal of round events
+    private RoundJournal journal;
+
+    // Number of the current round
+    private int roundNumber;
+
+    // Global model after the last round, unknown until the first round ends
+    private int modelVersion;
+    private String modelHash;
+
+    // Records handled messages when timeline is enabled
+    private Timeline timeline = Timeline.get(getContext().system());
+
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message) {
+        long start = this.timeline.start();
+        super.aroundReceive(receive, message);
+        this.timeline.record("Coordinator", message, start, this.roundNumber);
+    }
+
     @Override
     public void onReceive(Object message) {
-        log.info("onReceive({})", message);
+        this.events.message("Coordinator", message, getSender(), this.roundNumber);
 
         if (message instanceof RoundEnded) {
-            log.info("Coordinator -> Received information that round has ended");
+            this.events.info("Coordinator", "round-ended").round(this.roundNumber).log();
+            this.modelVersion = ((RoundEnded) message).modelVersion;
+            this.modelHash = ((RoundEnded) message).modelHash;
             // Starting new round
             startRound();
         } else {
@@ -42,7 +83,14 @@ public class Coordinator extends UntypedActor {
     }
 
     private void startRound() {
-        this.aggregator.tell(new StartRound(), getSelf());
-        this.selector.tell(new StartRoundCoordinatorSelector(this.aggregator), getSelf());
+        this.roundNumber++;
+        this.journal.roundStarted(this.roundNumber);
+        this.resumeRound();
+    }
+
+    // Tells aggregator and selector about the round, aggregator restores participants from the journal
+    private void resumeRound() {
+        this.aggregator.tell(new StartRound(this.roundNumber), getSelf());
+        this.selector.tell(new StartRoundCoordinatorSelector(this.aggregator, this.roundNumber, this.modelVersion, this.modelHash), getSelf());
     }
 }
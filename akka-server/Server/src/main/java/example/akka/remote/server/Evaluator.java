@@ -0,0 +1,225 @@
+package example.akka.remote.server;
+
+import akka.actor.Status;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import example.akka.remote.shared.BlockingIO;
+import example.akka.remote.shared.ProcessSupervisor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Evaluates global models outside of the round. Keeps the evaluation module running with the
+// test set loaded, sends it one request per model version and records the results as metrics.
+// The next round overwrites the saved model, so every version is evaluated from its own copy.
+// Module reports each result with a line starting with RESULT_PREFIX, see evaluate.py.
+public class Evaluator extends UntypedActor {
+
+    private static final String RESULT_PREFIX = "@result ";
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Read once, not for every model
+    private final Configuration.ConfigurationDTO configuration = Configuration.get();
+
+    // Warm evaluation process, started with the first request
+    private Process process;
+
+    // Copies of the models waiting for their result by model version
+    private Map<Integer, File> snapshots = new HashMap<>();
+
+    private File snapshotDirectory;
+
+    @Override
+    public void preStart() throws IOException {
+        this.snapshotDirectory = Files.createTempDirectory("evaluation").toFile();
+    }
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof EvaluateModel) {
+            // Model is copied outside of the actor, evaluation is requested once the copy exists
+            EvaluateModel evaluate = (EvaluateModel) message;
+            File source = new File(evaluate.modelPath);
+            File snapshot = new File(this.snapshotDirectory, evaluate.modelVersion + "-" + source.getName());
+            BlockingIO.get(getContext().system()).pipeToSelf(() -> {
+                Files.copy(source.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return new SnapshotTaken(snapshot, evaluate.format, evaluate.modelVersion);
+            }, getSelf());
+        } else if (message instanceof SnapshotTaken) {
+            SnapshotTaken snapshot = (SnapshotTaken) message;
+            if (this.process == null) {
+                this.startProcess();
+            }
+            this.snapshots.put(snapshot.modelVersion, snapshot.file);
+            this.sendRequest(snapshot);
+        } else if (message instanceof ProcessSupervisor.Output) {
+            String line = ((ProcessSupervisor.Output) message).line;
+            JsonNode node = this.parseResult(line);
+            if (node == null) {
+                // Throwing would restart the actor, kill the warm module and drop the pending models. Result
+                // cannot be matched to a model, its snapshot is removed when the module exits or the actor stops
+                log.warning("Malformed result of the evaluation module: " + line);
+                return;
+            }
+            this.completeEvaluation(new EvaluationResult(
+                    node.get("version").asInt(),
+                    node.path("loss").asDouble(),
+                    node.path("accuracy").asDouble(),
+                    node.has("error") ? node.get("error").asText() : null));
+        } else if (message instanceof ProcessSupervisor.Exited) {
+            // Requests written to the module are lost with it, the next model starts it again
+            ProcessSupervisor.Exited exited = (ProcessSupervisor.Exited) message;
+            if (exited.source != this.process) {
+                // Module of the actor before its restart, requests of the running one are not affected
+                return;
+            }
+            this.process = null;
+            String error = "module exited with code " + exited.exitCode + (exited.killReason != null ? ", " + exited.killReason : "");
+            for (Integer version : this.snapshots.keySet().toArray(new Integer[0])) {
+                this.completeEvaluation(new EvaluationResult(version, 0, 0, error));
+            }
+        } else if (message instanceof ProcessSupervisor.Metric) {
+            // Results come as Output, other lines of the module are only logged
+        } else if (message instanceof Status.Failure) {
+            log.error(((Status.Failure) message).cause(), "Model could not be copied for the evaluation");
+        } else {
+            unhandled(message);
+        }
+    }
+
+    @Override
+    public void postStop() {
+        if (this.process != null) {
+            this.process.destroy();
+        }
+        for (File snapshot : this.snapshots.values()) {
+            snapshot.delete();
+        }
+        this.snapshotDirectory.delete();
+    }
+
+    private void startProcess() throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder();
+        processBuilder.directory(new File(System.getProperty("user.dir")));
+        processBuilder.command("python", this.configuration.evaluationModuleFilePath,
+                "--datapath", this.configuration.testDataPath);
+
+        // Module lives across rounds, only its memory is limited
+        this.process = ProcessSupervisor.start(getContext().system(), "evaluator", processBuilder,
+                new ProcessSupervisor.Limits(0, this.configuration.moduleMemoryLimitMB), getSelf(), RESULT_PREFIX);
+        log.info("Evaluation module started");
+    }
+
+    // Writes the request to the module, pipe might be full while module is busy so it is written outside of the actor
+    private void sendRequest(SnapshotTaken snapshot) {
+        String request = this.mapper.createObjectNode()
+                .put("path", snapshot.file.getPath())
+                .put("format", snapshot.format)
+                .put("version", snapshot.modelVersion)
+                .toString();
+        byte[] line = (request + "\n").getBytes(StandardCharsets.UTF_8);
+
+        OutputStream input = this.process.getOutputStream();
+        BlockingIO.get(getContext().system()).execute(() -> {
+            try {
+                input.write(line);
+                input.flush();
+            } catch (IOException e) {
+                // Module has died, its Exited message completes the evaluation
+                log.warning("Model version " + snapshot.modelVersion + " could not be sent to the module: " + e.getMessage());
+            }
+        });
+    }
+
+    // Returns result line as JSON, null when it is not an object with a numeric version
+    private JsonNode parseResult(String line) {
+        try {
+            JsonNode result = this.mapper.readTree(line);
+            if (result == null || !result.isObject() || !result.path("version").canConvertToInt()) {
+                return null;
+            }
+            return result;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void completeEvaluation(EvaluationResult result) {
+        File snapshot = this.snapshots.remove(result.modelVersion);
+        if (snapshot != null) {
+            BlockingIO.get(getContext().system()).execute(snapshot::delete);
+        }
+        if (result.error != null) {
+            log.info("Evaluation of model version " + result.modelVersion + " failed: " + result.error);
+            return;
+        }
+        log.info("Model version " + result.modelVersion + " - loss: " + result.loss + ", accuracy: " + result.accuracy);
+        String path = this.configuration.evaluationMetricsPath;
+        BlockingIO.get(getContext().system()).execute(() -> this.saveMetrics(path, result));
+    }
+
+    // Appends result to the metrics file, runs outside of the actor
+    private void saveMetrics(String path, EvaluationResult result) {
+        File file = new File(path);
+        boolean writeHeader = !file.exists();
+        try (FileWriter writer = new FileWriter(file, true)) {
+            if (writeHeader) {
+                writer.write("timestamp,modelVersion,loss,accuracy\n");
+            }
+            writer.write(System.currentTimeMillis() + "," + result.modelVersion + "," + result.loss + "," + result.accuracy + "\n");
+        } catch (IOException e) {
+            log.warning("Metrics of model version " + result.modelVersion + " could not be saved: " + e.getMessage());
+        }
+    }
+
+    // Message with saved model which should be evaluated, format is "torch" or "jvm"
+    public static class EvaluateModel {
+        public EvaluateModel(String modelPath, String format, int modelVersion) {
+            this.modelPath = modelPath;
+            this.format = format;
+            this.modelVersion = modelVersion;
+        }
+        public String modelPath;
+        public String format;
+        public int modelVersion;
+    }
+
+    // Message that the model has been copied and can be evaluated
+    private static class SnapshotTaken {
+        SnapshotTaken(File file, String format, int modelVersion) {
+            this.file = file;
+            this.format = format;
+            this.modelVersion = modelVersion;
+        }
+        File file;
+        String format;
+        int modelVersion;
+    }
+
+    // Result of the evaluation sent by the evaluation module
+    public static class EvaluationResult {
+        public EvaluationResult(int modelVersion, double loss, double accuracy, String error) {
+            this.modelVersion = modelVersion;
+            this.loss = loss;
+            this.accuracy = accuracy;
+            this.error = error;
+        }
+        public int modelVersion;
+        public double loss;
+        public double accuracy;
+        public String error;
+    }
+}
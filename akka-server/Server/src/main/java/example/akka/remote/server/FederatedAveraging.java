@@ -0,0 +1,30 @@
+package example.akka.remote.server;
+
+import java.util.List;
+
+// Averages models of the participants weighted by the number of samples they were trained on
+public class FederatedAveraging {
+
+    public static float[] aggregate(List<float[]> models, double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+
+        int length = models.get(0).length;
+        double[] sum = new double[length];
+        for (int m = 0; m < models.size(); m++) {
+            float[] model = models.get(m);
+            double weight = total > 0 ? weights[m] / total : 1.0 / models.size();
+            for (int i = 0; i < length; i++) {
+                sum[i] += weight * model[i];
+            }
+        }
+
+        float[] result = new float[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (float) sum[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package example.akka.remote.server;
+
+import example.akka.remote.shared.ModelDelta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Global model trained with the JVM runtime, stored as a version number followed by raw float weights.
+// With out-of-core aggregation the weights are not loaded, they are read from the file when needed
+public class GlobalModel {
+
+    public GlobalModel(float[] weights, int version) {
+        this.weights = weights;
+        this.version = version;
+        this.length = weights != null ? weights.length : 0;
+    }
+
+    public GlobalModel(int length, int version) {
+        this.length = length;
+        this.version = version;
+    }
+
+    // Weights of the model, null until the first round is aggregated or when they are kept only in the file
+    public float[] weights;
+
+    public int version;
+
+    // Number of weights, 0 until the first round is aggregated
+    public int length;
+
+    public boolean exists() {
+        return this.length > 0;
+    }
+
+    // Loads model saved by previous run, returns empty model when there is none. Weights stay in the file
+    // unless they are kept in memory
+    public static GlobalModel load(String path, boolean inMemory) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return new GlobalModel(null, 0);
+        }
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            int version = buffer.getInt();
+            int length = buffer.getInt();
+            if (!inMemory) {
+                return new GlobalModel(length, version);
+            }
+            float[] weights = new float[length];
+            buffer.asFloatBuffer().get(weights);
+            return new GlobalModel(weights, version);
+        }
+    }
+
+    // Weights of the model, mapped from the file saved at the path when they are not in memory
+    public FloatBuffer view(String path) throws IOException {
+        return this.weights != null ? FloatBuffer.wrap(this.weights) : mapWeights(path);
+    }
+
+    // Maps the whole saved model, the mapping stays valid when the file is replaced
+    public static MappedByteBuffer map(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Maps weights of the saved model
+    public static FloatBuffer mapWeights(String path) throws IOException {
+        MappedByteBuffer model = map(path);
+        model.position(8);
+        return model.asFloatBuffer();
+    }
+
+    // Returns version of the saved model and checksum of its file, null when there is no readable model
+    public static Saved readSaved(String path) throws IOException {
+        if (!new File(path).isFile()) {
+            return null;
+        }
+        MappedByteBuffer model = map(path);
+        return new Saved(model.getInt(0), ModelDelta.checksum(model));
+    }
+
+    public static class Saved {
+        Saved(int version, String hash) {
+            this.version = version;
+            this.hash = hash;
+        }
+        public final int version;
+        public final String hash;
+    }
+
+    // Saves the model atomically, the previous file stays in place when writing fails
+    public void save(String path, String previousPath) throws IOException {
+        save(path, this.version, FloatBuffer.wrap(this.weights), previousPath);
+    }
+
+    // Streams the weights into a new file which replaces the saved model. The replaced model is kept
+    // at previousPath unless it is null
+    public static void save(String path, int version, FloatBuffer weights, String previousPath) throws IOException {
+        File temp = new File(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(version);
+            header.putInt(weights.remaining());
+            header.flip();
+            write(channel, header);
+
+            ByteBuffer block = ByteBuffer.allocate(1 << 18);
+            FloatBuffer source = weights.duplicate();
+            while (source.hasRemaining()) {
+                int count = Math.min(source.remaining(), block.capacity() / 4);
+                FloatBuffer slice = source.slice();
+                slice.limit(count);
+                block.clear();
+                block.asFloatBuffer().put(slice);
+                block.limit(count * 4);
+                write(channel, block);
+                source.position(source.position() + count);
+            }
+        }
+        File file = new File(path);
+        if (previousPath != null && file.isFile()) {
+            keepPrevious(file, new File(previousPath));
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save model to " + path);
+        }
+    }
+
+    // Links the saved model under the previous path, so the model file itself is never missing
+    private static void keepPrevious(File file, File previous) throws IOException {
+        Files.deleteIfExists(previous.toPath());
+        try {
+            Files.createLink(previous.toPath(), file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // File system without hard links
+            Files.copy(file.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
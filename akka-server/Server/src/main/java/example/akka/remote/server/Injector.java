@@ -3,10 +3,14 @@ package example.akka.remote.server;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
-import akka.event.Logging;
-import akka.event.LoggingAdapter;
+import example.akka.remote.shared.BlockingIO;
+import example.akka.remote.shared.BulkTransport;
+import example.akka.remote.shared.EventLog;
 import example.akka.remote.shared.LoggingActor;
 import example.akka.remote.shared.Messages;
+import example.akka.remote.shared.Timeline;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -24,7 +28,9 @@ import static example.akka.remote.shared.Messages.*;
 public class Injector extends UntypedActor {
 
     public Injector() {
-        log.info("Injector created " + getSelf().path());
+        this.events.info("Injector", "created").with("path", getSelf().path()).log();
+        Configuration.ConfigurationDTO configuration = Configuration.get();
+        this.requestsLimiter = new TokenBucket(configuration.moduleRequestsPerSecond, configuration.moduleRequestsBurst);
     }
 
     // List of modules
@@ -33,11 +39,33 @@ public class Injector extends UntypedActor {
         add(new Messages.ModuleData("mnist","server.py", "Server", false, 4, InstanceType.Computer));
     }};
 
-    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+    // Structured log, handled messages are sampled by type
+    private EventLog events = EventLog.get(getContext().system());
+
+    // Limits rate of served module requests
+    private TokenBucket requestsLimiter;
+
+    // Records handled messages when timeline is enabled
+    private Timeline timeline = Timeline.get(getContext().system());
+
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message) {
+        long start = this.timeline.start();
+        super.aroundReceive(receive, message);
+        this.timeline.record("Injector", message, start, 0);
+    }
 
     @Override
     public void onReceive(Object message) throws Exception {
-        log.info("onReceive({})", message);
+        this.events.message("Injector", message, getSender(), 0);
+
+        if (message instanceof GetModulesListRequest || message instanceof GetModuleRequest) {
+            long retryAfter = this.requestsLimiter.tryAcquire();
+            if (retryAfter > 0) {
+                getSender().tell(new RetryAfter(retryAfter, message), getSelf());
+                return;
+            }
+        }
 
         if (message instanceof GetModulesListRequest) {
             // Returns modules list
@@ -49,10 +77,12 @@ public class Injector extends UntypedActor {
         } else if (message instanceof GetModuleRequest) {
             // Returns module asked by device, reads it end returns content
             String name = ((GetModuleRequest) message).name;
-            log.info("Searching for file: {}", name);
-            byte[] bytes = Files.readAllBytes(Paths.get("./src/main/modules/learning/" + name));
-
-            getSender().tell(new GetModuleResponse(bytes, name), getSelf());
+            this.events.debug("Injector", "module-requested").with("file", name).log();
+            // File is read outside of the dispatcher and the response goes directly to the device on the bulk connection
+            BlockingIO.get(getContext().system()).pipe(
+                    () -> new GetModuleResponse(Files.readAllBytes(Paths.get("./src/main/modules/learning/" + name)), name),
+                    BulkTransport.get(getContext().system()).route(getSender()),
+                    getSelf());
         } else {
             unhandled(message);
         }
@@ -0,0 +1,267 @@
+package example.akka.remote.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Combines models sent by participants into the new global model
+public interface ModelAggregator {
+
+    // Coordinates are processed in blocks, values of one block from all models fit into the CPU cache
+    int BLOCK_SIZE = 1024;
+
+    // Weights are numbers of samples, used only by aggregators which average the models
+    float[] aggregate(List<float[]> models, double[] weights);
+
+    // Returns aggregator by the name used in appConfig.json
+    static ModelAggregator create(Configuration.ConfigurationDTO configuration) {
+        String name = configuration.aggregator;
+        if (name == null) {
+            return new FederatedAveragingAggregator();
+        }
+        switch (name) {
+            case "fedavg":
+                return new FederatedAveragingAggregator();
+            case "median":
+                return new MedianAggregator();
+            case "trimmedMean":
+                return new TrimmedMeanAggregator(configuration.trimFraction);
+            case "krum":
+                return new KrumAggregator(configuration.byzantineCount, 1);
+            case "multiKrum":
+                return new KrumAggregator(configuration.byzantineCount, configuration.krumSelected);
+            default:
+                throw new IllegalArgumentException("Unknown aggregator: " + name);
+        }
+    }
+
+    // Plain federated averaging
+    class FederatedAveragingAggregator implements ModelAggregator {
+        @Override
+        public float[] aggregate(List<float[]> models, double[] weights) {
+            return FederatedAveraging.aggregate(models, weights);
+        }
+    }
+
+    // Base of coordinate-wise aggregators. Values of a block of coordinates are copied from all models into
+    // a column-major buffer, so every coordinate is a contiguous column which is reduced in place.
+    // Blocks are reduced in parallel, each thread with its own buffer.
+    abstract class CoordinateWiseAggregator implements ModelAggregator {
+
+        // Reduces values of a single coordinate stored in column[from, from + count), values may be reordered
+        protected abstract float reduce(float[] column, int from, int count);
+
+        @Override
+        public float[] aggregate(List<float[]> models, double[] weights) {
+            int count = models.size();
+            int length = models.get(0).length;
+            float[] result = new float[length];
+            float[][] modelArray = models.toArray(new float[0][]);
+            ThreadLocal<float[]> buffers = ThreadLocal.withInitial(() -> new float[count * BLOCK_SIZE]);
+
+            int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            IntStream.range(0, blocks).parallel().forEach(block -> {
+                float[] buffer = buffers.get();
+                int start = block * BLOCK_SIZE;
+                int size = Math.min(BLOCK_SIZE, length - start);
+                // Models are read sequentially, writes go to the columns of the buffer
+                for (int m = 0; m < count; m++) {
+                    float[] model = modelArray[m];
+                    for (int i = 0; i < size; i++) {
+                        buffer[i * count + m] = model[start + i];
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    result[start + i] = this.reduce(buffer, i * count, count);
+                }
+            });
+            return result;
+        }
+    }
+
+    // Coordinate-wise median, middle values are found with quickselect in linear time
+    class MedianAggregator extends CoordinateWiseAggregator {
+        @Override
+        protected float reduce(float[] column, int from, int count) {
+            int middle = from + count / 2;
+            float upper = Selection.select(column, from, from + count, middle);
+            if (count % 2 == 1) {
+                return upper;
+            }
+            // Lower middle value is the largest one left of the upper one after the selection
+            float lower = column[from];
+            for (int i = from + 1; i < middle; i++) {
+                lower = Math.max(lower, column[i]);
+            }
+            return (lower + upper) / 2;
+        }
+    }
+
+    // Coordinate-wise mean without the given fraction of the smallest and the largest values
+    class TrimmedMeanAggregator extends CoordinateWiseAggregator {
+        public TrimmedMeanAggregator(double trimFraction) {
+            this.trimFraction = trimFraction;
+        }
+
+        private final double trimFraction;
+
+        @Override
+        protected float reduce(float[] column, int from, int count) {
+            int trimmed = Math.min((int) (count * this.trimFraction), (count - 1) / 2);
+            int to = from + count;
+            if (trimmed > 0) {
+                // Smallest values end up before the first kept position, largest after the last one
+                Selection.select(column, from, to, from + trimmed);
+                Selection.select(column, from + trimmed, to, to - trimmed - 1);
+            }
+            double sum = 0;
+            for (int i = from + trimmed; i < to - trimmed; i++) {
+                sum += column[i];
+            }
+            return (float) (sum / (count - 2 * trimmed));
+        }
+    }
+
+    // Krum chooses models closest to their neighbours, assuming at most byzantineCount of them are malicious.
+    // Multi-Krum averages selectedCount models with the best score weighted by their number of samples.
+    class KrumAggregator implements ModelAggregator {
+        public KrumAggregator(int byzantineCount, int selectedCount) {
+            this.byzantineCount = byzantineCount;
+            this.selectedCount = Math.max(1, selectedCount);
+        }
+
+        private final int byzantineCount;
+        private final int selectedCount;
+
+        @Override
+        public float[] aggregate(List<float[]> models, double[] weights) {
+            int count = models.size();
+            if (count <= 2) {
+                return FederatedAveraging.aggregate(models, weights);
+            }
+            int[] selected = this.select(distances(models));
+            if (selected.length == 1) {
+                return models.get(selected[0]).clone();
+            }
+
+            List<float[]> selectedModels = new ArrayList<>();
+            double[] selectedWeights = new double[selected.length];
+            for (int i = 0; i < selected.length; i++) {
+                selectedModels.add(models.get(selected[i]));
+                selectedWeights[i] = weights[selected[i]];
+            }
+            return FederatedAveraging.aggregate(selectedModels, selectedWeights);
+        }
+
+        // Returns indexes of the models with the best score, distances are squared distances of all pairs
+        int[] select(double[][] distances) {
+            int count = distances.length;
+            // Score is the sum of distances to the closest count - f - 2 other models
+            int neighbours = Math.max(1, count - this.byzantineCount - 2);
+            double[] scores = new double[count];
+            for (int i = 0; i < count; i++) {
+                double[] others = new double[count - 1];
+                for (int j = 0, k = 0; j < count; j++) {
+                    if (j != i) {
+                        others[k++] = distances[i][j];
+                    }
+                }
+                Arrays.sort(others);
+                for (int k = 0; k < neighbours; k++) {
+                    scores[i] += others[k];
+                }
+            }
+
+            return IntStream.range(0, count)
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(i -> scores[i]))
+                    .limit(Math.min(this.selectedCount, count))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        // Squared euclidean distances between all pairs of models. Rows are computed in parallel,
+        // a block of the row model stays in the cache while it is compared with the following models.
+        static double[][] distances(List<float[]> models) {
+            int count = models.size();
+            double[][] distances = new double[count][count];
+            addDistances(models, distances);
+            // Only pairs with j > i were computed, the matrix is symmetric
+            for (int i = 0; i < count; i++) {
+                for (int j = i + 1; j < count; j++) {
+                    distances[j][i] = distances[i][j];
+                }
+            }
+            return distances;
+        }
+
+        // Adds squared distances of the models to the upper triangle of the matrix, models may be parts
+        // of the whole models, distances of all parts add up to distances of the whole models
+        static void addDistances(List<float[]> models, double[][] distances) {
+            int count = models.size();
+            int length = models.get(0).length;
+            IntStream.range(0, count).parallel().forEach(i -> {
+                float[] model = models.get(i);
+                double[] row = distances[i];
+                for (int start = 0; start < length; start += BLOCK_SIZE) {
+                    int end = Math.min(length, start + BLOCK_SIZE);
+                    for (int j = i + 1; j < count; j++) {
+                        float[] other = models.get(j);
+                        double sum = 0;
+                        for (int k = start; k < end; k++) {
+                            double difference = model[k] - other[k];
+                            sum += difference * difference;
+                        }
+                        row[j] += sum;
+                    }
+                }
+            });
+        }
+    }
+
+    // Quickselect on a range of a primitive array
+    class Selection {
+        // Reorders values in [from, to) so that position k holds the value it would hold if the range was sorted,
+        // smaller or equal values are before it and larger or equal after it. Returns the value at k.
+        static float select(float[] values, int from, int to, int k) {
+            int left = from;
+            int right = to - 1;
+            while (right > left) {
+                // Median of three pivot avoids quadratic time on sorted columns
+                int middle = (left + right) >>> 1;
+                if (values[middle] < values[left]) swap(values, middle, left);
+                if (values[right] < values[left]) swap(values, right, left);
+                if (values[right] < values[middle]) swap(values, right, middle);
+                float pivot = values[middle];
+
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (values[i] < pivot) i++;
+                    while (values[j] > pivot) j--;
+                    if (i <= j) {
+                        swap(values, i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    break;
+                }
+            }
+            return values[k];
+        }
+
+        private static void swap(float[] values, int i, int j) {
+            float value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package example.akka.remote.server;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.UntypedActor;
+import example.akka.remote.shared.EventLog;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static example.akka.remote.shared.Messages.*;
+
+// Streams the global model or its delta to participants in chunks read from the mapped file, the same way
+// devices upload their updates. At most WINDOW chunks of a participant wait for acknowledgement, chunks not
+// acknowledged in requestTimeoutMillis are sent again. The closing GlobalModelBroadcast or GlobalModelDelta
+// follows once all chunks were acknowledged. Every file is mapped once per version and shared by all transfers.
+public class ModelBroadcaster extends UntypedActor {
+
+    private static final int WINDOW = 4;
+    private static final int ATTEMPTS = 10;
+
+    public ModelBroadcaster(ActorRef aggregator, EventLog events) {
+        Configuration.ConfigurationDTO configuration = Configuration.get();
+        this.aggregator = aggregator;
+        this.events = events;
+        this.chunkSize = configuration.broadcastChunkSizeKB * 1024;
+        this.timeoutMillis = configuration.requestTimeoutMillis;
+    }
+
+    // Log of the aggregator, the bulk system does not write its own
+    private final EventLog events;
+    private final ActorRef aggregator;
+    private final int chunkSize;
+    private final int timeoutMillis;
+
+    // Transfer of every participant, a participant receives one model at a time
+    private Map<String, Transfer> transfers = new HashMap<>();
+
+    // Mapped files by path, replaced when the file of a newer version is sent
+    private Map<String, MappedFile> files = new HashMap<>();
+
+    @Override
+    public void onReceive(Object message) {
+        if (message instanceof SendModel) {
+            SendModel send = (SendModel) message;
+            Transfer running = this.transfers.get(send.clientId);
+            if (running != null && running.send.version == send.version && running.send.baseVersion == send.baseVersion) {
+                // Requested again while it is being sent
+                return;
+            }
+            ByteBuffer content;
+            try {
+                content = this.map(send.path, send.version);
+            } catch (IOException e) {
+                // Participant requests the model again when it does not arrive
+                this.events.error("ModelBroadcaster", "model-not-readable", e).client(send.clientId)
+                        .with("modelVersion", send.version).log();
+                this.transfers.remove(send.clientId);
+                return;
+            }
+            if (send.baseVersion == 0 && content.getInt(0) != send.version) {
+                // Round ended and the model was replaced before it could be sent
+                this.transfers.remove(send.clientId);
+                return;
+            }
+            Transfer transfer = new Transfer(send, content);
+            this.transfers.put(send.clientId, transfer);
+            this.sendChunks(transfer);
+        } else if (message instanceof GlobalModelAck) {
+            GlobalModelAck ack = (GlobalModelAck) message;
+            Transfer transfer = this.transfers.get(ack.clientId);
+            if (transfer == null || ack.version != transfer.send.version || ack.baseVersion != transfer.send.baseVersion) {
+                return;
+            }
+            transfer.attempts = 0;
+            if (ack.offset == -1) {
+                this.transfers.remove(ack.clientId);
+                return;
+            }
+            transfer.inFlight.remove(ack.offset);
+            this.sendChunks(transfer);
+        } else if (message instanceof TransferTimeout) {
+            TransferTimeout timeout = (TransferTimeout) message;
+            Transfer transfer = this.transfers.get(timeout.clientId);
+            if (transfer == null || timeout.id != transfer.timeoutId) {
+                return;
+            }
+            if (++transfer.attempts > ATTEMPTS) {
+                // Participant requests the model again or stops sending heartbeats and is evicted
+                this.events.warning("ModelBroadcaster", "model-not-acknowledged").client(timeout.clientId)
+                        .with("modelVersion", transfer.send.version).with("baseVersion", transfer.send.baseVersion).log();
+                this.transfers.remove(timeout.clientId);
+                return;
+            }
+            for (int offset : transfer.inFlight) {
+                this.sendChunk(transfer, offset);
+            }
+            if (transfer.closed) {
+                this.sendClosing(transfer);
+            }
+            this.scheduleTimeout(transfer);
+        } else if (message instanceof GlobalModelRequest) {
+            // Participant answers the chunks, so its requests come here as well
+            this.aggregator.forward(message, getContext());
+        } else {
+            unhandled(message);
+        }
+    }
+
+    // Sends chunks until the window is full, closing message follows once all chunks are acknowledged
+    private void sendChunks(Transfer transfer) {
+        int length = transfer.content.limit();
+        while (transfer.inFlight.size() < WINDOW && transfer.nextOffset < length) {
+            transfer.inFlight.add(transfer.nextOffset);
+            this.sendChunk(transfer, transfer.nextOffset);
+            transfer.nextOffset += this.chunkSize;
+        }
+        if (transfer.nextOffset >= length && transfer.inFlight.isEmpty() && !transfer.closed) {
+            transfer.closed = true;
+            this.sendClosing(transfer);
+        }
+        this.scheduleTimeout(transfer);
+    }
+
+    private void sendChunk(Transfer transfer, int offset) {
+        ByteBuffer view = transfer.content.duplicate();
+        view.position(offset);
+        byte[] bytes = new byte[Math.min(this.chunkSize, view.remaining())];
+        view.get(bytes);
+        SendModel send = transfer.send;
+        send.device.tell(new GlobalModelChunk(send.baseVersion, send.version, offset, view.limit(), bytes), getSelf());
+    }
+
+    private void sendClosing(Transfer transfer) {
+        SendModel send = transfer.send;
+        int length = transfer.content.limit();
+        Object closing = send.baseVersion == 0
+                ? new GlobalModelBroadcast(send.version, send.hash, length)
+                : new GlobalModelDelta(send.baseVersion, send.version, send.hash, length);
+        send.device.tell(closing, getSelf());
+    }
+
+    // Timeouts scheduled before are ignored
+    private void scheduleTimeout(Transfer transfer) {
+        ActorSystem system = getContext().system();
+        system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(this.timeoutMillis, TimeUnit.MILLISECONDS), getSelf(),
+                    new TransferTimeout(transfer.send.clientId, ++transfer.timeoutId), system.dispatcher(), getSelf());
+    }
+
+    // Returns content of the file, mapped again only when it holds a different version. Mappings of replaced
+    // files stay valid, so transfers of the older version finish
+    private ByteBuffer map(String path, int version) throws IOException {
+        MappedFile file = this.files.get(path);
+        if (file == null || file.version != version) {
+            file = new MappedFile(version, GlobalModel.map(path));
+            this.files.put(path, file);
+        }
+        return file.content.duplicate();
+    }
+
+    private static class MappedFile {
+        MappedFile(int version, ByteBuffer content) {
+            this.version = version;
+            this.content = content;
+        }
+        final int version;
+        final ByteBuffer content;
+    }
+
+    // Message that the model or the delta in the file should be sent to the participant, base version 0 means
+    // the whole model. Device is the route of the participant on the bulk connection
+    public static class SendModel {
+        public SendModel(ActorRef device, String clientId, String path, int baseVersion, int version, String hash) {
+            this.device = device;
+            this.clientId = clientId;
+            this.path = path;
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.hash = hash;
+        }
+        public final ActorRef device;
+        public final String clientId;
+        public final String path;
+        public final int baseVersion;
+        public final int version;
+        public final String hash;
+    }
+
+    // Model being streamed, offsets of chunks waiting for acknowledgement are in flight
+    private static class Transfer {
+        Transfer(SendModel send, ByteBuffer content) {
+            this.send = send;
+            this.content = content;
+        }
+        final SendModel send;
+        final ByteBuffer content;
+        int nextOffset;
+        Set<Integer> inFlight = new HashSet<>();
+        // Closing message has been sent
+        boolean closed;
+        int attempts;
+        int timeoutId;
+    }
+
+    // Message that chunks of the participant have not been acknowledged in time
+    private static class TransferTimeout {
+        TransferTimeout(String clientId, int id) {
+            this.clientId = clientId;
+            this.id = id;
+        }
+        final String clientId;
+        final int id;
+    }
+}
@@ -0,0 +1,212 @@
+package example.akka.remote.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Aggregates models which do not fit into the heap together. Every update is spilled to its own memory-mapped
+// segment file when it arrives, so only one update at a time is on the heap. Aggregation then reads the same
+// range of coordinates of all segments into block buffers sized by the memory budget and reduces them with
+// the configured aggregator, the operating system pages the segments in and out as needed. The result is written
+// to a segment as well, so the new global model is never on the heap.
+public class OutOfCoreAggregation {
+
+    public OutOfCoreAggregation(ModelAggregator aggregator, long memoryBudgetBytes) {
+        this.aggregator = aggregator;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    private final ModelAggregator aggregator;
+    private final long memoryBudgetBytes;
+
+    // Update written to a segment file, weights are in native byte order
+    public static class Segment {
+        private Segment(File file, FloatBuffer weights) {
+            this.file = file;
+            this.weights = weights;
+        }
+
+        private final File file;
+        private final FloatBuffer weights;
+
+        public int length() {
+            return this.weights.capacity();
+        }
+
+        // Writes part of the update received in chunks
+        void write(int from, float[] weights) {
+            FloatBuffer view = this.weights.duplicate();
+            view.position(from);
+            view.put(weights);
+        }
+
+        // Copies weights [from, from + into.length) of the update into the array
+        void read(int from, float[] into) {
+            FloatBuffer view = this.weights.duplicate();
+            view.position(from);
+            view.get(into);
+        }
+
+        // Normalizes spilled update in place, see WorkloadPlanner.normalize. Global model can be a mapped file
+        void normalize(FloatBuffer globalModel, double localSteps, double averageSteps) {
+            int length = globalModel.remaining();
+            float[] block = new float[Math.min(length, 1 << 16)];
+            FloatBuffer view = this.weights.duplicate();
+            FloatBuffer globalView = globalModel.duplicate();
+            float[] globalBlock = new float[block.length];
+            for (int start = 0; start < length; start += block.length) {
+                int size = Math.min(block.length, length - start);
+                float[] values = size == block.length ? block : new float[size];
+                float[] base = size == block.length ? globalBlock : new float[size];
+                view.position(start);
+                view.get(values);
+                globalView.get(base);
+                WorkloadPlanner.normalize(base, values, localSteps, averageSteps);
+                view.position(start);
+                view.put(values);
+            }
+        }
+
+        // Weights of the segment, valid until it is deleted
+        FloatBuffer weights() {
+            return this.weights.duplicate();
+        }
+
+        // Deletes the file, the mapping is released once the segment is garbage collected
+        public void delete() {
+            if (this.file.exists() && !this.file.delete()) {
+                this.file.deleteOnExit();
+            }
+        }
+    }
+
+    // Writes weights to a new segment file in the directory
+    public static Segment spill(File directory, String name, float[] weights) throws IOException {
+        Segment segment = allocate(directory, name, weights.length);
+        segment.write(0, weights);
+        return segment;
+    }
+
+    // Creates segment for an update of the given length, filled with zeros
+    public static Segment allocate(File directory, String name, int length) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        long bytes = (long) length * 4;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Update of " + bytes + " bytes does not fit into one segment");
+        }
+        File file = new File(directory, name + ".segment");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.nativeOrder());
+            return new Segment(file, buffer.asFloatBuffer());
+        }
+    }
+
+    // Aggregates spilled updates into the result segment, weights are numbers of samples as in ModelAggregator
+    public void aggregate(List<Segment> segments, double[] weights, Segment result) {
+        int count = segments.size();
+        int length = segments.get(0).length();
+        for (Segment segment : segments) {
+            if (segment.length() != length) {
+                throw new IllegalArgumentException("Updates have different number of weights");
+            }
+        }
+        if (result.length() != length) {
+            throw new IllegalArgumentException("Result has different number of weights than the updates");
+        }
+        int blockLength = this.blockLength(count, length);
+
+        if (this.aggregator instanceof ModelAggregator.KrumAggregator && count > 2) {
+            // Krum compares whole models, distances are summed over the blocks first
+            ModelAggregator.KrumAggregator krum = (ModelAggregator.KrumAggregator) this.aggregator;
+            double[][] distances = new double[count][count];
+            this.forEachBlock(segments, blockLength, (start, blocks) -> ModelAggregator.KrumAggregator.addDistances(blocks, distances));
+            for (int i = 0; i < count; i++) {
+                for (int j = i + 1; j < count; j++) {
+                    distances[j][i] = distances[i][j];
+                }
+            }
+            int[] selected = krum.select(distances);
+            List<Segment> selectedSegments = new ArrayList<>();
+            double[] selectedWeights = new double[selected.length];
+            for (int i = 0; i < selected.length; i++) {
+                selectedSegments.add(segments.get(selected[i]));
+                selectedWeights[i] = weights[selected[i]];
+            }
+            // Selected models are averaged, which is coordinate-wise again
+            this.forEachBlock(selectedSegments, this.blockLength(selected.length, length), (start, blocks) ->
+                    result.write(start, FederatedAveraging.aggregate(blocks, selectedWeights)));
+            return;
+        }
+
+        // Other aggregators work coordinate by coordinate, so each block is aggregated on its own
+        this.forEachBlock(segments, blockLength, (start, blocks) ->
+                result.write(start, this.aggregator.aggregate(blocks, weights)));
+    }
+
+    // Applies the aggregated model in the segment to the current global model block by block, see ServerOptimizer
+    public void step(ServerOptimizer optimizer, FloatBuffer current, Segment aggregated) throws IOException {
+        int length = aggregated.length();
+        if (current.remaining() != length) {
+            // Nothing to move from, the aggregated model becomes the global model
+            return;
+        }
+        FloatBuffer currentView = current.duplicate();
+        int blockLength = this.blockLength(2, length);
+        float[] currentBlock = new float[blockLength];
+        float[] block = new float[blockLength];
+        for (int start = 0; start < length; start += blockLength) {
+            int size = Math.min(blockLength, length - start);
+            if (size != block.length) {
+                currentBlock = new float[size];
+                block = new float[size];
+            }
+            currentView.get(currentBlock);
+            aggregated.read(start, block);
+            optimizer.step(currentBlock, block, start, length);
+            aggregated.write(start, block);
+        }
+    }
+
+    private interface BlockConsumer {
+        void accept(int start, List<float[]> blocks);
+    }
+
+    // Reads consecutive blocks of all segments into buffers reused between the blocks
+    private void forEachBlock(List<Segment> segments, int blockLength, BlockConsumer consumer) {
+        int length = segments.get(0).length();
+        List<float[]> blocks = new ArrayList<>();
+        for (int start = 0; start < length; start += blockLength) {
+            int size = Math.min(blockLength, length - start);
+            if (blocks.isEmpty() || blocks.get(0).length != size) {
+                // Only the last block is shorter
+                blocks.clear();
+                for (int m = 0; m < segments.size(); m++) {
+                    blocks.add(new float[size]);
+                }
+            }
+            for (int m = 0; m < segments.size(); m++) {
+                segments.get(m).read(start, blocks.get(m));
+            }
+            consumer.accept(start, blocks);
+        }
+    }
+
+    // Number of coordinates per block. Aggregators need about as much memory again as the blocks they get,
+    // e.g. column buffers or double sums, so the budget is split in half
+    int blockLength(int count, int length) {
+        long coordinates = this.memoryBudgetBytes / 2 / 4 / Math.max(1, count);
+        long aligned = Math.max(ModelAggregator.BLOCK_SIZE, coordinates / ModelAggregator.BLOCK_SIZE * ModelAggregator.BLOCK_SIZE);
+        return (int) Math.min(length, aligned);
+    }
+}
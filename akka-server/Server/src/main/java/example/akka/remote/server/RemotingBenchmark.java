@@ -0,0 +1,112 @@
+package example.akka.remote.server;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Measures throughput of large messages and latency of small control messages sent at the same time
+// between two actor systems on this machine. Run with "tcp" or "tcp-bulk", number of messages and
+// size in KB. With "tcp-bulk" large messages go to a second server system like with the BulkTransport.
+public class RemotingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "tcp";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int sizeInKB = args.length > 2 ? Integer.parseInt(args[2]) : 2048;
+
+        ActorSystem server = ActorSystem.create("BenchmarkServer", config(25601));
+        ActorSystem client = ActorSystem.create("BenchmarkClient", config(25602));
+        ActorSystem bulkServer = transport.equals("tcp-bulk") ? ActorSystem.create("BenchmarkServerBulk", config(25603)) : server;
+        bulkServer.actorOf(Props.create(Echo.class), "bulk");
+        server.actorOf(Props.create(Echo.class), "control");
+
+        ActorSelection bulk = client.actorSelection("akka.tcp://" + bulkServer.name() + "@127.0.0.1:"
+                + (bulkServer == server ? 25601 : 25603) + "/user/bulk");
+        ActorSelection control = client.actorSelection("akka.tcp://BenchmarkServer@127.0.0.1:25601/user/control");
+
+        int pings = 50;
+        CountDownLatch bulkDone = new CountDownLatch(count);
+        CountDownLatch pingsDone = new CountDownLatch(pings);
+        ActorRef probe = client.actorOf(Props.create(Probe.class, bulkDone, pingsDone));
+
+        // Warm up the connections
+        control.tell(System.nanoTime(), ActorRef.noSender());
+        bulk.tell(new byte[0], ActorRef.noSender());
+        Thread.sleep(2000);
+
+        byte[] payload = new byte[sizeInKB * 1024];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            bulk.tell(payload, probe);
+        }
+        for (int i = 0; i < pings; i++) {
+            control.tell(System.nanoTime(), probe);
+            Thread.sleep(10);
+        }
+        bulkDone.await(5, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pingsDone.await(1, TimeUnit.MINUTES);
+
+        System.out.println(transport + ": " + count + " x " + sizeInKB + " KB in " + seconds + " s, "
+                + (count * sizeInKB / 1024.0 / seconds) + " MB/s");
+        System.out.println("Control message round trip: " + Probe.averagePingMillis + " ms");
+
+        client.terminate();
+        server.terminate();
+        bulkServer.terminate();
+    }
+
+    // Transport settings of application.conf on the given port
+    private static Config config(int port) {
+        String transport = "akka.remote.enabled-transports = [\"akka.remote.netty.tcp\"]\n"
+                + "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n"
+                + "akka.remote.netty.tcp.port = " + port + "\n"
+                + "akka.remote.netty.tcp.maximum-frame-size = 8 MiB\n"
+                + "akka.remote.netty.tcp.send-buffer-size = 16 MiB\n"
+                + "akka.remote.netty.tcp.receive-buffer-size = 16 MiB\n";
+        return ConfigFactory
+                .parseString("akka.actor.provider = \"akka.remote.RemoteActorRefProvider\"\n" + transport)
+                .withFallback(ConfigFactory.defaultReference());
+    }
+
+    // Acknowledges large messages and echoes control messages
+    public static class Echo extends UntypedActor {
+        @Override
+        public void onReceive(Object message) {
+            getSender().tell(message instanceof byte[] ? "ack" : message, getSelf());
+        }
+    }
+
+    public static class Probe extends UntypedActor {
+        public Probe(CountDownLatch bulkDone, CountDownLatch pingsDone) {
+            this.bulkDone = bulkDone;
+            this.pingsDone = pingsDone;
+        }
+
+        static volatile double averagePingMillis;
+
+        private final CountDownLatch bulkDone;
+        private final CountDownLatch pingsDone;
+        private long totalPingNanos;
+        private int pings;
+
+        @Override
+        public void onReceive(Object message) {
+            if ("ack".equals(message)) {
+                this.bulkDone.countDown();
+            } else if (message instanceof Long) {
+                this.totalPingNanos += System.nanoTime() - (Long) message;
+                this.pings++;
+                averagePingMillis = this.totalPingNanos / this.pings / 1e6;
+                this.pingsDone.countDown();
+            }
+        }
+    }
+}
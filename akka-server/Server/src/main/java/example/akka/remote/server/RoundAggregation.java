@@ -0,0 +1,282 @@
+package example.akka.remote.server;
+
+import example.akka.remote.shared.EventLog;
+import example.akka.remote.shared.ModelDelta;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+// Aggregation of one round of the JVM runtime: aggregates the updates, applies the server optimizer, saves the
+// new global model and writes its delta from the previous one. Reads and writes whole models, so it runs on
+// BlockingIO instead of the aggregator, which gets the result as AggregationFinished. Aggregator and optimizer
+// are used by one aggregation at a time, the aggregator does not touch them while it runs.
+class RoundAggregation implements Callable<RoundAggregation.AggregationFinished> {
+
+    RoundAggregation(Configuration.ConfigurationDTO configuration, EventLog events, int roundNumber, GlobalModel globalModel,
+                     ModelAggregator modelAggregator, ServerOptimizer serverOptimizer, File spillDirectory,
+                     List<Update> updates, Previous previous) {
+        this.configuration = configuration;
+        this.events = events;
+        this.roundNumber = roundNumber;
+        this.globalModel = globalModel;
+        this.modelAggregator = modelAggregator;
+        this.serverOptimizer = serverOptimizer;
+        this.spillDirectory = spillDirectory;
+        this.updates = updates;
+        this.previous = previous;
+    }
+
+    private final Configuration.ConfigurationDTO configuration;
+    private final EventLog events;
+    private final int roundNumber;
+    // Model the participants trained, replaced by the result
+    private final GlobalModel globalModel;
+    private final ModelAggregator modelAggregator;
+    private final ServerOptimizer serverOptimizer;
+    private final File spillDirectory;
+    private final List<Update> updates;
+    // Saved model which becomes the base of deltas, null when it is not kept
+    private final Previous previous;
+
+    @Override
+    public AggregationFinished call() {
+        try {
+            return this.aggregate();
+        } finally {
+            for (Update update : this.updates) {
+                if (update.segment != null) {
+                    update.segment.delete();
+                }
+            }
+        }
+    }
+
+    private AggregationFinished aggregate() {
+        int memoryBudgetMB = this.configuration.aggregationMemoryBudgetMB;
+        List<float[]> models = new ArrayList<>();
+        List<OutOfCoreAggregation.Segment> segments = new ArrayList<>();
+        List<Double> samples = new ArrayList<>();
+        List<Integer> steps = new ArrayList<>();
+        for (Update update : this.updates) {
+            if (memoryBudgetMB > 0 && update.segment == null) {
+                // Receiver could not spill the update, it is spilled now so all updates are read the same way
+                try {
+                    update.segment = OutOfCoreAggregation.spill(this.spillDirectory,
+                            update.clientId + "-" + this.globalModel.version, update.weights);
+                    update.weights = null;
+                } catch (IOException e) {
+                    this.events.error("Aggregator", "update-not-spilled", e).round(this.roundNumber).client(update.clientId).log();
+                    continue;
+                }
+            }
+            if (update.segment != null) {
+                segments.add(update.segment);
+            } else {
+                models.add(update.weights);
+            }
+            samples.add((double) update.numberOfSamples);
+            steps.add(update.localSteps);
+        }
+        if (models.isEmpty() && segments.isEmpty()) {
+            this.events.warning("Aggregator", "no-updates").round(this.roundNumber).log();
+            return this.unchanged();
+        }
+
+        long start = System.currentTimeMillis();
+        double[] sampleWeights = samples.stream().mapToDouble(Double::doubleValue).toArray();
+        if (this.configuration.adaptiveWorkload && this.globalModel.exists()) {
+            try {
+                sampleWeights = this.normalizeUpdates(models, segments, sampleWeights, steps);
+            } catch (IOException e) {
+                this.events.error("Aggregator", "updates-not-normalized", e).round(this.roundNumber).log();
+            }
+        }
+        String previousPath = this.previous != null ? this.configuration.jvmModelPath + ".previous" : null;
+        GlobalModel aggregated;
+        if (!segments.isEmpty()) {
+            aggregated = this.aggregateOutOfCore(segments, sampleWeights, memoryBudgetMB, previousPath);
+            if (aggregated == null) {
+                // Updates of the round are lost, participants train the current model again
+                return this.unchanged();
+            }
+        } else {
+            float[] weights = this.modelAggregator.aggregate(models, sampleWeights);
+            weights = this.serverOptimizer.step(this.globalModel.weights, weights);
+            aggregated = new GlobalModel(weights, this.globalModel.version + 1);
+            try {
+                aggregated.save(this.configuration.jvmModelPath, previousPath);
+            } catch (IOException e) {
+                // Model stays in memory, participants get it once it can be saved
+                this.events.error("Aggregator", "model-not-saved", e).round(this.roundNumber)
+                        .with("modelVersion", aggregated.version).log();
+                previousPath = null;
+            }
+        }
+        try {
+            this.serverOptimizer.save(this.configuration.jvmModelPath, aggregated.version);
+        } catch (IOException e) {
+            this.events.error("Aggregator", "optimizer-state-not-saved", e).round(this.roundNumber)
+                    .with("modelVersion", aggregated.version).log();
+        }
+        this.events.info("Aggregator", "aggregated").round(this.roundNumber).with("updates", samples.size())
+                .with("modelVersion", aggregated.version).with("millis", System.currentTimeMillis() - start).log();
+
+        String hash = this.savedHash(aggregated.version);
+        if (hash == null || previousPath == null) {
+            return new AggregationFinished(aggregated, hash, null, false);
+        }
+        return new AggregationFinished(aggregated, hash, this.previous, this.prepareDelta(aggregated));
+    }
+
+    // Result when the model stays the same, the previous model kept for deltas is not replaced
+    private AggregationFinished unchanged() {
+        return new AggregationFinished(this.globalModel, null, null, false);
+    }
+
+    // Aggregates spilled updates into a segment, applies the server optimizer to it block by block and streams it
+    // into the model file, so neither the current nor the new model is on the heap. Returns the new model without
+    // weights, null when it could not be saved
+    private GlobalModel aggregateOutOfCore(List<OutOfCoreAggregation.Segment> segments, double[] sampleWeights,
+                                           int memoryBudgetMB, String previousPath) {
+        int version = this.globalModel.version + 1;
+        OutOfCoreAggregation aggregation = new OutOfCoreAggregation(this.modelAggregator, memoryBudgetMB * 1024L * 1024L);
+        OutOfCoreAggregation.Segment result = null;
+        try {
+            result = OutOfCoreAggregation.allocate(this.spillDirectory, "global-" + version, segments.get(0).length());
+            aggregation.aggregate(segments, sampleWeights, result);
+            if (this.globalModel.exists()) {
+                aggregation.step(this.serverOptimizer, this.globalModel.view(this.configuration.jvmModelPath), result);
+            }
+            GlobalModel.save(this.configuration.jvmModelPath, version, result.weights(), previousPath);
+            return new GlobalModel(result.length(), version);
+        } catch (IOException e) {
+            this.events.error("Aggregator", "model-not-saved", e).round(this.roundNumber).with("modelVersion", version).log();
+            return null;
+        } finally {
+            if (result != null) {
+                result.delete();
+            }
+        }
+    }
+
+    // Normalizes updates of participants which did different number of local steps, returns their new weights.
+    // Weight of a participant is its number of samples per step, so extra steps do not give it more influence
+    private double[] normalizeUpdates(List<float[]> models, List<OutOfCoreAggregation.Segment> segments,
+                                      double[] sampleWeights, List<Integer> steps) throws IOException {
+        // Spilled updates are normalized against the model in its file
+        FloatBuffer globalModel = segments.isEmpty() ? null : this.globalModel.view(this.configuration.jvmModelPath);
+        double[] weights = new double[sampleWeights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = sampleWeights[i] / steps.get(i);
+            total += weights[i];
+        }
+        double averageSteps = 0;
+        for (int i = 0; i < weights.length; i++) {
+            averageSteps += weights[i] / total * steps.get(i);
+        }
+        // Updates are listed in the same order as their steps, in memory or spilled
+        for (int i = 0; i < weights.length; i++) {
+            if (!segments.isEmpty()) {
+                segments.get(i).normalize(globalModel, steps.get(i), averageSteps);
+            } else {
+                WorkloadPlanner.normalize(this.globalModel.weights, models.get(i), steps.get(i), averageSteps);
+            }
+        }
+        return weights;
+    }
+
+    // Returns checksum of the saved model, null when the file does not hold the given version
+    private String savedHash(int version) {
+        try {
+            GlobalModel.Saved saved = GlobalModel.readSaved(this.configuration.jvmModelPath);
+            if (saved != null && saved.version == version) {
+                return saved.hash;
+            }
+            this.events.warning("Aggregator", "model-not-saved").round(this.roundNumber).with("modelVersion", version).log();
+        } catch (IOException e) {
+            this.events.error("Aggregator", "model-not-readable", e).round(this.roundNumber).log();
+        }
+        return null;
+    }
+
+    // Writes delta from the previous model, streamed from both mapped files. Returns false when it is not worth
+    // sending instead of the whole model
+    private boolean prepareDelta(GlobalModel aggregated) {
+        String path = this.configuration.jvmModelPath;
+        File delta = new File(path + ".delta");
+        File temp = new File(path + ".delta.tmp");
+        try {
+            FloatBuffer base = GlobalModel.mapWeights(path + ".previous");
+            FloatBuffer target = GlobalModel.mapWeights(path);
+            if (base.remaining() != target.remaining()) {
+                // Model has a different shape, there is nothing to encode against
+                return false;
+            }
+            long deltaBytes;
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+                deltaBytes = ModelDelta.encode(base, target, output);
+            }
+            if (!temp.renameTo(delta)) {
+                throw new IOException("Could not save delta to " + delta);
+            }
+            long modelBytes = 8 + 4L * aggregated.length;
+            this.events.info("Aggregator", "model-delta").round(this.roundNumber).with("modelVersion", aggregated.version)
+                    .with("deltaBytes", deltaBytes).with("modelBytes", modelBytes).log();
+            return deltaBytes < modelBytes * 0.8;
+        } catch (IOException e) {
+            // Participants get the whole model
+            this.events.error("Aggregator", "delta-not-written", e).round(this.roundNumber)
+                    .with("modelVersion", aggregated.version).log();
+            return false;
+        }
+    }
+
+    // Update of a participant, in memory or spilled to a segment which is deleted once the round is aggregated
+    static class Update {
+        Update(String clientId, float[] weights, OutOfCoreAggregation.Segment segment, int numberOfSamples, int localSteps) {
+            this.clientId = clientId;
+            this.weights = weights;
+            this.segment = segment;
+            this.numberOfSamples = numberOfSamples;
+            this.localSteps = localSteps;
+        }
+        final String clientId;
+        float[] weights;
+        OutOfCoreAggregation.Segment segment;
+        final int numberOfSamples;
+        final int localSteps;
+    }
+
+    // Version and hash of the model which was sent in the round, kept as the base of deltas
+    static class Previous {
+        Previous(int version, String hash) {
+            this.version = version;
+            this.hash = hash;
+        }
+        final int version;
+        final String hash;
+    }
+
+    // Message with the result of the aggregation. Hash is null when the model could not be saved, previous is null
+    // when the model it was aggregated from is not kept for deltas
+    static class AggregationFinished {
+        AggregationFinished(GlobalModel globalModel, String hash, Previous previous, boolean deltaUseful) {
+            this.globalModel = globalModel;
+            this.hash = hash;
+            this.previous = previous;
+            this.deltaUseful = deltaUseful;
+        }
+        final GlobalModel globalModel;
+        final String hash;
+        final Previous previous;
+        final boolean deltaUseful;
+    }
+}
@@ -0,0 +1,280 @@
+package example.akka.remote.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import example.akka.remote.shared.EventLog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Append-only journal of round events. State is recovered at startup from the last snapshot
+// plus the events written after it, so the server can resume the job from the round it was on.
+// Journal is forced to the disk at round boundaries, events in between may be lost when the host crashes.
+public class RoundJournal {
+
+    public RoundJournal(String journalPath, int snapshotInterval, EventLog events) {
+        this.journalFile = new File(journalPath);
+        this.snapshotFile = new File(journalPath + ".snapshot");
+        this.snapshotInterval = snapshotInterval;
+        this.events = events;
+        this.state = this.recover();
+        this.openWriter(true);
+    }
+
+    private final EventLog events;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Journal file with one event per line
+    private final File journalFile;
+
+    // Snapshot of the state, events before it are removed from the journal
+    private final File snapshotFile;
+
+    // Number of events after which snapshot is taken
+    private final int snapshotInterval;
+
+    // Current state, kept up to date with every appended event
+    private RoundState state;
+
+    // Events appended since last snapshot
+    private int eventsSinceSnapshot;
+
+    private FileOutputStream output;
+    private Writer writer;
+
+    // Returns state recovered at startup and updated with every event since then
+    public synchronized RoundState getState() {
+        return this.state;
+    }
+
+    public synchronized void roundStarted(int round) {
+        JournalEvent event = new JournalEvent(EventType.RoundStarted, round);
+        this.append(event);
+        this.sync();
+    }
+
+    public synchronized void participantJoined(int round, String clientId, int port, String path) {
+        JournalEvent event = new JournalEvent(EventType.ParticipantJoined, round);
+        event.clientId = clientId;
+        event.port = port;
+        event.path = path;
+        this.append(event);
+    }
+
+    public synchronized void participantCompleted(int round, String clientId) {
+        JournalEvent event = new JournalEvent(EventType.ParticipantCompleted, round);
+        event.clientId = clientId;
+        this.append(event);
+    }
+
+    public synchronized void participantEvicted(int round, String clientId) {
+        JournalEvent event = new JournalEvent(EventType.ParticipantEvicted, round);
+        event.clientId = clientId;
+        this.append(event);
+    }
+
+    public synchronized void modelAggregated(int round, int modelVersion, String modelHash) {
+        JournalEvent event = new JournalEvent(EventType.ModelAggregated, round);
+        event.modelVersion = modelVersion;
+        event.modelHash = modelHash;
+        this.append(event);
+        this.sync();
+        // Round boundary is a natural point to compact the journal
+        this.snapshot();
+    }
+
+    // Writes event to the journal and applies it to the state
+    private void append(JournalEvent event) {
+        // Events up to the sequence stored in the snapshot are skipped on recovery
+        event.sequence = this.state.lastSequence + 1;
+        try {
+            this.writer.write(this.mapper.writeValueAsString(event));
+            this.writer.write('\n');
+            this.writer.flush();
+        } catch (IOException e) {
+            this.events.error("RoundJournal", "event-not-written", e).round(event.round).with("type", event.type).log();
+        }
+        this.state.apply(event);
+        this.eventsSinceSnapshot++;
+        if (this.eventsSinceSnapshot >= this.snapshotInterval) {
+            this.snapshot();
+        }
+    }
+
+    // Writes buffered events through to the disk
+    private void sync() {
+        try {
+            this.output.getFD().sync();
+        } catch (IOException e) {
+            this.events.error("RoundJournal", "journal-not-synced", e).round(this.state.currentRound).log();
+        }
+    }
+
+    // Saves the state and truncates the journal. Crash before the journal is truncated leaves events
+    // the snapshot already contains, they are recognized by their sequence
+    private void snapshot() {
+        try {
+            File temp = new File(this.snapshotFile.getPath() + ".tmp");
+            try (FileOutputStream snapshot = new FileOutputStream(temp)) {
+                snapshot.write(this.mapper.writeValueAsBytes(this.state));
+                snapshot.getFD().sync();
+            }
+            Files.move(temp.toPath(), this.snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            this.writer.close();
+            this.openWriter(false);
+            this.eventsSinceSnapshot = 0;
+        } catch (IOException e) {
+            this.events.error("RoundJournal", "snapshot-not-written", e).round(this.state.currentRound).log();
+        }
+    }
+
+    // Opens the journal for appending, or empties it
+    private void openWriter(boolean append) {
+        try {
+            this.output = new FileOutputStream(this.journalFile, append);
+            this.writer = new OutputStreamWriter(this.output, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            this.events.error("RoundJournal", "journal-not-opened", e).with("path", this.journalFile.getPath()).log();
+        }
+    }
+
+    // Loads snapshot and replays events written after it
+    private RoundState recover() {
+        RoundState recovered = new RoundState();
+        try {
+            if (this.snapshotFile.exists()) {
+                recovered = this.mapper.readValue(this.snapshotFile, RoundState.class);
+            }
+            if (this.journalFile.exists()) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(this.journalFile))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            JournalEvent event = this.mapper.readValue(line, JournalEvent.class);
+                            if (event.sequence <= recovered.lastSequence) {
+                                // Journal was not truncated after the snapshot
+                                continue;
+                            }
+                            recovered.apply(event);
+                            this.eventsSinceSnapshot++;
+                        } catch (IOException e) {
+                            // Last line might be partially written when server crashed
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            this.events.error("RoundJournal", "journal-not-recovered", e).with("path", this.journalFile.getPath()).log();
+        }
+        return recovered;
+    }
+
+    public enum EventType {
+        RoundStarted,
+        ParticipantJoined,
+        ParticipantCompleted,
+        ParticipantEvicted,
+        ModelAggregated,
+    }
+
+    // Single entry of the journal
+    public static class JournalEvent {
+        public JournalEvent() { }
+
+        public JournalEvent(EventType type, int round) {
+            this.type = type;
+            this.round = round;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        public long sequence;
+        public EventType type;
+        public int round;
+        public long timestamp;
+        public String clientId;
+        public int port;
+        public String path;
+        public int modelVersion;
+        public String modelHash;
+    }
+
+    // State of the job rebuilt from the journal
+    public static class RoundState {
+        // Sequence of the last applied event
+        public long lastSequence;
+        public int currentRound;
+        public boolean roundActive;
+        public int modelVersion;
+        public String modelHash;
+        // Participants of the current round by client id, replay of every event takes constant time
+        public Map<String, JournaledParticipant> participants = new LinkedHashMap<>();
+
+        public void apply(JournalEvent event) {
+            this.lastSequence = event.sequence;
+            switch (event.type) {
+                case RoundStarted:
+                    this.currentRound = event.round;
+                    this.roundActive = true;
+                    this.participants = new LinkedHashMap<>();
+                    break;
+                case ParticipantJoined:
+                    if (event.round == this.currentRound) {
+                        this.participants.put(event.clientId, new JournaledParticipant(event.clientId, event.port, event.path));
+                    }
+                    break;
+                case ParticipantCompleted:
+                    if (event.round == this.currentRound) {
+                        JournaledParticipant participant = this.participants.get(event.clientId);
+                        if (participant != null) {
+                            participant.completed = true;
+                        }
+                    }
+                    break;
+                case ParticipantEvicted:
+                    if (event.round == this.currentRound) {
+                        this.participants.remove(event.clientId);
+                    }
+                    break;
+                case ModelAggregated:
+                    this.modelVersion = event.modelVersion;
+                    this.modelHash = event.modelHash;
+                    if (event.round == this.currentRound) {
+                        this.roundActive = false;
+                    }
+                    break;
+            }
+        }
+    }
+
+    // Participant of the current round as stored in the journal
+    public static class JournaledParticipant {
+        public JournaledParticipant() { }
+
+        public JournaledParticipant(String clientId, int port, String path) {
+            this.clientId = clientId;
+            this.port = port;
+            this.path = path;
+        }
+
+        public String clientId;
+        public int port;
+        public String path;
+        public boolean completed;
+    }
+}
@@ -0,0 +1,113 @@
+package example.akka.remote.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+// Chooses which of the joined clients take part in the round
+public interface SelectionStrategy {
+
+    List<String> select(List<String> candidates, int count, ClientStatistics statistics, int round);
+
+    // Returns strategy by the name used in appConfig.json
+    static SelectionStrategy create(String name) {
+        if (name == null) {
+            return new RandomSelection();
+        }
+        switch (name) {
+            case "fastest":
+                return new FastestSelection();
+            case "utility":
+                return new UtilitySelection();
+            case "random":
+                return new RandomSelection();
+            default:
+                throw new IllegalArgumentException("Unknown selection strategy: " + name);
+        }
+    }
+
+    // Uniformly random clients
+    class RandomSelection implements SelectionStrategy {
+        private final Random random = new Random();
+
+        @Override
+        public List<String> select(List<String> candidates, int count, ClientStatistics statistics, int round) {
+            List<String> shuffled = new ArrayList<>(candidates);
+            Collections.shuffle(shuffled, this.random);
+            return shuffled.subList(0, Math.min(count, shuffled.size()));
+        }
+    }
+
+    // Clients with the lowest expected training and upload time, weighted by how often they finish
+    class FastestSelection implements SelectionStrategy {
+        @Override
+        public List<String> select(List<String> candidates, int count, ClientStatistics statistics, int round) {
+            return candidates
+                    .stream()
+                    .sorted(Comparator.comparingDouble(clientId ->
+                            statistics.expectedRoundMillis(clientId) / statistics.successRate(clientId)))
+                    .limit(count)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Oort-style utility: clients not selected for a long time get a bonus so the data stays covered,
+    // clients slower than the preferred round duration are penalized, a share of the cohort explores new clients
+    class UtilitySelection implements SelectionStrategy {
+        private static final double EXPLORATION_FACTOR = 0.2;
+        private static final double SLOWNESS_PENALTY = 2.0;
+
+        private final Random random = new Random();
+
+        @Override
+        public List<String> select(List<String> candidates, int count, ClientStatistics statistics, int round) {
+            List<String> explored = new ArrayList<>();
+            List<String> unexplored = new ArrayList<>();
+            for (String clientId : candidates) {
+                if (statistics.isExplored(clientId)) {
+                    explored.add(clientId);
+                } else {
+                    unexplored.add(clientId);
+                }
+            }
+
+            // Preferred duration is the median of expected durations of known clients
+            double[] durations = explored
+                    .stream()
+                    .mapToDouble(statistics::expectedRoundMillis)
+                    .sorted()
+                    .toArray();
+            double preferred = durations.length == 0 ? 1 : durations[durations.length / 2];
+
+            int explorationCount = unexplored.isEmpty() ? 0 : (int) Math.ceil(count * EXPLORATION_FACTOR);
+            List<String> selected = explored
+                    .stream()
+                    .sorted(Comparator.comparingDouble((String clientId) -> this.utility(clientId, statistics, round, preferred)).reversed())
+                    .limit(Math.max(0, count - Math.min(explorationCount, unexplored.size())))
+                    .collect(Collectors.toList());
+
+            Collections.shuffle(unexplored, this.random);
+            for (String clientId : unexplored) {
+                if (selected.size() >= count) {
+                    break;
+                }
+                selected.add(clientId);
+            }
+            return selected;
+        }
+
+        private double utility(String clientId, ClientStatistics statistics, int round, double preferred) {
+            // Bonus grows for clients which were selected long time ago
+            double utility = statistics.successRate(clientId)
+                    + Math.sqrt(0.1 * Math.log(Math.max(round, 2)) / Math.max(1, statistics.lastSelectedRound(clientId)));
+            double duration = statistics.expectedRoundMillis(clientId);
+            if (duration > preferred) {
+                utility *= Math.pow(preferred / duration, SLOWNESS_PENALTY);
+            }
+            return utility;
+        }
+    }
+}
@@ -3,28 +3,39 @@ package example.akka.remote.server;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
-import akka.event.Logging;
-import akka.event.LoggingAdapter;
+import example.akka.remote.shared.EventLog;
 import example.akka.remote.shared.LoggingActor;
-import org.python.core.Options;
+import example.akka.remote.shared.Timeline;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
-import javax.script.*;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.StringWriter;
-import java.util.List;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import static example.akka.remote.shared.Messages.*;
 
 public class Selector extends UntypedActor {
 
     public Selector() {
-        log.info("Selector created");
-
+        this.events.info("Selector", "created").log();
+        Configuration.ConfigurationDTO configuration = Configuration.get();
+        this.joinRequestsLimiter = new TokenBucket(configuration.joinRequestsPerSecond, configuration.joinRequestsBurst);
+        this.cohortSize = configuration.cohortSize;
+        this.cohortOvercommit = configuration.cohortOvercommit;
+        int maxRegisteredClients = configuration.maxRegisteredClients;
+        this.registeredClients = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return this.size() > maxRegisteredClients;
+            }
+        };
     }
 
-    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+    // Structured log, handled messages are sampled by type
+    private EventLog events = EventLog.get(getContext().system());
 
     private ActorRef loggingActor = getContext().actorOf(Props.create(LoggingActor.class), "LoggingActor");
 
@@ -34,26 +45,125 @@ public class Selector extends UntypedActor {
     // Reference to aggregator actor
     private ActorRef aggregator;
 
+    // Current global model, announced in join responses
+    private int modelVersion;
+    private String modelHash;
+
+    // Limits rate of accepted join requests
+    private TokenBucket joinRequestsLimiter;
+
+    // Number of the current round
+    private int roundNumber;
+
+    // Cohort sampling, disabled when cohortSize is 0
+    private int cohortSize;
+    private double cohortOvercommit;
+
+    // Devices which have joined, the pool cohorts are sampled from. Least recently seen devices are forgotten
+    // above maxRegisteredClients, the pool then looks smaller and devices join with higher probability
+    private Map<String, Boolean> registeredClients;
+
+    private Random random = new Random();
+
+    // Devices taking part in the current round
+    private Set<String> cohort = new HashSet<>();
+
+    // Start of the current round and smoothed duration of previous ones, used for next round hints
+    private long roundStartedAt;
+    private long roundDurationMillis = DEFAULT_ROUND_DURATION_MILLIS;
+
+    private static final long DEFAULT_ROUND_DURATION_MILLIS = 60_000;
+
+    // Records handled messages when timeline is enabled
+    private Timeline timeline = Timeline.get(getContext().system());
+
+    @Override
+    public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object message) {
+        long start = this.timeline.start();
+        super.aroundReceive(receive, message);
+        this.timeline.record("Selector", message, start, this.roundNumber);
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
-        log.info("onReceive({})", message);
+        this.events.message("Selector", message, getSender(), this.roundNumber);
 
         if (message instanceof JoinRoundRequest) {
             // Receives join request from the device
-            log.info("Selector received join request");
             ActorRef deviceReference = getSender();
-            log.info("Selector path: " + deviceReference.path());
+            long retryAfter = this.joinRequestsLimiter.tryAcquire();
+            if (retryAfter > 0) {
+                deviceReference.tell(new RetryAfter(retryAfter, message), getSelf());
+                return;
+            }
+
             int port = ((JoinRoundRequest) message).port;
             String clientId = ((JoinRoundRequest) message).clientId;
-            deviceReference.tell(new JoinRoundResponse(this.isRoundActive, this.aggregator), getSelf());
+            this.events.debug("Selector", "join-request").round(this.roundNumber).task(((JoinRoundRequest) message).taskId)
+                    .client(clientId).with("device", deviceReference.path()).log();
+            DeviceCapabilities capabilities = ((JoinRoundRequest) message).capabilities;
+            if (this.cohortSize > 0) {
+                this.registeredClients.put(clientId, Boolean.TRUE);
+                boolean admitted = this.cohort.contains(clientId) || this.cohort.size() < this.cohortSize
+                        && (!this.isRoundActive || this.random.nextDouble() < this.admissionProbability());
+                if (!admitted) {
+                    // Cohort is full or device was not sampled, it tries again in one of the next rounds
+                    deviceReference.tell(new JoinRoundResponse(false, null, this.modelVersion, this.modelHash, this.samplingHint()), getSelf());
+                    return;
+                }
+                if (this.isRoundActive) {
+                    this.cohort.add(clientId);
+                }
+            }
+            deviceReference.tell(new JoinRoundResponse(this.isRoundActive, this.aggregator, this.modelVersion, this.modelHash,
+                    this.cohortSize > 0 ? this.samplingHint() : null), getSelf());
 
             // tell aggregator about new device
-            this.aggregator.tell(new InformAggregatorAboutNewParticipant(deviceReference, clientId, port), getSelf());
+            this.aggregator.tell(new InformAggregatorAboutNewParticipant(deviceReference, clientId, port, capabilities,
+                    ((JoinRoundRequest) message).cachedModelVersion, ((JoinRoundRequest) message).cachedModelHash), getSelf());
         } else if (message instanceof StartRoundCoordinatorSelector) {
             this.isRoundActive = true;
             this.aggregator = ((StartRoundCoordinatorSelector) message).aggregator;
+            this.roundNumber = ((StartRoundCoordinatorSelector) message).roundNumber;
+            long now = System.currentTimeMillis();
+            if (this.roundStartedAt > 0) {
+                this.roundDurationMillis = (this.roundDurationMillis + (now - this.roundStartedAt)) / 2;
+            }
+            this.roundStartedAt = now;
+            this.cohort.clear();
+            this.modelVersion = ((StartRoundCoordinatorSelector) message).modelVersion;
+            this.modelHash = ((StartRoundCoordinatorSelector) message).modelHash;
+        } else if (message instanceof LeftCohort) {
+            LeftCohort left = (LeftCohort) message;
+            if (left.roundNumber == this.roundNumber) {
+                this.cohort.remove(left.clientId);
+            }
+            if (left.deviceReference != null) {
+                // Device was not selected or came too late, it tries again in the next round
+                left.deviceReference.tell(new JoinRoundResponse(false, null, this.modelVersion, this.modelHash, this.samplingHint()), getSelf());
+            }
         } else {
             unhandled(message);
         }
     }
+
+    // Tells device when the next round is expected and with which probability it should try to join it,
+    // without cohort sampling every device joins
+    private SamplingHint samplingHint() {
+        double probability = this.cohortSize > 0 ? this.joinProbability() : 1.0;
+        long nextRoundIn = Math.max(0, this.roundStartedAt + this.roundDurationMillis - System.currentTimeMillis());
+        return new SamplingHint(this.roundNumber + 1, nextRoundIn, this.roundDurationMillis, probability);
+    }
+
+    // Probability with which registered devices try to join a round
+    private double joinProbability() {
+        return Math.min(1.0, this.cohortOvercommit * this.cohortSize / Math.max(1, this.registeredClients.size()));
+    }
+
+    // Probability of admitting a device which asks to join. About cohortSize of the devices expected to ask are
+    // admitted, so the cohort is a random sample of them instead of the ones which are fastest to ask
+    private double admissionProbability() {
+        double expectedJoins = Math.max(1, this.registeredClients.size()) * this.joinProbability();
+        return Math.min(1.0, this.cohortSize / expectedJoins);
+    }
 }
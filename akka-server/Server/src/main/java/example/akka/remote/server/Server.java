@@ -4,6 +4,7 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import com.typesafe.config.ConfigFactory;
+import example.akka.remote.shared.Startup;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -13,13 +14,22 @@ import java.io.InputStreamReader;
 public class Server {
 
     public static void main(String... args) {
+        long start = System.nanoTime();
+
         // Creating environment
-        ActorSystem system = ActorSystem.create("AkkaRemoteServer", ConfigFactory.load());
+        ActorSystem system = ActorSystem.create("AkkaRemoteServer", Startup.config(ConfigFactory.load()));
 
-        // Create an actor
-        ActorRef coordinator = system.actorOf(Props.create(Coordinator.class), "Coordinator");
+        if (Startup.isDryRun()) {
+            // Coordinator would open the journal and start a round
+            Startup.preload(Coordinator.class, Selector.class, Aggregator.class, RoundJournal.class);
+        } else {
+            // Create an actor
+            ActorRef coordinator = system.actorOf(Props.create(Coordinator.class), "Coordinator");
+        }
 
         // Create an actor
         ActorRef injector = system.actorOf(Props.create(Injector.class), "Injector");
+
+        Startup.ready(system, "Server", start);
     }
 }
@@ -0,0 +1,224 @@
+package example.akka.remote.server;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.Status;
+import akka.actor.UntypedActor;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import example.akka.remote.shared.BlockingIO;
+import example.akka.remote.shared.ProcessSupervisor;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the server learning module running between rounds. Rounds with their participants are written to
+// the module as JSON lines on its stdin, the module keeps the model in memory and reports each finished
+// round with a line starting with RESULT_PREFIX. Module which died or exceeded the round timeout is
+// started again with the next round.
+public class ServerModule extends UntypedActor {
+
+    private static final String RESULT_PREFIX = "@result ";
+
+    private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Read once, not for every round
+    private final Configuration.ConfigurationDTO configuration = Configuration.get();
+
+    // Resident module process, null until the first round
+    private Process process;
+
+    // Round which the module is training, 0 when it is idle
+    private int pendingRound;
+
+    // Actor which receives RoundTrained of the pending round
+    private ActorRef requester;
+
+    // Kills the module when the pending round takes longer than the timeout
+    private Cancellable roundTimeout;
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof TrainRound) {
+            TrainRound train = (TrainRound) message;
+            if (this.process == null || !this.process.isAlive()) {
+                this.startProcess();
+            }
+            this.pendingRound = train.roundNumber;
+            this.requester = getSender();
+            this.scheduleTimeout(train.roundNumber);
+            this.sendRequest(train);
+        } else if (message instanceof ProcessSupervisor.Output) {
+            String line = ((ProcessSupervisor.Output) message).line;
+            JsonNode result = this.parseResult(line);
+            if (result == null) {
+                // Throwing would restart the actor, kill the module and lose the round
+                log.warning("Malformed result of the module: " + line);
+                if (this.pendingRound != 0) {
+                    this.completeRound("malformed result: " + line);
+                }
+                return;
+            }
+            int round = result.get("round").asInt();
+            if (round != this.pendingRound) {
+                log.info("Ignoring result of round " + round);
+                return;
+            }
+            this.completeRound(result.has("error") ? result.get("error").asText() : null);
+        } else if (message instanceof ProcessSupervisor.Metric) {
+            this.getContext().parent().forward(message, getContext());
+        } else if (message instanceof ProcessSupervisor.Exited) {
+            ProcessSupervisor.Exited exited = (ProcessSupervisor.Exited) message;
+            if (exited.source != this.process) {
+                // Module killed by the round timeout was replaced before its exit arrived, the round belongs
+                // to the running one
+                log.info("Ignoring exit of a replaced module with code " + exited.exitCode);
+                return;
+            }
+            this.process = null;
+            if (this.pendingRound != 0) {
+                this.completeRound("module exited with code " + exited.exitCode
+                        + (exited.killReason != null ? ", " + exited.killReason : ""));
+            }
+        } else if (message instanceof RoundTimeout) {
+            if (((RoundTimeout) message).roundNumber == this.pendingRound && this.process != null) {
+                log.info("Round " + this.pendingRound + " exceeded the timeout, killing the module");
+                // Exited completes the round
+                this.process.destroyForcibly();
+            }
+        } else if (message instanceof Status.Failure) {
+            log.error(((Status.Failure) message).cause(), "Server learning module failed");
+            if (this.pendingRound != 0) {
+                this.completeRound(((Status.Failure) message).cause().getMessage());
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+
+    @Override
+    public void postStop() {
+        if (this.process != null) {
+            this.process.destroy();
+        }
+    }
+
+    private void startProcess() throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder();
+        processBuilder.directory(new File(System.getProperty("user.dir")));
+        processBuilder.command("python", this.configuration.serverModuleFilePath,
+                "--ipc",
+                "--datapath", this.configuration.testDataPath,
+                "--epochs", String.valueOf(this.configuration.epochs),
+                "--modelpath", this.configuration.savedModelPath,
+                "--server_optimizer", this.configuration.serverOptimizer);
+        if (this.configuration.evaluateOnServer) {
+            // Model is tested by the evaluator after the round
+            processBuilder.command().add("--no_test");
+        }
+
+        // Module lives across rounds, so the timeout is enforced per round instead of for the process
+        this.process = ProcessSupervisor.start(getContext().system(), "server-module", processBuilder,
+                new ProcessSupervisor.Limits(0, this.configuration.moduleMemoryLimitMB), getSelf(), RESULT_PREFIX);
+        log.info("Server learning module started");
+    }
+
+    // Writes the round to the module, pipe might be full while module is busy so it is written outside of the actor
+    private void sendRequest(TrainRound train) {
+        ObjectNode request = this.mapper.createObjectNode()
+                .put("round", train.roundNumber)
+                .put("epochs", this.configuration.epochs)
+                .put("modelpath", this.configuration.savedModelPath)
+                .put("server_optimizer", this.configuration.serverOptimizer)
+                .put("server_lr", this.configuration.serverLearningRate)
+                .put("server_beta1", this.configuration.serverBeta1)
+                .put("server_beta2", this.configuration.serverBeta2)
+                .put("server_epsilon", this.configuration.serverEpsilon);
+        request.set("participants", this.mapper.valueToTree(train.participants));
+        byte[] line = (request.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+
+        OutputStream input = this.process.getOutputStream();
+        BlockingIO.get(getContext().system()).execute(() -> {
+            try {
+                input.write(line);
+                input.flush();
+            } catch (IOException e) {
+                // Module has died, its Exited message completes the round
+                log.warning("Round could not be sent to the module: " + e.getMessage());
+            }
+        });
+    }
+
+    // Returns result line as JSON, null when it is not an object with a numeric round
+    private JsonNode parseResult(String line) {
+        try {
+            JsonNode result = this.mapper.readTree(line);
+            if (result == null || !result.isObject() || !result.path("round").canConvertToInt()) {
+                return null;
+            }
+            return result;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void scheduleTimeout(int roundNumber) {
+        if (this.roundTimeout != null) {
+            this.roundTimeout.cancel();
+        }
+        int timeoutSeconds = this.configuration.moduleTimeoutSeconds;
+        if (timeoutSeconds <= 0) {
+            return;
+        }
+        ActorSystem system = getContext().system();
+        this.roundTimeout = system
+            .scheduler()
+            .scheduleOnce(new FiniteDuration(timeoutSeconds, TimeUnit.SECONDS), getSelf(), new RoundTimeout(roundNumber), system.dispatcher(), getSelf());
+    }
+
+    private void completeRound(String error) {
+        if (this.roundTimeout != null) {
+            this.roundTimeout.cancel();
+        }
+        this.requester.tell(new RoundTrained(this.pendingRound, error), getSelf());
+        this.pendingRound = 0;
+    }
+
+    // Message that the module should train the round with given participants
+    public static class TrainRound {
+        public TrainRound(int roundNumber, List<Aggregator.LearningData> participants) {
+            this.roundNumber = roundNumber;
+            this.participants = participants;
+        }
+        public int roundNumber;
+        public List<Aggregator.LearningData> participants;
+    }
+
+    // Result of the round, error is null when the model was trained and saved
+    public static class RoundTrained {
+        public RoundTrained(int roundNumber, String error) {
+            this.roundNumber = roundNumber;
+            this.error = error;
+        }
+        public int roundNumber;
+        public String error;
+    }
+
+    private static class RoundTimeout {
+        RoundTimeout(int roundNumber) {
+            this.roundNumber = roundNumber;
+        }
+        int roundNumber;
+    }
+}
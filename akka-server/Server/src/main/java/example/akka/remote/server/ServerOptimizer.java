@@ -0,0 +1,350 @@
+package example.akka.remote.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Applies the aggregated model to the global model. Difference between the aggregated and the current model is
+// treated as a pseudo-gradient of the round and applied with momentum, Adam or Yogi (Reddi et al., Adaptive
+// Federated Optimization), which needs fewer rounds than replacing the model with the average.
+// State of the optimizer is saved next to the global model and belongs to its version.
+public interface ServerOptimizer {
+
+    // Returns new global model, current is null before the first round. Aggregated model may be overwritten
+    float[] step(float[] current, float[] aggregated);
+
+    // Same as step for the block of coordinates starting at from of a model with length weights, used when
+    // the models are kept on the disk. New weights replace the aggregated block
+    void step(float[] current, float[] aggregated, int from, int length) throws IOException;
+
+    // Saves state for the model of the given version
+    void save(String path, int modelVersion) throws IOException;
+
+    // Loads state saved for the model of the given version, state of other versions is ignored
+    void load(String path, int modelVersion) throws IOException;
+
+    // Returns optimizer by the name used in appConfig.json
+    static ServerOptimizer create(Configuration.ConfigurationDTO configuration) {
+        String name = configuration.serverOptimizer;
+        if (name == null) {
+            return new AveragingOptimizer();
+        }
+        StatefulOptimizer optimizer;
+        switch (name) {
+            case "none":
+                return new AveragingOptimizer();
+            case "momentum":
+                optimizer = new MomentumOptimizer(configuration.serverLearningRate, configuration.serverBeta1);
+                break;
+            case "adam":
+                optimizer = new AdamOptimizer(configuration.serverLearningRate, configuration.serverBeta1,
+                        configuration.serverBeta2, configuration.serverEpsilon);
+                break;
+            case "yogi":
+                optimizer = new YogiOptimizer(configuration.serverLearningRate, configuration.serverBeta1,
+                        configuration.serverBeta2, configuration.serverEpsilon);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown server optimizer: " + name);
+        }
+        if (configuration.aggregationMemoryBudgetMB > 0) {
+            // Global model stays in its file, so do the moments
+            optimizer.mapMoments(configuration.jvmModelPath);
+        }
+        return optimizer;
+    }
+
+    // Aggregated model becomes the global model
+    class AveragingOptimizer implements ServerOptimizer {
+        @Override
+        public float[] step(float[] current, float[] aggregated) {
+            return aggregated;
+        }
+
+        @Override
+        public void step(float[] current, float[] aggregated, int from, int length) { }
+
+        @Override
+        public void save(String path, int modelVersion) { }
+
+        @Override
+        public void load(String path, int modelVersion) { }
+    }
+
+    // Base of optimizers keeping first and second moments of the pseudo-gradient. With out-of-core aggregation
+    // the moments would be as large as the model on the heap, so they are kept in a mapped file next to the model
+    // instead and read block by block like the updates
+    abstract class StatefulOptimizer implements ServerOptimizer {
+        // Moments on the heap, used when models are kept in memory
+        protected float[] firstMoment;
+        protected float[] secondMoment;
+
+        // Working file with the moments, null when they are on the heap
+        private File momentsFile;
+        private MappedMoments mapped;
+
+        // Moments of the block starting at from are read into these, reused between the blocks
+        private float[] firstBlock;
+        private float[] secondBlock;
+
+        // Replaces the aggregated block with the new global model, delta of coordinate i is aggregated[i] - current[i]
+        // and its moments are first[offset + i] and second[offset + i]
+        protected abstract void apply(float[] current, float[] aggregated, float[] first, float[] second, int offset);
+
+        // Keeps the moments in the mapped file from now on, state loaded before stays on the heap
+        void mapMoments(String modelPath) {
+            this.momentsFile = new File(modelPath + ".optimizer.moments");
+        }
+
+        @Override
+        public float[] step(float[] current, float[] aggregated) {
+            if (current == null || current.length != aggregated.length) {
+                // Nothing to move from, e.g. the first round
+                return aggregated;
+            }
+            this.ensureMoments(current.length);
+            // Models can be large, the aggregated one is reused for the result
+            this.apply(current, aggregated, this.firstMoment, this.secondMoment, 0);
+            return aggregated;
+        }
+
+        @Override
+        public void step(float[] current, float[] aggregated, int from, int length) throws IOException {
+            if (this.momentsFile == null) {
+                this.ensureMoments(length);
+                this.apply(current, aggregated, this.firstMoment, this.secondMoment, from);
+                return;
+            }
+            if (this.mapped == null || this.mapped.length != length) {
+                this.mapped = MappedMoments.allocate(this.momentsFile, length);
+            }
+            if (this.firstBlock == null || this.firstBlock.length != current.length) {
+                this.firstBlock = new float[current.length];
+                this.secondBlock = new float[current.length];
+            }
+            this.mapped.read(from, this.firstBlock, this.secondBlock);
+            this.apply(current, aggregated, this.firstBlock, this.secondBlock, 0);
+            this.mapped.write(from, this.firstBlock, this.secondBlock);
+        }
+
+        private void ensureMoments(int length) {
+            if (this.firstMoment == null || this.firstMoment.length != length) {
+                this.firstMoment = new float[length];
+                this.secondMoment = new float[length];
+            }
+        }
+
+        // State file has the same layout as the working file, so mapped moments are saved by copying it
+        @Override
+        public void save(String path, int modelVersion) throws IOException {
+            File file = stateFile(path);
+            File temp = new File(file.getPath() + ".tmp");
+            if (this.momentsFile != null) {
+                if (this.mapped == null) {
+                    return;
+                }
+                this.mapped.force(modelVersion);
+                Files.copy(this.momentsFile.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                if (this.firstMoment == null) {
+                    return;
+                }
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                    output.writeInt(modelVersion);
+                    output.writeInt(this.firstMoment.length);
+                    for (float value : this.firstMoment) {
+                        output.writeFloat(value);
+                    }
+                    for (float value : this.secondMoment) {
+                        output.writeFloat(value);
+                    }
+                }
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not save optimizer state to " + file);
+            }
+        }
+
+        @Override
+        public void load(String path, int modelVersion) throws IOException {
+            File file = stateFile(path);
+            if (!file.isFile()) {
+                return;
+            }
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                if (input.readInt() != modelVersion) {
+                    // Model was saved without the state, optimizer starts over
+                    return;
+                }
+                int length = input.readInt();
+                if (this.momentsFile != null) {
+                    // Copied by the file system, the moments are not read to the heap
+                    Files.copy(file.toPath(), this.momentsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    this.mapped = MappedMoments.map(this.momentsFile, length);
+                    return;
+                }
+                float[] first = new float[length];
+                float[] second = new float[first.length];
+                for (int i = 0; i < first.length; i++) {
+                    first[i] = input.readFloat();
+                }
+                for (int i = 0; i < second.length; i++) {
+                    second[i] = input.readFloat();
+                }
+                this.firstMoment = first;
+                this.secondMoment = second;
+            }
+        }
+
+        static File stateFile(String modelPath) {
+            return new File(modelPath + ".optimizer");
+        }
+    }
+
+    // Moments mapped from the working file: model version, number of weights, first moments and second moments,
+    // big endian like the state file. Each moment has its own mapping, so it can be as large as a spilled update
+    class MappedMoments {
+        private MappedMoments(int length, MappedByteBuffer header, MappedByteBuffer first, MappedByteBuffer second) {
+            this.length = length;
+            this.header = header;
+            this.first = first;
+            this.second = second;
+        }
+
+        final int length;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer first;
+        private final MappedByteBuffer second;
+
+        // Creates the working file with zero moments
+        static MappedMoments allocate(File file, int length) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedMoments moments = map(channel, length);
+                moments.header.putInt(4, length);
+                return moments;
+            }
+        }
+
+        // Maps the existing working file
+        static MappedMoments map(File file, int length) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.size() != 8 + 8L * length) {
+                    throw new IOException("Optimizer state " + file + " has " + channel.size() + " bytes, expected " + (8 + 8L * length));
+                }
+                return map(channel, length);
+            }
+        }
+
+        // Mappings stay valid after the channel is closed
+        private static MappedMoments map(FileChannel channel, int length) throws IOException {
+            long bytes = 4L * length;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("Moments of " + bytes + " bytes do not fit into one mapping");
+            }
+            return new MappedMoments(length,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, 8),
+                    channel.map(FileChannel.MapMode.READ_WRITE, 8, bytes),
+                    channel.map(FileChannel.MapMode.READ_WRITE, 8 + bytes, bytes));
+        }
+
+        void read(int from, float[] first, float[] second) {
+            FloatBuffer firstView = this.first.asFloatBuffer();
+            firstView.position(from);
+            firstView.get(first);
+            FloatBuffer secondView = this.second.asFloatBuffer();
+            secondView.position(from);
+            secondView.get(second);
+        }
+
+        void write(int from, float[] first, float[] second) {
+            FloatBuffer firstView = this.first.asFloatBuffer();
+            firstView.position(from);
+            firstView.put(first);
+            FloatBuffer secondView = this.second.asFloatBuffer();
+            secondView.position(from);
+            secondView.put(second);
+        }
+
+        // Records the model version the moments belong to and writes them through to the file
+        void force(int modelVersion) {
+            this.header.putInt(0, modelVersion);
+            this.header.force();
+            this.first.force();
+            this.second.force();
+        }
+    }
+
+    // Server momentum (FedAvgM), only the first moment is used
+    class MomentumOptimizer extends StatefulOptimizer {
+        public MomentumOptimizer(double learningRate, double momentum) {
+            this.learningRate = (float) learningRate;
+            this.momentum = (float) momentum;
+        }
+
+        private final float learningRate;
+        private final float momentum;
+
+        @Override
+        protected void apply(float[] current, float[] aggregated, float[] first, float[] second, int offset) {
+            for (int i = 0; i < current.length; i++) {
+                float delta = aggregated[i] - current[i];
+                first[offset + i] = this.momentum * first[offset + i] + delta;
+                aggregated[i] = current[i] + this.learningRate * first[offset + i];
+            }
+        }
+    }
+
+    // FedAdam, epsilon is the adaptivity degree tau of the paper
+    class AdamOptimizer extends StatefulOptimizer {
+        public AdamOptimizer(double learningRate, double beta1, double beta2, double epsilon) {
+            this.learningRate = (float) learningRate;
+            this.beta1 = (float) beta1;
+            this.beta2 = (float) beta2;
+            this.epsilon = (float) epsilon;
+        }
+
+        protected final float learningRate;
+        protected final float beta1;
+        protected final float beta2;
+        protected final float epsilon;
+
+        @Override
+        protected void apply(float[] current, float[] aggregated, float[] first, float[] second, int offset) {
+            for (int i = 0; i < current.length; i++) {
+                int j = offset + i;
+                float delta = aggregated[i] - current[i];
+                first[j] = this.beta1 * first[j] + (1 - this.beta1) * delta;
+                second[j] = this.secondMoment(second[j], delta * delta);
+                aggregated[i] = current[i] + this.learningRate * first[j] / ((float) Math.sqrt(second[j]) + this.epsilon);
+            }
+        }
+
+        protected float secondMoment(float previous, float squared) {
+            return this.beta2 * previous + (1 - this.beta2) * squared;
+        }
+    }
+
+    // FedYogi, second moment grows additively, so it does not forget large gradients as fast as Adam
+    class YogiOptimizer extends AdamOptimizer {
+        public YogiOptimizer(double learningRate, double beta1, double beta2, double epsilon) {
+            super(learningRate, beta1, beta2, epsilon);
+        }
+
+        @Override
+        protected float secondMoment(float previous, float squared) {
+            return previous - (1 - this.beta2) * squared * Math.signum(previous - squared);
+        }
+    }
+}
@@ -17,12 +17,12 @@ class Ticker extends AbstractActor {
 
         receive(ReceiveBuilder.
                 match(Aggregator.CheckReadyToRunLearningMessage.class, s -> {
-                    log.info("Received CheckReadyToRunLearningMessage message");
-                    log.info("Ticker: numberOfDevices: " + s.participants.size());
+                    // Sent every interval, so it is logged only at debug level
+                    log.debug("Ticker: numberOfDevices: {}", s.participants.size());
                     s.replayTo.tell(new Aggregator.ReadyToRunLearningMessageResponse
                             (s.participants.size() >= configuration.minimumNumberOfDevices), self());
                 }).
-                matchAny(o -> log.info("received unknown message")).build()
+                matchAny(o -> log.warning("received unknown message")).build()
         );
     }
 }
\ No newline at end of file
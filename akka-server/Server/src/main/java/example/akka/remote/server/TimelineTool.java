@@ -0,0 +1,207 @@
+package example.akka.remote.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import example.akka.remote.shared.Timeline;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Reads recordings written by Timeline. Prints breakdown of every round into phases marked by the aggregator
+// and the message handlers which took most of the time, optionally writes all events as Chrome trace JSON
+// (chrome://tracing or Perfetto). Recordings of the server and of the clients can be passed together.
+//
+// Usage: TimelineTool [--chrome trace.json] recording.bin...
+public class TimelineTool {
+
+    // Phases of the round in the order of marks recorded by the aggregator
+    static final String[] PHASES = {"round-start", "training-start", "aggregation-start", "round-end"};
+    static final String[] PHASE_NAMES = {"waiting for participants", "training", "aggregation"};
+
+    // Mark recorded by the aggregator when update of a participant arrives
+    static final String PARTICIPANT_FINISHED = "participant-finished";
+
+    public static void main(String[] args) throws IOException {
+        String chromePath = null;
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--chrome")) {
+                chromePath = args[++i];
+            } else {
+                events.addAll(read(new File(args[i])));
+            }
+        }
+        if (events.isEmpty()) {
+            System.out.println("Usage: TimelineTool [--chrome trace.json] recording.bin...");
+            return;
+        }
+        events.sort((first, second) -> Long.compare(first.start, second.start));
+
+        printRounds(events);
+        printHandlers(events);
+        if (chromePath != null) {
+            writeChromeTrace(events, new File(chromePath));
+            System.out.println("Chrome trace written to " + chromePath);
+        }
+    }
+
+    // Event of the recording with names resolved
+    static class Event {
+        String process;
+        byte kind;
+        long start;
+        int duration;
+        String source;
+        String name;
+        int round;
+    }
+
+    static List<Event> read(File file) throws IOException {
+        List<Event> events = new ArrayList<>();
+        Map<Short, String> names = new HashMap<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != Timeline.MAGIC) {
+                throw new IOException(file + " is not a timeline recording");
+            }
+            String process = input.readUTF();
+            while (true) {
+                int type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (type == Timeline.NAME_RECORD) {
+                    names.put(input.readShort(), input.readUTF());
+                } else if (type == Timeline.EVENT_RECORD) {
+                    Event event = new Event();
+                    event.process = process;
+                    event.kind = input.readByte();
+                    event.start = input.readLong();
+                    event.duration = input.readInt();
+                    event.source = names.get(input.readShort());
+                    event.name = names.get(input.readShort());
+                    event.round = input.readInt();
+                    events.add(event);
+                } else {
+                    throw new IOException("Unknown record " + type + " in " + file);
+                }
+            }
+        }
+        return events;
+    }
+
+    // Critical path of the round: time between consecutive phase marks, plus the longest participant training.
+    // The longest training lasts from the training start until the last update arrived, when it is much shorter
+    // than the training phase the round waited for participants which were evicted in the end.
+    static void printRounds(List<Event> events) {
+        Map<Integer, long[]> marks = new TreeMap<>();
+        Map<Integer, Long> lastFinished = new HashMap<>();
+        for (Event event : events) {
+            if (event.kind != Timeline.MARK || event.round == 0) {
+                continue;
+            }
+            if (PARTICIPANT_FINISHED.equals(event.name)) {
+                // Events are sorted by start, so the last mark of the round is the slowest participant
+                lastFinished.put(event.round, event.start);
+                continue;
+            }
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                if (PHASES[phase].equals(event.name)) {
+                    // Last mark wins, e.g. participants reselected after all of them were evicted
+                    marks.computeIfAbsent(event.round, round -> new long[PHASES.length])[phase] = event.start;
+                }
+            }
+        }
+
+        System.out.println("Round breakdown (ms):");
+        System.out.println(String.format("%8s %26s %12s %12s %12s %20s", "round", PHASE_NAMES[0], PHASE_NAMES[1], PHASE_NAMES[2], "total",
+                "longest participant"));
+        for (Map.Entry<Integer, long[]> round : marks.entrySet()) {
+            long[] times = round.getValue();
+            StringBuilder line = new StringBuilder(String.format("%8d", round.getKey()));
+            for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+                boolean known = times[phase] > 0 && times[phase + 1] > 0;
+                line.append(String.format(phase == 0 ? " %26s" : " %12s",
+                        known ? String.format("%.1f", (times[phase + 1] - times[phase]) / 1000.0) : "-"));
+            }
+            boolean complete = times[0] > 0 && times[PHASES.length - 1] > 0;
+            line.append(String.format(" %12s", complete ? String.format("%.1f", (times[PHASES.length - 1] - times[0]) / 1000.0) : "-"));
+            // Updates which arrived before the last training start belong to participants evicted from the round
+            Long finished = lastFinished.get(round.getKey());
+            boolean trained = times[1] > 0 && finished != null && finished >= times[1];
+            line.append(String.format(" %20s", trained ? String.format("%.1f", (finished - times[1]) / 1000.0) : "-"));
+            System.out.println(line);
+        }
+    }
+
+    // Total and maximal time spent handling each message type by each actor
+    static void printHandlers(List<Event> events) {
+        Map<String, long[]> handlers = new HashMap<>();
+        for (Event event : events) {
+            if (event.kind != Timeline.MESSAGE) {
+                continue;
+            }
+            long[] stats = handlers.computeIfAbsent(event.process + " " + event.source + " " + event.name, key -> new long[3]);
+            stats[0]++;
+            stats[1] += event.duration;
+            stats[2] = Math.max(stats[2], event.duration);
+        }
+
+        System.out.println();
+        System.out.println("Message handlers by total time:");
+        System.out.println(String.format("%-70s %10s %12s %12s", "process actor message", "count", "total ms", "max ms"));
+        handlers.entrySet()
+                .stream()
+                .sorted((first, second) -> Long.compare(second.getValue()[1], first.getValue()[1]))
+                .limit(30)
+                .forEach(entry -> System.out.println(String.format("%-70s %10d %12.1f %12.1f",
+                        entry.getKey(), entry.getValue()[0], entry.getValue()[1] / 1000.0, entry.getValue()[2] / 1000.0)));
+    }
+
+    // Chrome trace event format, processes are recordings and threads are actors
+    static void writeChromeTrace(List<Event> events, File file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ArrayNode trace = mapper.createArrayNode();
+        Map<String, Integer> processIds = new HashMap<>();
+        Map<String, Integer> threadIds = new HashMap<>();
+        for (Event event : events) {
+            int pid = processIds.computeIfAbsent(event.process, process -> {
+                int id = processIds.size() + 1;
+                trace.addObject().put("ph", "M").put("name", "process_name").put("pid", id)
+                        .putObject("args").put("name", process);
+                return id;
+            });
+            int tid = threadIds.computeIfAbsent(event.process + "/" + event.source, source -> {
+                int id = threadIds.size() + 1;
+                trace.addObject().put("ph", "M").put("name", "thread_name").put("pid", pid).put("tid", id)
+                        .putObject("args").put("name", event.source);
+                return id;
+            });
+            ObjectNode node = trace.addObject()
+                    .put("name", event.name)
+                    .put("pid", pid)
+                    .put("tid", tid)
+                    .put("ts", event.start);
+            if (event.kind == Timeline.MARK) {
+                node.put("ph", "i").put("s", "p");
+            } else {
+                node.put("ph", "X").put("dur", event.duration);
+            }
+            if (event.round != 0) {
+                node.putObject("args").put("round", event.round);
+            }
+        }
+        mapper.writeValue(file, mapper.createObjectNode().set("traceEvents", trace));
+    }
+}
@@ -0,0 +1,33 @@
+package example.akka.remote.server;
+
+// Rate limiter admitting bursts up to the capacity and refilling tokens at a constant rate
+public class TokenBucket {
+
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private final double tokensPerNano;
+
+    private final int capacity;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    // Takes a token, returns 0 when admitted or number of milliseconds after which a token is available
+    public long tryAcquire() {
+        long now = System.nanoTime();
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+        this.lastRefill = now;
+
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - this.tokens) / this.tokensPerNano / 1_000_000d);
+    }
+}
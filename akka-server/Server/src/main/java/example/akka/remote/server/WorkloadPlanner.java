@@ -0,0 +1,101 @@
+package example.akka.remote.server;
+
+import example.akka.remote.shared.Messages;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Assigns local work to participants of the round, so devices of different speed finish at about the same time.
+// Batch size follows declared capabilities, number of local steps follows measured training speed.
+// Updates of participants which did different number of steps are normalized before aggregation, see normalize.
+public class WorkloadPlanner {
+
+    public WorkloadPlanner(Configuration.ConfigurationDTO configuration) {
+        this.localSteps = configuration.localSteps;
+        this.batchSize = configuration.batchSize;
+        this.targetRoundMillis = configuration.targetRoundSeconds * 1000L;
+        this.minLocalSteps = Math.max(1, configuration.minLocalSteps);
+        this.maxLocalSteps = Math.max(this.minLocalSteps, configuration.maxLocalSteps);
+    }
+
+    private final int localSteps;
+    private final int batchSize;
+    private final long targetRoundMillis;
+    private final int minLocalSteps;
+    private final int maxLocalSteps;
+
+    public static class Workload {
+        public Workload(int localSteps, int batchSize) {
+            this.localSteps = localSteps;
+            this.batchSize = batchSize;
+        }
+        public int localSteps;
+        public int batchSize;
+    }
+
+    // Returns workload of every client
+    public Map<String, Workload> plan(List<String> clientIds, ClientStatistics statistics) {
+        Map<String, Workload> workloads = new HashMap<>();
+        if (clientIds.isEmpty()) {
+            return workloads;
+        }
+
+        // Capability based estimates have no unit, they are scaled by the measured clients of the round
+        double[] measured = clientIds.stream()
+                .filter(statistics::isMeasured)
+                .mapToDouble(statistics::expectedMillisPerSample)
+                .sorted()
+                .toArray();
+        double estimateScale = measured.length > 0 ? measured[measured.length / 2] : 1.0;
+
+        double[] millisPerSample = new double[clientIds.size()];
+        int[] batchSizes = new int[clientIds.size()];
+        for (int i = 0; i < clientIds.size(); i++) {
+            String clientId = clientIds.get(i);
+            millisPerSample[i] = statistics.expectedMillisPerSample(clientId) * (statistics.isMeasured(clientId) ? 1 : estimateScale);
+            batchSizes[i] = this.batchSize(statistics, clientId);
+        }
+
+        // Without configured target the round takes as long as the median client needs for the default workload
+        double target = this.targetRoundMillis;
+        if (target <= 0) {
+            double[] defaultTimes = Arrays.stream(millisPerSample).map(perSample -> perSample * this.localSteps * this.batchSize).sorted().toArray();
+            target = defaultTimes[defaultTimes.length / 2];
+        }
+
+        for (int i = 0; i < clientIds.size(); i++) {
+            long steps = Math.round(target / Math.max(1e-9, millisPerSample[i] * batchSizes[i]));
+            int localSteps = (int) Math.max(this.minLocalSteps, Math.min(this.maxLocalSteps, steps));
+            workloads.put(clientIds.get(i), new Workload(localSteps, batchSizes[i]));
+        }
+        return workloads;
+    }
+
+    // Larger batches keep GPUs busy, phones and devices with little memory get smaller ones
+    private int batchSize(ClientStatistics statistics, String clientId) {
+        int size = this.batchSize;
+        if (statistics.useCuda(clientId)) {
+            size *= 2;
+        }
+        if (statistics.instanceType(clientId) == Messages.InstanceType.Phone) {
+            size /= 2;
+        }
+        int ramInGB = statistics.ramInGB(clientId);
+        if (ramInGB > 0 && ramInGB < 4) {
+            size /= 2;
+        }
+        return Math.max(1, size);
+    }
+
+    // Normalizes update of a participant which did localSteps steps (FedNova, Wang et al.). Model moves from the
+    // global model by its average progress per step times the average number of steps of the round, so clients
+    // doing more steps do not pull the global model towards their local optimum.
+    public static void normalize(float[] globalModel, float[] model, double localSteps, double averageSteps) {
+        float factor = (float) (averageSteps / localSteps);
+        for (int i = 0; i < model.length; i++) {
+            model[i] = globalModel[i] + factor * (model[i] - globalModel[i]);
+        }
+    }
+}
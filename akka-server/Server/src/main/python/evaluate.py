@@ -0,0 +1,102 @@
+import argparse
+import json
+import sys
+from pathlib import Path
+
+import numpy as np
+import torch
+import torch.nn as nn
+import torch.nn.functional as F
+from torchvision import datasets, transforms
+
+
+# Same model as in mnist.py, kept here so the evaluator does not need syft
+class Net(nn.Module):
+    def __init__(self):
+        super(Net, self).__init__()
+        self.conv1 = nn.Conv2d(1, 20, 5, 1)
+        self.conv2 = nn.Conv2d(20, 50, 5, 1)
+        self.fc1 = nn.Linear(4 * 4 * 50, 500)
+        self.fc2 = nn.Linear(500, 10)
+
+    def forward(self, x):
+        x = F.relu(self.conv1(x))
+        x = F.max_pool2d(x, 2, 2)
+        x = F.relu(self.conv2(x))
+        x = F.max_pool2d(x, 2, 2)
+        x = x.view(-1, 4 * 4 * 50)
+        x = F.relu(self.fc1(x))
+        x = self.fc2(x)
+        return F.log_softmax(x, dim=1)
+
+
+def define_and_get_arguments(args=sys.argv[1:]):
+    parser = argparse.ArgumentParser(
+        description="Evaluate models sent by the server on the MNIST test set."
+    )
+    parser.add_argument("--datapath", help="path to data", action="store", default="../data")
+    parser.add_argument("--test_batch_size", type=int, default=1000, help="batch size used for the test data")
+    return parser.parse_args(args=args)
+
+
+# Loads model saved by mnist.py (torch) or by the JVM runtime (version, length and big endian floats)
+def load_model(path, model_format):
+    model = Net()
+    if model_format == "jvm":
+        content = Path(path).read_bytes()
+        weights = np.frombuffer(content, dtype=">f4", offset=8).astype(np.float32)
+        offset = 0
+        with torch.no_grad():
+            for parameter in model.parameters():
+                size = parameter.numel()
+                parameter.copy_(torch.from_numpy(weights[offset:offset + size].copy()).view_as(parameter))
+                offset += size
+    else:
+        model.load_state_dict(torch.load(path))
+    return model
+
+
+def test(model, test_data, test_targets, batch_size):
+    model.eval()
+    test_loss = 0
+    correct = 0
+    with torch.no_grad():
+        for start in range(0, len(test_targets), batch_size):
+            data = test_data[start:start + batch_size]
+            target = test_targets[start:start + batch_size]
+            output = model(data)
+            test_loss += F.nll_loss(output, target, reduction="sum").item()
+            pred = output.argmax(1, keepdim=True)
+            correct += pred.eq(target.view_as(pred)).sum().item()
+    return test_loss / len(test_targets), 100.0 * correct / len(test_targets)
+
+
+def main():
+    args = define_and_get_arguments()
+
+    # Test set is loaded and normalized once, the process stays alive between rounds
+    dataset = datasets.MNIST(args.datapath, train=False, download=True,
+                             transform=transforms.Compose([
+                                 transforms.ToTensor(),
+                                 transforms.Normalize((0.1307,), (0.3081,))
+                             ]))
+    test_data = torch.stack([x for x, _ in dataset])
+    test_targets = dataset.targets
+
+    # Every line on stdin is a request, its result is the line on stdout starting with "@result",
+    # other output is only logged by the server
+    for line in sys.stdin:
+        if not line.strip():
+            continue
+        request = json.loads(line)
+        try:
+            model = load_model(request["path"], request.get("format", "torch"))
+            loss, accuracy = test(model, test_data, test_targets, args.test_batch_size)
+            result = {"version": request["version"], "loss": loss, "accuracy": accuracy}
+        except Exception as e:
+            result = {"version": request["version"], "error": str(e)}
+        print("@result " + json.dumps(result), flush=True)
+
+
+if __name__ == "__main__":
+    main()
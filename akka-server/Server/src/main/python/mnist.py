@@ -81,6 +81,26 @@ def define_and_get_arguments(args=sys.argv[1:]):
     parser.add_argument("--participantsjsonlist", help="show program version", action="store", default="{}")
     parser.add_argument("--epochs", type=int, help="show program version", action="store", default=10)
     parser.add_argument("--modelpath")
+    parser.add_argument(
+        "--no_test",
+        action="store_true",
+        help="if set, model is not tested here, server evaluates it in a separate process",
+    )
+    parser.add_argument(
+        "--server_optimizer",
+        default="none",
+        choices=["none", "momentum", "adam", "yogi"],
+        help="optimizer applying the averaged model to the global model",
+    )
+    parser.add_argument("--server_lr", type=float, default=1.0, help="learning rate of the server optimizer")
+    parser.add_argument("--server_beta1", type=float, default=0.9, help="momentum of the server optimizer")
+    parser.add_argument("--server_beta2", type=float, default=0.99, help="second moment decay of adam and yogi")
+    parser.add_argument("--server_epsilon", type=float, default=1e-3, help="adaptivity degree of adam and yogi")
+    parser.add_argument(
+        "--ipc",
+        action="store_true",
+        help="if set, module stays running and reads rounds with participants from stdin",
+    )
 
     args = parser.parse_args(args=args)
     return args
@@ -144,74 +164,117 @@ def test(model, test_loader):
         )
     )
 
-async def main():
-    args = define_and_get_arguments()
-
-    hook = sy.TorchHook(torch)
-
-    kwargs_websocket = {"hook": hook, "verbose": args.verbose, "host": "localhost"}
+class ServerOptimizer(object):
+    """Applies the averaged model to the global model. Difference between them is the pseudo-gradient of the
+    round, applied with momentum, Adam or Yogi. State is saved next to the model in <modelpath>.optimizer."""
+
+    def __init__(self, name, lr, beta1, beta2, epsilon):
+        self.name = name
+        self.lr = lr
+        self.beta1 = beta1
+        self.beta2 = beta2
+        self.epsilon = epsilon
+        self.first_moment = {}
+        self.second_moment = {}
+
+    def configure(self, request):
+        self.name = request.get("server_optimizer", self.name)
+        self.lr = request.get("server_lr", self.lr)
+        self.beta1 = request.get("server_beta1", self.beta1)
+        self.beta2 = request.get("server_beta2", self.beta2)
+        self.epsilon = request.get("server_epsilon", self.epsilon)
+
+    def step(self, current_model, averaged_model):
+        """Writes new global model into the averaged model and returns it."""
+        if self.name == "none":
+            return averaged_model
+        current = current_model.state_dict()
+        with torch.no_grad():
+            for name, averaged in averaged_model.state_dict().items():
+                if not averaged.is_floating_point():
+                    continue
+                delta = averaged - current[name]
+                m = self.first_moment.get(name, torch.zeros_like(delta))
+                if self.name == "momentum":
+                    m = self.beta1 * m + delta
+                    averaged.copy_(current[name] + self.lr * m)
+                else:
+                    v = self.second_moment.get(name, torch.zeros_like(delta))
+                    m = self.beta1 * m + (1 - self.beta1) * delta
+                    squared = delta * delta
+                    if self.name == "adam":
+                        v = self.beta2 * v + (1 - self.beta2) * squared
+                    else:
+                        v = v - (1 - self.beta2) * squared * torch.sign(v - squared)
+                    self.second_moment[name] = v
+                    averaged.copy_(current[name] + self.lr * m / (torch.sqrt(v) + self.epsilon))
+                self.first_moment[name] = m
+        return averaged_model
+
+    def save(self, modelpath):
+        if modelpath and self.name != "none":
+            torch.save({"name": self.name, "first": self.first_moment, "second": self.second_moment},
+                       modelpath + ".optimizer")
+
+    def load(self, modelpath):
+        state_file = Path(modelpath + ".optimizer") if modelpath else None
+        if state_file is None or not state_file.is_file():
+            return
+        state = torch.load(str(state_file))
+        if state["name"] == self.name:
+            self.first_moment = state["first"]
+            self.second_moment = state["second"]
+
+
+def normalize_models(global_model, models, steps):
+    """Participants with different workloads did different number of local steps. Each model is moved from the
+    global model by its average progress per step times the average number of steps (FedNova)."""
+    if len(set(steps.values())) <= 1:
+        return
+    average_steps = sum(steps.values()) / len(steps)
+    global_state = global_model.state_dict()
+    with torch.no_grad():
+        for worker_id, model in models.items():
+            factor = average_steps / steps[worker_id]
+            for name, value in model.state_dict().items():
+                if value.is_floating_point():
+                    value.copy_(global_state[name] + factor * (value - global_state[name]))
 
-    test_loader = torch.utils.data.DataLoader(datasets.MNIST(args.datapath, train=False, download=True,
-                                                             transform=transforms.Compose([
-                                                                 transforms.ToTensor(),
-                                                                 transforms.Normalize(
-                                                                     (0.1307,), (0.3081,))
-                                                             ])), batch_size=1000, shuffle=True)
-    
-    print(args.participantsjsonlist)
-    participants = args.participantsjsonlist.replace("'","\"")
-    print(participants)
-    participants = json.loads(participants)
-    print(participants)
-
-    #for p in participants:
-       # print(f"id: {p['id']}, port: {p['port']}")
 
+def create_workers(participants, kwargs_websocket):
     worker_instances = []
     for participant in participants:
-        print("----------------------")
-        print(participant['id'])
-        print(participant['port'])
-        print("----------------------")
+        logger.info("Participant %s on port %s", participant['id'], participant['port'])
         worker_instances.append(sy.workers.websocket_client.WebsocketClientWorker(id=participant['id'], port=participant['port'], **kwargs_websocket))
 
     for wcw in worker_instances:
         wcw.clear_objects_remote()
-
-    use_cuda = args.cuda and torch.cuda.is_available()
-
-    torch.manual_seed(args.seed)
-
-    device = torch.device("cuda" if use_cuda else "cpu")
-
-    model_file = Path(args.modelpath)
-    if model_file.is_file():
-        model = Net().to(device)
-        model.load_state_dict(torch.load(args.modelpath))
-
-        test(model, test_loader)
-        traced_model = torch.jit.trace(model, torch.zeros([1, 1, 28, 28], dtype=torch.float).to(device))
-        # traced_model.eval()
-    else:
-        model = Net().to(device)
-        traced_model = torch.jit.trace(model, torch.zeros([1, 1, 28, 28], dtype=torch.float).to(device))
+    return worker_instances
 
 
+# Runs federated training of the round with given participants and returns the new model
+async def run_round(args, traced_model, participants, epochs, kwargs_websocket, test_loader, server_optimizer):
+    worker_instances = create_workers(participants, kwargs_websocket)
+    # Workload assigned by the server to each participant, 0 means the default of the module
+    workloads = {
+        participant['id']: (participant.get('batchSize') or args.batch_size,
+                            participant.get('localSteps') or args.federate_after_n_batches)
+        for participant in participants
+    }
 
     learning_rate = args.lr
 
-
-    for curr_round in range(1, args.epochs + 1):
-        logger.info("Training epoch %s/%s", curr_round, args.epochs)
+    for curr_round in range(1, epochs + 1):
+        logger.info("Training epoch %s/%s", curr_round, epochs)
 
         results = await asyncio.gather(
             *[
                 fit_model_on_worker(
                     worker=worker,
                     traced_model=traced_model,
-                    batch_size=args.batch_size,
+                    batch_size=workloads[worker.id][0],
                     curr_round=curr_round,
-                    max_nr_batches=args.federate_after_n_batches,
+                    max_nr_batches=workloads[worker.id][1],
                     lr=learning_rate,
                 )
                 for worker in worker_instances
@@ -220,7 +283,7 @@ async def main():
         models = {}
         loss_values = {}
 
-        test_models = curr_round % 10 == 1 or curr_round == args.epochs or curr_round == 0
+        test_models = test_loader is not None and (curr_round % 10 == 1 or curr_round == epochs or curr_round == 0)
 
         # Federate models (note that this will also change the model in models[0]
         for worker_id, worker_model, worker_loss in results:
@@ -228,7 +291,8 @@ async def main():
                 models[worker_id] = worker_model
                 loss_values[worker_id] = worker_loss
 
-        traced_model = utils.federated_avg(models)
+        normalize_models(traced_model, models, {worker_id: workloads[worker_id][1] for worker_id in models})
+        traced_model = server_optimizer.step(traced_model, utils.federated_avg(models))
 
         if test_models:
             test(traced_model, test_loader)
@@ -236,8 +300,74 @@ async def main():
         # decay learning rate
         learning_rate = max(0.98 * learning_rate, args.lr * 0.01)
 
-    if args.modelpath:
-        torch.save(traced_model.state_dict(), args.modelpath)
+    for worker in worker_instances:
+        worker.close()
+    return traced_model
+
+
+async def main():
+    args = define_and_get_arguments()
+
+    hook = sy.TorchHook(torch)
+
+    kwargs_websocket = {"hook": hook, "verbose": args.verbose, "host": "localhost"}
+
+    test_loader = None
+    if not args.no_test:
+        test_loader = torch.utils.data.DataLoader(datasets.MNIST(args.datapath, train=False, download=True,
+                                                                 transform=transforms.Compose([
+                                                                     transforms.ToTensor(),
+                                                                     transforms.Normalize(
+                                                                         (0.1307,), (0.3081,))
+                                                                 ])), batch_size=1000, shuffle=True)
+
+    use_cuda = args.cuda and torch.cuda.is_available()
+
+    torch.manual_seed(args.seed)
+
+    device = torch.device("cuda" if use_cuda else "cpu")
+
+    model = Net().to(device)
+    model_file = Path(args.modelpath) if args.modelpath else None
+    if model_file is not None and model_file.is_file():
+        model.load_state_dict(torch.load(args.modelpath))
+
+        if test_loader is not None:
+            test(model, test_loader)
+    traced_model = torch.jit.trace(model, torch.zeros([1, 1, 28, 28], dtype=torch.float).to(device))
+
+    server_optimizer = ServerOptimizer(args.server_optimizer, args.server_lr, args.server_beta1,
+                                       args.server_beta2, args.server_epsilon)
+    server_optimizer.load(args.modelpath)
+
+    if not args.ipc:
+        participants = json.loads(args.participantsjsonlist.replace("'", "\""))
+        traced_model = await run_round(args, traced_model, participants, args.epochs, kwargs_websocket, test_loader,
+                                       server_optimizer)
+        if args.modelpath:
+            torch.save(traced_model.state_dict(), args.modelpath)
+            server_optimizer.save(args.modelpath)
+        return
+
+    # Module stays resident, every line on stdin is a round and the model is kept in memory between rounds
+    for line in sys.stdin:
+        if not line.strip():
+            continue
+        request = json.loads(line)
+        try:
+            server_optimizer.configure(request)
+            traced_model = await run_round(args, traced_model, request["participants"],
+                                           request.get("epochs", args.epochs), kwargs_websocket, test_loader,
+                                           server_optimizer)
+            modelpath = request.get("modelpath", args.modelpath)
+            torch.save(traced_model.state_dict(), modelpath)
+            server_optimizer.save(modelpath)
+            result = {"round": request["round"]}
+        except Exception as e:
+            logger.exception("Round %s failed", request["round"])
+            result = {"round": request["round"], "error": str(e)}
+        # Results are told apart from the rest of the output by the prefix
+        print("@result " + json.dumps(result), flush=True)
 
 
 if __name__ == "__main__":
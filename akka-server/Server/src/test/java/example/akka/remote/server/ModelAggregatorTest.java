@@ -0,0 +1,226 @@
+package example.akka.remote.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+// Aggregators are compared with references which sort every coordinate
+public class ModelAggregatorTest {
+
+    // Crosses the boundary of coordinate blocks
+    private static final int LENGTH = ModelAggregator.BLOCK_SIZE * 2 + 37;
+
+    @Test
+    public void selectionPlacesValueAtItsSortedPosition() {
+        Random random = new Random(1);
+        for (int attempt = 0; attempt < 200; attempt++) {
+            int count = 1 + random.nextInt(40);
+            int from = random.nextInt(5);
+            float[] values = new float[from + count + random.nextInt(5)];
+            for (int i = 0; i < values.length; i++) {
+                // Few distinct values, so the ranges have duplicates
+                values[i] = attempt % 2 == 0 ? random.nextInt(5) : (float) random.nextGaussian();
+            }
+            float[] sorted = Arrays.copyOfRange(values, from, from + count);
+            Arrays.sort(sorted);
+
+            for (int k = from; k < from + count; k++) {
+                float[] selected = values.clone();
+                float value = ModelAggregator.Selection.select(selected, from, from + count, k);
+
+                assertEquals(sorted[k - from], value, 0f);
+                assertEquals(value, selected[k], 0f);
+                for (int i = from; i < k; i++) {
+                    assertTrue(selected[i] <= value);
+                }
+                for (int i = k + 1; i < from + count; i++) {
+                    assertTrue(selected[i] >= value);
+                }
+                // Values outside of the range are not touched
+                for (int i = 0; i < from; i++) {
+                    assertEquals(values[i], selected[i], 0f);
+                }
+                for (int i = from + count; i < values.length; i++) {
+                    assertEquals(values[i], selected[i], 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void medianOfEvenCountAveragesMiddleValues() {
+        for (int count : new int[] { 2, 4, 6, 10 }) {
+            List<float[]> models = randomModels(count, count);
+            float[] median = new ModelAggregator.MedianAggregator().aggregate(copy(models), weights(count));
+            for (int i = 0; i < LENGTH; i++) {
+                float[] column = sortedColumn(models, i);
+                assertEquals((column[count / 2 - 1] + column[count / 2]) / 2, median[i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void medianOfOddCountIsMiddleValue() {
+        for (int count : new int[] { 1, 3, 7 }) {
+            List<float[]> models = randomModels(count, count);
+            float[] median = new ModelAggregator.MedianAggregator().aggregate(copy(models), weights(count));
+            for (int i = 0; i < LENGTH; i++) {
+                assertEquals(sortedColumn(models, i)[count / 2], median[i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void trimmedMeanDropsSmallestAndLargestValues() {
+        for (int count : new int[] { 1, 2, 3, 5, 10 }) {
+            // Trimming half or more would leave no values, at least one is kept
+            for (double fraction : new double[] { 0, 0.1, 0.2, 0.3, 0.5, 0.9 }) {
+                List<float[]> models = randomModels(count, 31 * count);
+                float[] mean = new ModelAggregator.TrimmedMeanAggregator(fraction).aggregate(copy(models), weights(count));
+                int trimmed = Math.min((int) (count * fraction), (count - 1) / 2);
+                for (int i = 0; i < LENGTH; i++) {
+                    float[] column = sortedColumn(models, i);
+                    double sum = 0;
+                    for (int j = trimmed; j < count - trimmed; j++) {
+                        sum += column[j];
+                    }
+                    assertEquals("count " + count + ", fraction " + fraction,
+                            sum / (count - 2 * trimmed), mean[i], 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void trimmedMeanIgnoresOutliers() {
+        List<float[]> models = randomModels(10, 5);
+        models.get(3)[7] = 1e30f;
+        models.get(8)[7] = -1e30f;
+        float[] mean = new ModelAggregator.TrimmedMeanAggregator(0.1).aggregate(models, weights(10));
+        assertTrue(Math.abs(mean[7]) < 10);
+    }
+
+    @Test
+    public void distancesMatchPairwiseSums() {
+        List<float[]> models = randomModels(5, 9);
+        double[][] distances = ModelAggregator.KrumAggregator.distances(models);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                double sum = 0;
+                for (int k = 0; k < LENGTH; k++) {
+                    double difference = models.get(i)[k] - models.get(j)[k];
+                    sum += difference * difference;
+                }
+                assertEquals(sum, distances[i][j], 1e-9 * Math.max(1, sum));
+            }
+        }
+    }
+
+    @Test
+    public void krumSelectsModelsWithLowestScores() {
+        Random random = new Random(3);
+        for (int count = 3; count <= 12; count++) {
+            for (int byzantine = 0; byzantine < count; byzantine++) {
+                for (int selectedCount : new int[] { 1, 2, count }) {
+                    double[][] distances = randomDistances(count, random);
+                    int[] selected = new ModelAggregator.KrumAggregator(byzantine, selectedCount).select(distances);
+                    assertArrayEquals(referenceKrum(distances, byzantine, selectedCount), selected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void krumSkipsDistantModel() {
+        List<float[]> models = randomModels(6, 11);
+        float[] attacker = models.get(2);
+        for (int i = 0; i < attacker.length; i++) {
+            attacker[i] += 100;
+        }
+        int[] selected = new ModelAggregator.KrumAggregator(1, 4).select(ModelAggregator.KrumAggregator.distances(models));
+        assertEquals(4, selected.length);
+        for (int index : selected) {
+            assertNotEquals(2, index);
+        }
+    }
+
+    // Score of a model is the sum of its count - f - 2 smallest distances to the other models
+    private static int[] referenceKrum(double[][] distances, int byzantine, int selectedCount) {
+        int count = distances.length;
+        int neighbours = Math.max(1, count - byzantine - 2);
+        double[] scores = new double[count];
+        for (int i = 0; i < count; i++) {
+            List<Double> others = new ArrayList<>();
+            for (int j = 0; j < count; j++) {
+                if (j != i) {
+                    others.add(distances[i][j]);
+                }
+            }
+            others.sort(Comparator.naturalOrder());
+            for (int k = 0; k < neighbours; k++) {
+                scores[i] += others.get(k);
+            }
+        }
+        return IntStream.range(0, count).boxed()
+                .sorted(Comparator.comparingDouble(i -> scores[i]))
+                .limit(Math.min(selectedCount, count))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    // Symmetric matrix with distinct distances, so scores do not tie
+    private static double[][] randomDistances(int count, Random random) {
+        double[][] distances = new double[count][count];
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                distances[i][j] = random.nextDouble() * 100;
+                distances[j][i] = distances[i][j];
+            }
+        }
+        return distances;
+    }
+
+    private static float[] sortedColumn(List<float[]> models, int coordinate) {
+        float[] column = new float[models.size()];
+        for (int m = 0; m < models.size(); m++) {
+            column[m] = models.get(m)[coordinate];
+        }
+        Arrays.sort(column);
+        return column;
+    }
+
+    private static List<float[]> randomModels(int count, long seed) {
+        Random random = new Random(seed);
+        List<float[]> models = new ArrayList<>();
+        for (int m = 0; m < count; m++) {
+            float[] model = new float[LENGTH];
+            for (int i = 0; i < LENGTH; i++) {
+                // Some coordinates have equal values in several models
+                model[i] = i % 5 == 0 ? random.nextInt(3) : (float) random.nextGaussian();
+            }
+            models.add(model);
+        }
+        return models;
+    }
+
+    private static List<float[]> copy(List<float[]> models) {
+        List<float[]> copies = new ArrayList<>();
+        for (float[] model : models) {
+            copies.add(model.clone());
+        }
+        return copies;
+    }
+
+    private static double[] weights(int count) {
+        double[] weights = new double[count];
+        Arrays.fill(weights, 1);
+        return weights;
+    }
+}
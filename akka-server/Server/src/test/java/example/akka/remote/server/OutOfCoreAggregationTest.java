@@ -0,0 +1,112 @@
+package example.akka.remote.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Out-of-core aggregation reads the updates block by block, results are compared with aggregators and optimizers
+// getting whole models on the heap
+public class OutOfCoreAggregationTest {
+
+    // Last block is shorter than the others
+    private static final int LENGTH = ModelAggregator.BLOCK_SIZE * 3 + 37;
+
+    // Budget smaller than one block, so every block has the minimal length
+    private static final long MEMORY_BUDGET = 1;
+
+    private static final int COUNT = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void budgetSplitsModelIntoSeveralBlocks() {
+        OutOfCoreAggregation aggregation = new OutOfCoreAggregation(new ModelAggregator.FederatedAveragingAggregator(), MEMORY_BUDGET);
+        assertEquals(ModelAggregator.BLOCK_SIZE, aggregation.blockLength(COUNT, LENGTH));
+    }
+
+    @Test
+    public void federatedAveragingMatchesHeap() throws Exception {
+        this.assertSameAsHeap(new ModelAggregator.FederatedAveragingAggregator(), 1);
+    }
+
+    @Test
+    public void medianMatchesHeap() throws Exception {
+        this.assertSameAsHeap(new ModelAggregator.MedianAggregator(), 2);
+    }
+
+    @Test
+    public void trimmedMeanMatchesHeap() throws Exception {
+        this.assertSameAsHeap(new ModelAggregator.TrimmedMeanAggregator(0.2), 3);
+    }
+
+    @Test
+    public void krumMatchesHeap() throws Exception {
+        // Distances summed over the blocks choose the same models as distances of whole models
+        this.assertSameAsHeap(new ModelAggregator.KrumAggregator(2, 1), 4);
+        this.assertSameAsHeap(new ModelAggregator.KrumAggregator(2, 3), 5);
+    }
+
+    @Test
+    public void optimizerStepMatchesHeap() throws Exception {
+        Random random = new Random(6);
+        float[] current = randomWeights(random, 0);
+        float[] aggregated = randomWeights(random, 0);
+        float[] expected = adam().step(current, aggregated.clone());
+
+        OutOfCoreAggregation aggregation = new OutOfCoreAggregation(new ModelAggregator.FederatedAveragingAggregator(), MEMORY_BUDGET);
+        OutOfCoreAggregation.Segment segment = OutOfCoreAggregation.spill(this.folder.getRoot(), "aggregated", aggregated);
+        aggregation.step(adam(), FloatBuffer.wrap(current), segment);
+
+        assertArrayEquals(expected, read(segment), 0f);
+    }
+
+    private void assertSameAsHeap(ModelAggregator aggregator, long seed) throws Exception {
+        Random random = new Random(seed);
+        List<float[]> models = new ArrayList<>();
+        double[] weights = new double[COUNT];
+        for (int m = 0; m < COUNT; m++) {
+            // Last two models are outliers, so Krum has something to reject
+            models.add(randomWeights(random, m >= COUNT - 2 ? 50 : 0));
+            weights[m] = 1 + random.nextInt(100);
+        }
+        List<OutOfCoreAggregation.Segment> segments = new ArrayList<>();
+        for (int m = 0; m < COUNT; m++) {
+            segments.add(OutOfCoreAggregation.spill(this.folder.getRoot(), seed + "-" + m, models.get(m)));
+        }
+        // Coordinate-wise aggregators reorder values of their input
+        List<float[]> copies = new ArrayList<>();
+        models.forEach(model -> copies.add(model.clone()));
+        float[] expected = aggregator.aggregate(copies, weights);
+
+        OutOfCoreAggregation.Segment result = OutOfCoreAggregation.allocate(this.folder.getRoot(), seed + "-result", LENGTH);
+        new OutOfCoreAggregation(aggregator, MEMORY_BUDGET).aggregate(segments, weights, result);
+
+        assertArrayEquals(expected, read(result), 1e-6f);
+    }
+
+    private static float[] read(OutOfCoreAggregation.Segment segment) {
+        float[] weights = new float[segment.length()];
+        segment.read(0, weights);
+        return weights;
+    }
+
+    private static ServerOptimizer adam() {
+        return new ServerOptimizer.AdamOptimizer(0.1, 0.9, 0.99, 1e-3);
+    }
+
+    private static float[] randomWeights(Random random, float shift) {
+        float[] weights = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            weights[i] = (float) random.nextGaussian() + shift;
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,106 @@
+package example.akka.remote.server;
+
+import akka.actor.ActorSystem;
+import example.akka.remote.shared.EventLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RoundJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ActorSystem system;
+    private EventLog events;
+    private String path;
+
+    @Before
+    public void setUp() {
+        this.system = ActorSystem.create("RoundJournalTest");
+        this.events = EventLog.get(this.system);
+        this.path = new File(this.folder.getRoot(), "journal.log").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        this.system.terminate();
+    }
+
+    @Test
+    public void replaysEventsWrittenAfterTheSnapshot() {
+        RoundJournal journal = new RoundJournal(this.path, 3, this.events);
+        journal.roundStarted(1);
+        journal.participantJoined(1, "a", 8001, "akka.tcp://a");
+        // Third event takes the snapshot
+        journal.participantJoined(1, "b", 8002, "akka.tcp://b");
+        journal.participantCompleted(1, "a");
+        journal.participantEvicted(1, "b");
+
+        RoundJournal.RoundState state = new RoundJournal(this.path, 3, this.events).getState();
+        assertEquals(1, state.currentRound);
+        assertTrue(state.roundActive);
+        assertEquals(1, state.participants.size());
+        assertTrue(state.participants.get("a").completed);
+        assertEquals(8001, state.participants.get("a").port);
+        assertEquals(journal.getState().lastSequence, state.lastSequence);
+    }
+
+    @Test
+    public void skipsEventsAlreadyInTheSnapshot() throws Exception {
+        RoundJournal journal = new RoundJournal(this.path, 100, this.events);
+        journal.roundStarted(1);
+        journal.participantJoined(1, "a", 8001, "akka.tcp://a");
+        List<String> beforeSnapshot = Files.readAllLines(new File(this.path).toPath(), StandardCharsets.UTF_8);
+        journal.modelAggregated(1, 1, "hash-1");
+
+        // Crash after the snapshot was written but before the journal was truncated
+        Files.write(new File(this.path).toPath(), beforeSnapshot, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        RoundJournal.RoundState state = new RoundJournal(this.path, 100, this.events).getState();
+        assertEquals(1, state.currentRound);
+        assertFalse(state.roundActive);
+        assertEquals(1, state.modelVersion);
+        assertEquals("hash-1", state.modelHash);
+    }
+
+    @Test
+    public void continuesSequenceAfterRecovery() {
+        RoundJournal journal = new RoundJournal(this.path, 2, this.events);
+        journal.roundStarted(1);
+        journal.modelAggregated(1, 1, "hash-1");
+        journal.roundStarted(2);
+
+        RoundJournal recovered = new RoundJournal(this.path, 2, this.events);
+        recovered.participantJoined(2, "a", 8001, "akka.tcp://a");
+
+        RoundJournal.RoundState state = new RoundJournal(this.path, 2, this.events).getState();
+        assertEquals(2, state.currentRound);
+        assertTrue(state.roundActive);
+        assertTrue(state.participants.containsKey("a"));
+        assertEquals("hash-1", state.modelHash);
+    }
+
+    @Test
+    public void ignoresPartiallyWrittenLastEvent() throws Exception {
+        RoundJournal journal = new RoundJournal(this.path, 100, this.events);
+        journal.roundStarted(1);
+        journal.participantJoined(1, "a", 8001, "akka.tcp://a");
+        Files.write(new File(this.path).toPath(), "{\"sequence\":3,\"type\":\"Partic".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        RoundJournal.RoundState state = new RoundJournal(this.path, 100, this.events).getState();
+        assertEquals(1, state.participants.size());
+        assertFalse(state.participants.get("a").completed);
+    }
+}
@@ -0,0 +1,102 @@
+package example.akka.remote.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ServerOptimizerTest {
+
+    private static final int LENGTH = 10_000;
+    private static final int BLOCK = 3_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mappedMomentsGiveSameStepsAsHeap() throws Exception {
+        String path = new File(this.folder.getRoot(), "model").getPath();
+        ServerOptimizer.StatefulOptimizer heap = adam();
+        ServerOptimizer.StatefulOptimizer mapped = adam();
+        mapped.mapMoments(path);
+
+        Random random = new Random(1);
+        float[] current = randomWeights(random);
+        for (int round = 0; round < 3; round++) {
+            float[] aggregated = randomWeights(random);
+            float[] expected = heap.step(current, aggregated.clone());
+            float[] actual = stepInBlocks(mapped, current, aggregated.clone());
+            assertArrayEquals(expected, actual, 0f);
+            current = expected;
+        }
+        assertNull(mapped.firstMoment);
+    }
+
+    @Test
+    public void mappedStateIsSavedAndLoadedWithoutTheHeap() throws Exception {
+        String path = new File(this.folder.getRoot(), "model").getPath();
+        ServerOptimizer.StatefulOptimizer heap = adam();
+        ServerOptimizer.StatefulOptimizer mapped = adam();
+        mapped.mapMoments(path);
+        Random random = new Random(2);
+        float[] current = randomWeights(random);
+        float[] aggregated = randomWeights(random);
+        float[] base = heap.step(current, aggregated.clone());
+        stepInBlocks(mapped, current, aggregated.clone());
+        mapped.save(path, 5);
+
+        // Saved state has the same layout in both modes
+        ServerOptimizer.StatefulOptimizer loadedHeap = adam();
+        loadedHeap.load(path, 5);
+        assertArrayEquals(heap.firstMoment, loadedHeap.firstMoment, 0f);
+        assertArrayEquals(heap.secondMoment, loadedHeap.secondMoment, 0f);
+
+        ServerOptimizer.StatefulOptimizer loadedMapped = adam();
+        loadedMapped.mapMoments(path);
+        loadedMapped.load(path, 5);
+        assertNull(loadedMapped.firstMoment);
+        float[] next = randomWeights(random);
+        assertArrayEquals(heap.step(base, next.clone()), stepInBlocks(loadedMapped, base, next.clone()), 0f);
+    }
+
+    @Test
+    public void stateOfOtherVersionIsIgnored() throws Exception {
+        String path = new File(this.folder.getRoot(), "model").getPath();
+        ServerOptimizer.StatefulOptimizer mapped = adam();
+        mapped.mapMoments(path);
+        Random random = new Random(3);
+        stepInBlocks(mapped, randomWeights(random), randomWeights(random));
+        mapped.save(path, 5);
+
+        ServerOptimizer.StatefulOptimizer loaded = adam();
+        loaded.load(path, 6);
+        assertNull(loaded.firstMoment);
+    }
+
+    private static float[] stepInBlocks(ServerOptimizer optimizer, float[] current, float[] aggregated) throws Exception {
+        for (int start = 0; start < LENGTH; start += BLOCK) {
+            int end = Math.min(LENGTH, start + BLOCK);
+            float[] block = Arrays.copyOfRange(aggregated, start, end);
+            optimizer.step(Arrays.copyOfRange(current, start, end), block, start, LENGTH);
+            System.arraycopy(block, 0, aggregated, start, block.length);
+        }
+        return aggregated;
+    }
+
+    private static ServerOptimizer.StatefulOptimizer adam() {
+        return new ServerOptimizer.AdamOptimizer(0.1, 0.9, 0.99, 1e-3);
+    }
+
+    private static float[] randomWeights(Random random) {
+        float[] weights = new float[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            weights[i] = (float) random.nextGaussian();
+        }
+        return weights;
+    }
+}
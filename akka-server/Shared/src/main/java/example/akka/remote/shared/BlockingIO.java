@@ -0,0 +1,82 @@
+package example.akka.remote.shared;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.dispatch.ExecutionContexts;
+import akka.dispatch.Futures;
+import akka.pattern.Patterns;
+import scala.concurrent.ExecutionContext;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs blocking work (disk access, waiting for child processes) outside of the dispatchers running actors,
+// so a slow disk or a hung process does not take threads of unrelated actors. Result of the work is sent
+// as a message, failure is sent as akka.actor.Status.Failure. Work runs on virtual threads when the JDK has
+// them, otherwise on blocking-io-dispatcher configured in reference.conf.
+public class BlockingIO implements Extension {
+
+    public static final Id ID = new Id();
+
+    public static BlockingIO get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    private BlockingIO(ActorSystem system) {
+        ExecutorService virtualThreads = system.settings().config().getBoolean("blocking-io.use-virtual-threads")
+                ? createVirtualThreadExecutor()
+                : null;
+        if (virtualThreads != null) {
+            system.registerOnTermination(virtualThreads::shutdown);
+            this.executionContext = ExecutionContexts.fromExecutorService(virtualThreads);
+        } else {
+            this.executionContext = system.dispatchers().lookup("blocking-io-dispatcher");
+        }
+        system.log().info("Blocking I/O runs on " + (virtualThreads != null ? "virtual threads" : "blocking-io-dispatcher"));
+    }
+
+    private final ExecutionContext executionContext;
+
+    // Runs the task and sends its result to the recipient, the task must return a message
+    public <T> void pipe(Callable<T> task, ActorRef recipient, ActorRef sender) {
+        Patterns.pipe(Futures.future(task, this.executionContext), this.executionContext)
+                .to(recipient, sender);
+    }
+
+    // Runs the task and sends its result back to the actor
+    public <T> void pipeToSelf(Callable<T> task, ActorRef self) {
+        this.pipe(task, self, self);
+    }
+
+    // Runs blocking work which does not produce a result, e.g. writing to a pipe. Work lasting as long as
+    // a process, like reading its output, needs its own thread, the dispatcher has a fixed number of them
+    public void execute(Runnable task) {
+        this.executionContext.execute(task);
+    }
+
+    // Virtual threads are available since JDK 21, the project is compiled for older JDKs
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static class Id extends AbstractExtensionId<BlockingIO> implements ExtensionIdProvider {
+        @Override
+        public BlockingIO createExtension(ExtendedActorSystem system) {
+            return new BlockingIO(system);
+        }
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+    }
+}
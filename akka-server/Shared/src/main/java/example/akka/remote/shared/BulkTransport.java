@@ -0,0 +1,72 @@
+package example.akka.remote.shared;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorContext;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.actor.Props;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+// Second actor system carrying model weights and module files on its own TCP connections. With the netty.tcp
+// transport all messages between two actor systems share one connection, so a JoinRoundRequest or a heartbeat
+// waits behind a multi-MB transfer, see RemotingBenchmark. Messages sent to references returned by route()
+// leave from the bulk system, actors created by actorOf() receive messages on its port.
+// Messages sent on the bulk connection and on the main one are not ordered with each other.
+public class BulkTransport implements Extension {
+
+    public static final Id ID = new Id();
+
+    public static BulkTransport get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    private BulkTransport(ActorSystem system) {
+        Config config = system.settings().config();
+        if (!config.getBoolean("bulk-transport.enabled")) {
+            this.bulk = null;
+            return;
+        }
+        // Same settings as the main system, only the port differs
+        int port = config.getInt("bulk-transport.port");
+        this.bulk = (ExtendedActorSystem) ActorSystem.create(system.name() + "Bulk",
+                ConfigFactory.parseString("akka.remote.netty.tcp.port = " + port + "\nakka.remote.netty.tcp.bind-port = \"\"")
+                        .withFallback(config));
+        system.registerOnTermination(this.bulk::terminate);
+        system.log().info("Bulk transport listens on " + this.bulk.provider().getDefaultAddress());
+    }
+
+    private final ExtendedActorSystem bulk;
+
+    public boolean isEnabled() {
+        return this.bulk != null;
+    }
+
+    // Creates actor receiving bulk messages, without the bulk transport it is a child of the context
+    public ActorRef actorOf(ActorContext context, Props props, String name) {
+        return this.bulk != null ? this.bulk.actorOf(props, name) : context.actorOf(props, name);
+    }
+
+    // Reference to the remote actor whose messages travel on the bulk connection
+    public ActorRef route(ActorRef target) {
+        if (this.bulk == null || !target.path().address().hasGlobalScope()) {
+            return target;
+        }
+        return this.bulk.provider().resolveActorRef(target.path().toSerializationFormat());
+    }
+
+    public static class Id extends AbstractExtensionId<BulkTransport> implements ExtensionIdProvider {
+        @Override
+        public BulkTransport createExtension(ExtendedActorSystem system) {
+            return new BulkTransport(system);
+        }
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+    }
+}
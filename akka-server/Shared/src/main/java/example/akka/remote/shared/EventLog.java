@@ -0,0 +1,353 @@
+package example.akka.remote.shared;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.typesafe.config.Config;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Structured log of actors. Events carry the round, task and client as fields instead of being concatenated into
+// a message, e.g. events.info("Aggregator", "participant-joined").round(3).client("alice").with("port", 8777).log().
+// Actors only put events into a bounded queue, a background thread renders them and writes them in batches, so
+// neither string building nor console I/O happens on actor threads. When the queue is full events are dropped.
+// Handled messages are logged with message(), which samples frequent types, see event-log in reference.conf.
+public class EventLog implements Extension {
+
+    public static final Id ID = new Id();
+
+    public static EventLog get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    public enum Level { DEBUG, INFO, WARNING, ERROR }
+
+    private EventLog(ActorSystem system) {
+        Config config = system.settings().config().getConfig("event-log");
+        this.level = Level.valueOf(config.getString("level").toUpperCase());
+        this.json = "json".equals(config.getString("format"));
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, config.getInt("buffer-size")));
+        this.defaultSampleRate = Math.max(1, config.getInt("message-sample-rate"));
+        Config rates = config.getConfig("message-sample-rates");
+        for (String type : rates.root().keySet()) {
+            this.sampleRates.put(type, Math.max(1, rates.getInt(type)));
+        }
+
+        String path = config.getString("path");
+        OutputStream output;
+        try {
+            output = path.isEmpty() ? System.out : new FileOutputStream(path, true);
+        } catch (IOException e) {
+            system.log().error(e, "Event log could not be opened, writing to standard output");
+            output = System.out;
+        }
+        this.start(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16),
+                config.getDuration("flush-interval", TimeUnit.MILLISECONDS), system);
+    }
+
+    private final Level level;
+    private final boolean json;
+    private final ArrayBlockingQueue<Event> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Every n-th handled message of a type is logged, types are simple class names
+    private final int defaultSampleRate;
+    private final Map<String, Integer> sampleRates = new HashMap<>();
+    private final ConcurrentHashMap<Class<?>, Sampler> samplers = new ConcurrentHashMap<>();
+
+    private volatile boolean running = true;
+
+    // Does nothing, returned for levels which are not logged so callers do not need to check the level
+    private static final Event DISABLED = new Event(null, null, null, null);
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    public Event debug(String source, String name) {
+        return this.event(Level.DEBUG, source, name);
+    }
+
+    public Event info(String source, String name) {
+        return this.event(Level.INFO, source, name);
+    }
+
+    public Event warning(String source, String name) {
+        return this.event(Level.WARNING, source, name);
+    }
+
+    public Event error(String source, String name, Throwable cause) {
+        return this.event(Level.ERROR, source, name).with("error", cause);
+    }
+
+    private Event event(Level level, String source, String name) {
+        return this.isEnabled(level) ? new Event(this, level, source, name) : DISABLED;
+    }
+
+    // Logs message handled by the actor, only every n-th message of its type is logged
+    public void message(String source, Object message, ActorRef sender, int round) {
+        if (!this.isEnabled(Level.INFO)) {
+            return;
+        }
+        Sampler sampler = this.samplers.get(message.getClass());
+        if (sampler == null) {
+            sampler = this.samplers.computeIfAbsent(message.getClass(),
+                    type -> new Sampler(this.sampleRates.getOrDefault(type.getSimpleName(), this.defaultSampleRate)));
+        }
+        if (!sampler.sample()) {
+            return;
+        }
+        Event event = new Event(this, Level.INFO, source, "message").round(round).with("type", message.getClass().getSimpleName());
+        if (sender != null && sender != ActorRef.noSender()) {
+            event.with("sender", sender.path());
+        }
+        if (sampler.rate > 1) {
+            event.with("sampled", sampler.rate);
+        }
+        event.log();
+    }
+
+    private static class Sampler {
+        Sampler(int rate) {
+            this.rate = rate;
+        }
+
+        final int rate;
+        private final AtomicLong count = new AtomicLong();
+
+        boolean sample() {
+            return this.rate == 1 || this.count.getAndIncrement() % this.rate == 0;
+        }
+    }
+
+    // Event with its fields. Values are rendered by the writer thread, so they must not change after log()
+    public static class Event {
+        private Event(EventLog log, Level level, String source, String name) {
+            this.log = log;
+            this.level = level;
+            this.source = source;
+            this.name = name;
+            this.time = log == null ? 0 : System.currentTimeMillis();
+        }
+
+        private final EventLog log;
+        private final Level level;
+        private final String source;
+        private final String name;
+        private final long time;
+        private List<Object> fields;
+
+        public Event round(int round) {
+            return round > 0 ? this.with("round", round) : this;
+        }
+
+        public Event task(String taskId) {
+            return this.with("task", taskId);
+        }
+
+        public Event client(String clientId) {
+            return this.with("client", clientId);
+        }
+
+        public Event with(String key, Object value) {
+            if (this.log == null || value == null) {
+                return this;
+            }
+            if (this.fields == null) {
+                this.fields = new ArrayList<>(8);
+            }
+            this.fields.add(key);
+            this.fields.add(value);
+            return this;
+        }
+
+        public void log() {
+            if (this.log != null) {
+                this.log.offer(this);
+            }
+        }
+    }
+
+    private void offer(Event event) {
+        if (!this.queue.offer(event)) {
+            this.dropped.incrementAndGet();
+        }
+    }
+
+    private void start(Writer output, long flushIntervalMillis, ActorSystem system) {
+        Thread writer = new Thread(() -> {
+            List<Event> batch = new ArrayList<>();
+            StringBuilder text = new StringBuilder(1 << 12);
+            boolean last = false;
+            while (!last) {
+                last = !this.running;
+                try {
+                    Event first = last ? this.queue.poll() : this.queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        this.queue.drainTo(batch);
+                    }
+                } catch (InterruptedException e) {
+                    // Termination, remaining events are written below
+                    this.running = false;
+                }
+                long dropped = this.dropped.getAndSet(0);
+                if (dropped > 0) {
+                    batch.add(new Event(this, Level.WARNING, "EventLog", "events-dropped").with("count", dropped));
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                for (Event event : batch) {
+                    this.render(event, text);
+                }
+                try {
+                    output.append(text);
+                    output.flush();
+                } catch (IOException e) {
+                    system.log().error(e, "Event log could not be written");
+                }
+                batch.clear();
+                text.setLength(0);
+            }
+        }, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        system.registerOnTermination(() -> {
+            this.running = false;
+            writer.interrupt();
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void render(Event event, StringBuilder text) {
+        String time = Instant.ofEpochMilli(event.time).toString();
+        Object error = null;
+        if (this.json) {
+            text.append("{\"time\":\"").append(time).append("\",\"level\":\"").append(event.level)
+                    .append("\",\"source\":");
+            appendJson(text, event.source);
+            text.append(",\"event\":");
+            appendJson(text, event.name);
+        } else {
+            text.append(time).append(' ').append(event.level).append(' ').append(event.source).append(' ').append(event.name);
+        }
+        if (event.fields != null) {
+            for (int i = 0; i < event.fields.size(); i += 2) {
+                Object value = event.fields.get(i + 1);
+                if (value instanceof Throwable) {
+                    error = value;
+                    value = value.toString();
+                }
+                if (this.json) {
+                    text.append(",\"").append(event.fields.get(i)).append("\":");
+                    if (value instanceof Number || value instanceof Boolean) {
+                        text.append(value);
+                    } else {
+                        appendJson(text, String.valueOf(value));
+                    }
+                } else {
+                    text.append(' ').append(event.fields.get(i)).append('=');
+                    appendText(text, String.valueOf(value));
+                }
+            }
+        }
+        if (this.json) {
+            if (error != null) {
+                text.append(",\"stack\":");
+                appendJson(text, stackTrace((Throwable) error));
+            }
+            text.append('}');
+        } else if (error != null) {
+            text.append(System.lineSeparator()).append(stackTrace((Throwable) error).trim());
+        }
+        text.append(System.lineSeparator());
+    }
+
+    private static String stackTrace(Throwable error) {
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        return trace.toString();
+    }
+
+    // Values with spaces, quotes or equal signs are quoted, so key=value pairs can be split again
+    private static void appendText(StringBuilder text, String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ' ' || c == '"' || c == '=' || c < 0x20;
+        }
+        if (!quote) {
+            text.append(value);
+            return;
+        }
+        appendJson(text, value);
+    }
+
+    private static void appendJson(StringBuilder text, String value) {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    text.append("\\\"");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        text.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        text.append(c);
+                    }
+            }
+        }
+        text.append('"');
+    }
+
+    public static class Id extends AbstractExtensionId<EventLog> implements ExtensionIdProvider {
+        @Override
+        public EventLog createExtension(ExtendedActorSystem system) {
+            return new EventLog(system);
+        }
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+    }
+}
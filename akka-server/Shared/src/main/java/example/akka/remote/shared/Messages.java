@@ -21,23 +21,65 @@ public class Messages {
         public String taskId;
         public String clientId;
         public int port;
+        public DeviceCapabilities capabilities;
+        // Global model the device has cached, 0 and null when it has none
+        public int cachedModelVersion;
+        public String cachedModelHash;
 
-        public JoinRoundRequest(LocalDateTime availabilityEndAt, String taskId, String clientId, int port) {
+        public JoinRoundRequest(LocalDateTime availabilityEndAt, String taskId, String clientId, int port, DeviceCapabilities capabilities,
+                                int cachedModelVersion, String cachedModelHash) {
             this.availabilityEndAt = availabilityEndAt;
             this.taskId = taskId;
             this.clientId = clientId;
             this.port = port;
+            this.capabilities = capabilities;
+            this.cachedModelVersion = cachedModelVersion;
+            this.cachedModelHash = cachedModelHash;
         }
     }
 
     public static class JoinRoundResponse implements Serializable {
         public boolean isLearningAvailable;
         public ActorRef aggregator;
+        // Current global model, device with the same cached model will not receive it again
+        public int modelVersion;
+        public String modelHash;
 
         public JoinRoundResponse(boolean isLearningAvailable, ActorRef aggregator) {
             this.isLearningAvailable = isLearningAvailable;
             this.aggregator = aggregator;
         }
+
+        // Set when server samples a cohort of registered devices, tells device when to try to join again
+        public SamplingHint sampling;
+
+        public JoinRoundResponse(boolean isLearningAvailable, ActorRef aggregator, int modelVersion, String modelHash) {
+            this.isLearningAvailable = isLearningAvailable;
+            this.aggregator = aggregator;
+            this.modelVersion = modelVersion;
+            this.modelHash = modelHash;
+        }
+
+        public JoinRoundResponse(boolean isLearningAvailable, ActorRef aggregator, int modelVersion, String modelHash, SamplingHint sampling) {
+            this(isLearningAvailable, aggregator, modelVersion, modelHash);
+            this.sampling = sampling;
+        }
+    }
+
+    // Device joins a later round only with the sampling probability, so join requests of the whole fleet
+    // do not reach the server every round
+    public static class SamplingHint implements Serializable {
+        public int roundNumber;
+        public long nextRoundInMillis;
+        public long roundDurationMillis;
+        public double samplingProbability;
+
+        public SamplingHint(int roundNumber, long nextRoundInMillis, long roundDurationMillis, double samplingProbability) {
+            this.roundNumber = roundNumber;
+            this.nextRoundInMillis = nextRoundInMillis;
+            this.roundDurationMillis = roundDurationMillis;
+            this.samplingProbability = samplingProbability;
+        }
     }
 
     public static class Sum implements Serializable {
@@ -74,30 +116,242 @@ public class Messages {
         public ActorRef deviceReference;
         public int port;
         public String clientId;
-        public InformAggregatorAboutNewParticipant(ActorRef deviceReference, String clientId, int port) {
+        public DeviceCapabilities capabilities;
+        public int cachedModelVersion;
+        public String cachedModelHash;
+        public InformAggregatorAboutNewParticipant(ActorRef deviceReference, String clientId, int port, DeviceCapabilities capabilities,
+                                                   int cachedModelVersion, String cachedModelHash) {
             this.deviceReference = deviceReference;
             this.port = port;
             this.clientId = clientId;
+            this.capabilities = capabilities;
+            this.cachedModelVersion = cachedModelVersion;
+            this.cachedModelHash = cachedModelHash;
+        }
+    }
+
+    // Hardware declared by the device in its configuration
+    public static class DeviceCapabilities implements Serializable {
+        public int RAMInGB;
+        public Boolean useCuda;
+        public InstanceType instanceType;
+
+        public DeviceCapabilities(int RAMInGB, Boolean useCuda, InstanceType instanceType) {
+            this.RAMInGB = RAMInGB;
+            this.useCuda = useCuda;
+            this.instanceType = instanceType;
         }
     }
 
     public static class StartLearningProcessCommand implements Serializable {
+        // Version of the global model streamed to the participant and training parameters,
+        // used by the JVM runtime and ignored by python modules
+        public int modelVersion;
+        public int localSteps;
+        public int batchSize;
+        public float learningRate;
+        // Actor receiving ModelUpdate, separate from the aggregator so large messages do not delay control ones
+        public ActorRef updateReceiver;
+
         public StartLearningProcessCommand() { }
+
+        public StartLearningProcessCommand(int modelVersion, int localSteps, int batchSize, float learningRate, ActorRef updateReceiver) {
+            this.modelVersion = modelVersion;
+            this.localSteps = localSteps;
+            this.batchSize = batchSize;
+            this.learningRate = learningRate;
+            this.updateReceiver = updateReceiver;
+        }
+    }
+
+    // Global model shared by all participants of the round, sent after all its chunks were acknowledged.
+    // Content of the chunks is the model checkpoint: version, number of weights and big endian float weights
+    public static class GlobalModelBroadcast implements Serializable {
+        public int version;
+        public String hash;
+        // Number of bytes of the checkpoint
+        public int length;
+
+        public GlobalModelBroadcast(int version, String hash, int length) {
+            this.version = version;
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+
+    // Global model sent as a difference to the model the participant has cached, see ModelDelta.
+    // Sent after all chunks of the delta were acknowledged, hash is the one of the new model
+    public static class GlobalModelDelta implements Serializable {
+        public int baseVersion;
+        public int version;
+        public String hash;
+        // Number of bytes of the delta
+        public int length;
+
+        public GlobalModelDelta(int baseVersion, int version, String hash, int length) {
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+
+    // Part of the global model or of the delta, base version is 0 for the whole model. Offset is the index
+    // of the first byte and length the size of the whole transfer
+    public static class GlobalModelChunk implements Serializable {
+        public int baseVersion;
+        public int version;
+        public int offset;
+        public int length;
+        public byte[] bytes;
+
+        public GlobalModelChunk(int baseVersion, int version, int offset, int length, byte[] bytes) {
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.offset = offset;
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+
+    // Participant has the chunk at the offset, offset -1 acknowledges the closing GlobalModelBroadcast or GlobalModelDelta
+    public static class GlobalModelAck implements Serializable {
+        public String clientId;
+        public int baseVersion;
+        public int version;
+        public int offset;
+
+        public GlobalModelAck(String clientId, int baseVersion, int version, int offset) {
+            this.clientId = clientId;
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.offset = offset;
+        }
+    }
+
+    // Request of the participant for the whole global model, sent when it cannot use the delta or lost its cache
+    public static class GlobalModelRequest implements Serializable {
+        public String clientId;
+        public int version;
+
+        public GlobalModelRequest(String clientId, int version) {
+            this.clientId = clientId;
+            this.version = version;
+        }
+    }
+
+    // Model trained locally by the JVM runtime, sent to the aggregator instead of StartLearningModule.
+    // Weights are null when they were sent before as chunks
+    public static class ModelUpdate implements Serializable {
+        public String clientId;
+        public int modelVersion;
+        public float[] weights;
+        public int numberOfSamples;
+        public double loss;
+        // Measured by the device, the rest of the time until the server has the update is spent on transfers
+        public long trainingMillis;
+
+        public ModelUpdate(String clientId, int modelVersion, float[] weights, int numberOfSamples, double loss, long trainingMillis) {
+            this.clientId = clientId;
+            this.modelVersion = modelVersion;
+            this.weights = weights;
+            this.numberOfSamples = numberOfSamples;
+            this.loss = loss;
+            this.trainingMillis = trainingMillis;
+        }
+    }
+
+    // Part of the weights of a model update, offset is the index of its first weight and length the size of the update.
+    // Updates are streamed in chunks, so they are not limited by the frame size and do not occupy the connection at once
+    public static class ModelUpdateChunk implements Serializable {
+        public String clientId;
+        public int modelVersion;
+        public int offset;
+        public int length;
+        public float[] weights;
+
+        public ModelUpdateChunk(String clientId, int modelVersion, int offset, int length, float[] weights) {
+            this.clientId = clientId;
+            this.modelVersion = modelVersion;
+            this.offset = offset;
+            this.length = length;
+            this.weights = weights;
+        }
+    }
+
+    // Receiver has the chunk at the offset, offset -1 acknowledges the closing ModelUpdate
+    public static class ModelUpdateAck implements Serializable {
+        public int modelVersion;
+        public int offset;
+
+        public ModelUpdateAck(int modelVersion, int offset) {
+            this.modelVersion = modelVersion;
+            this.offset = offset;
+        }
     }
 
     public static class StartRoundCoordinatorSelector implements Serializable {
         public ActorRef aggregator;
+        public int roundNumber;
+        public int modelVersion;
+        public String modelHash;
 
-        public StartRoundCoordinatorSelector(ActorRef aggregator) {
+        public StartRoundCoordinatorSelector(ActorRef aggregator, int roundNumber, int modelVersion, String modelHash) {
             this.aggregator = aggregator;
+            this.roundNumber = roundNumber;
+            this.modelVersion = modelVersion;
+            this.modelHash = modelHash;
+        }
+    }
+
+    // Aggregator dropped the participant from the round, its place in the cohort is free again
+    public static class LeftCohort implements Serializable {
+        public String clientId;
+        public int roundNumber;
+        // Set when the device is still alive, selector tells it when to join again
+        public ActorRef deviceReference;
+
+        public LeftCohort(String clientId, int roundNumber) {
+            this.clientId = clientId;
+            this.roundNumber = roundNumber;
+        }
+
+        public LeftCohort(String clientId, int roundNumber, ActorRef deviceReference) {
+            this(clientId, roundNumber);
+            this.deviceReference = deviceReference;
         }
     }
 
     public static class StartLearningModule implements Serializable {
+        // Number of samples the device trained on, 0 if unknown
+        public int numberOfSamples;
+        // Time the module ran on the device, 0 if unknown
+        public long trainingMillis;
 
         public StartLearningModule() {
 
         }
+
+        public StartLearningModule(int numberOfSamples) {
+            this.numberOfSamples = numberOfSamples;
+        }
+
+        public StartLearningModule(int numberOfSamples, long trainingMillis) {
+            this(numberOfSamples);
+            this.trainingMillis = trainingMillis;
+        }
+    }
+
+    // Learning module of the device failed or was killed, the device has no update for the round
+    public static class LearningModuleFailed implements Serializable {
+        public int exitCode;
+        // Why the module was killed or could not be started, null when it exited by itself
+        public String reason;
+
+        public LearningModuleFailed(int exitCode, String reason) {
+            this.exitCode = exitCode;
+            this.reason = reason;
+        }
     }
 
     public static class GetModulesListRequest implements Serializable {
@@ -153,9 +407,44 @@ public class Messages {
         public InstanceType instanceType;
     }
 
-    public static class StartRound implements Serializable { }
+    // Heartbeat sent periodically by a client host on behalf of all its clients taking part in the round
+    public static class Heartbeat implements Serializable {
+        public List<String> clientIds;
+
+        public Heartbeat(List<String> clientIds) {
+            this.clientIds = clientIds;
+        }
+    }
+
+    // Response of an overloaded server, request should be sent again after the delay
+    public static class RetryAfter implements Serializable {
+        public long delayMillis;
+        public Object request;
 
-    public static class RoundEnded implements Serializable { }
+        public RetryAfter(long delayMillis, Object request) {
+            this.delayMillis = delayMillis;
+            this.request = request;
+        }
+    }
+
+    public static class StartRound implements Serializable {
+        public int roundNumber;
+
+        public StartRound(int roundNumber) {
+            this.roundNumber = roundNumber;
+        }
+    }
+
+    public static class RoundEnded implements Serializable {
+        // Global model after the round, hash is null when it is not known on the server
+        public int modelVersion;
+        public String modelHash;
+
+        public RoundEnded(int modelVersion, String modelHash) {
+            this.modelVersion = modelVersion;
+            this.modelHash = modelHash;
+        }
+    }
 
     public enum InstanceType {
         Computer,
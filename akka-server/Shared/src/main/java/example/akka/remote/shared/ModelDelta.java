@@ -0,0 +1,117 @@
+package example.akka.remote.shared;
+
+import akka.util.ByteString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Helpers for sending global model as a difference to the model the participant already has.
+// Delta is XOR of float bits of both models compressed with deflate: weights which changed a little
+// share sign, exponent and high mantissa bits, so their XOR is mostly zeros and compresses well.
+public class ModelDelta {
+
+    // Number of weights encoded at once
+    private static final int BLOCK_LENGTH = 1 << 16;
+
+    // Checksum identifying content of the model checkpoint (version, number of weights and weights)
+    public static String checksum(ByteString checkpoint) {
+        return checksum(checkpoint.asByteBuffer());
+    }
+
+    public static String checksum(ByteBuffer checkpoint) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(checkpoint.duplicate());
+            byte[] hash = digest.digest();
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                builder.append(String.format("%02x", hash[i]));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Encodes checkpoint with version and weights the same way as the server saves it
+    public static ByteString checkpoint(int version, float[] weights) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + weights.length * 4);
+        buffer.putInt(version);
+        buffer.putInt(weights.length);
+        buffer.asFloatBuffer().put(weights);
+        return ByteString.fromArray(buffer.array());
+    }
+
+    // Writes the delta to the output block by block, models can be mapped files. Returns number of written bytes
+    public static long encode(FloatBuffer base, FloatBuffer target, OutputStream output) throws IOException {
+        if (base.remaining() != target.remaining()) {
+            throw new IllegalArgumentException("Base has " + base.remaining() + " weights, target " + target.remaining());
+        }
+        FloatBuffer baseView = base.duplicate();
+        FloatBuffer targetView = target.duplicate();
+        byte[] xor = new byte[BLOCK_LENGTH * 4];
+        ByteBuffer xorBuffer = ByteBuffer.wrap(xor);
+        byte[] chunk = new byte[64 * 1024];
+        long written = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            while (targetView.hasRemaining()) {
+                int count = Math.min(BLOCK_LENGTH, targetView.remaining());
+                xorBuffer.clear();
+                for (int i = 0; i < count; i++) {
+                    xorBuffer.putInt(Float.floatToRawIntBits(baseView.get()) ^ Float.floatToRawIntBits(targetView.get()));
+                }
+                deflater.setInput(xor, 0, count * 4);
+                while (!deflater.needsInput()) {
+                    int size = deflater.deflate(chunk);
+                    output.write(chunk, 0, size);
+                    written += size;
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int size = deflater.deflate(chunk);
+                output.write(chunk, 0, size);
+                written += size;
+            }
+        } finally {
+            deflater.end();
+        }
+        return written;
+    }
+
+    // Returns the target model, delta encoded against a model of another length is rejected
+    public static float[] apply(float[] base, byte[] delta) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(delta);
+        byte[] xor = new byte[base.length * 4];
+        int read = 0;
+        boolean longer;
+        try {
+            while (read < xor.length && !inflater.finished() && !inflater.needsInput()) {
+                read += inflater.inflate(xor, read, xor.length - read);
+            }
+            longer = read == xor.length && !inflater.finished() && inflater.inflate(new byte[1]) > 0;
+        } finally {
+            inflater.end();
+        }
+        if (read != xor.length || longer) {
+            throw new DataFormatException("Delta does not match base model of " + xor.length + " bytes, inflated " + read
+                    + (longer ? " and more" : ""));
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(xor);
+        float[] target = new float[base.length];
+        for (int i = 0; i < base.length; i++) {
+            target[i] = Float.intBitsToFloat(Float.floatToRawIntBits(base[i]) ^ buffer.getInt());
+        }
+        return target;
+    }
+}
@@ -0,0 +1,264 @@
+package example.akka.remote.shared;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.Status;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Runs learning modules as supervised child processes. Output of the process is streamed into the actor
+// system log as it is written, lines with loss, accuracy or epoch progress are sent to the owner as
+// metrics. Process running longer than the timeout or using more memory than the limit is killed.
+// Owner receives Exited when the process ends. Process can talk to the owner over stdout, lines starting with
+// the message prefix are sent to the owner as Output instead of being logged.
+public class ProcessSupervisor {
+
+    private static final Pattern LOSS = Pattern.compile("(?i)\\bloss\\b[^0-9+\\-]{0,20}([-+]?\\d*\\.?\\d+(?:[eE][-+]?\\d+)?)");
+    // Accuracy given as "accuracy: 0.9", "Accuracy: 9000/10000" or "Accuracy: 90%"
+    private static final Pattern ACCURACY = Pattern.compile("(?i)\\baccuracy\\b[^0-9]{0,20}(\\d*\\.?\\d+)(?:\\s*/\\s*(\\d+))?");
+    private static final Pattern EPOCH = Pattern.compile("(?i)\\bepoch\\b\\D{0,5}(\\d+)\\s*/\\s*(\\d+)");
+
+    private static final FiniteDuration CHECK_INTERVAL = new FiniteDuration(1, TimeUnit.SECONDS);
+
+    // Limits of the process, 0 means no limit
+    public static class Limits {
+        public Limits(long timeoutMillis, long memoryLimitMB) {
+            this.timeoutMillis = timeoutMillis;
+            this.memoryLimitMB = memoryLimitMB;
+        }
+        public long timeoutMillis;
+        public long memoryLimitMB;
+    }
+
+    private ProcessSupervisor(ActorSystem system, String name, Process process, Limits limits, ActorRef owner, String messagePrefix) {
+        this.name = name;
+        this.messagePrefix = messagePrefix;
+        this.process = process;
+        this.limits = limits;
+        this.owner = owner;
+        this.pid = pid(process);
+        this.startedAt = System.currentTimeMillis();
+        this.log = Logging.getLogger(system, "process." + name);
+    }
+
+    private final String name;
+    private final String messagePrefix;
+    private final Process process;
+    private final Limits limits;
+    private final ActorRef owner;
+    private final long pid;
+    private final long startedAt;
+    private final LoggingAdapter log;
+
+    // Reason why the process was killed, null when it exited by itself
+    private volatile String killReason;
+
+    // Starts the process, output of the builder must not be redirected
+    public static Process start(ActorSystem system, String name, ProcessBuilder builder, Limits limits, ActorRef owner) throws IOException {
+        return start(system, name, builder, limits, owner, null);
+    }
+
+    // Starts the process which sends messages to the owner as output lines starting with the prefix
+    public static Process start(ActorSystem system, String name, ProcessBuilder builder, Limits limits, ActorRef owner,
+                                String messagePrefix) throws IOException {
+        ProcessSupervisor supervisor = new ProcessSupervisor(system, name, builder.start(), limits, owner, messagePrefix);
+        supervisor.supervise(system);
+        return supervisor.process;
+    }
+
+    // Readers and the waiter block for the whole life of the process, so they get their own threads instead of
+    // taking the bounded BlockingIO pool, where a few long running modules would stop pipes of others being drained
+    private void supervise(ActorSystem system) {
+        startThread(this.name + "-stdout", () -> this.readOutput(this.process.getInputStream(), false));
+        startThread(this.name + "-stderr", () -> this.readOutput(this.process.getErrorStream(), true));
+
+        Cancellable watchdog = system.scheduler().schedule(CHECK_INTERVAL, CHECK_INTERVAL,
+                this::checkLimits, system.dispatcher());
+        startThread(this.name + "-waiter", () -> {
+            try {
+                int exitCode = this.process.waitFor();
+                watchdog.cancel();
+                long duration = System.currentTimeMillis() - this.startedAt;
+                this.log.info("Process exited with code " + exitCode + " after " + duration + " ms"
+                        + (this.killReason != null ? ", killed: " + this.killReason : ""));
+                this.owner.tell(new Exited(this.name, this.process, exitCode, duration, this.killReason), ActorRef.noSender());
+            } catch (InterruptedException e) {
+                watchdog.cancel();
+                this.owner.tell(new Status.Failure(e), ActorRef.noSender());
+            }
+        });
+    }
+
+    private static void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, "process-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Streams lines of the process output into the log
+    private void readOutput(InputStream stream, boolean error) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!error && this.messagePrefix != null && line.startsWith(this.messagePrefix)) {
+                    this.owner.tell(new Output(this.name, line.substring(this.messagePrefix.length())), ActorRef.noSender());
+                    continue;
+                }
+                if (error) {
+                    this.log.warning(line);
+                } else {
+                    this.log.info(line);
+                }
+                this.parseMetrics(line);
+            }
+        } catch (IOException e) {
+            this.log.warning("Output of the process could not be read: " + e.getMessage());
+        }
+    }
+
+    private void parseMetrics(String line) {
+        Matcher epoch = EPOCH.matcher(line);
+        if (epoch.find()) {
+            this.owner.tell(new Metric(this.name, "progress",
+                    Double.parseDouble(epoch.group(1)) / Math.max(1, Double.parseDouble(epoch.group(2)))), ActorRef.noSender());
+        }
+        Matcher loss = LOSS.matcher(line);
+        if (loss.find()) {
+            this.owner.tell(new Metric(this.name, "loss", Double.parseDouble(loss.group(1))), ActorRef.noSender());
+        }
+        Matcher accuracy = ACCURACY.matcher(line);
+        if (accuracy.find()) {
+            double value = Double.parseDouble(accuracy.group(1));
+            if (accuracy.group(2) != null) {
+                value = 100.0 * value / Math.max(1, Double.parseDouble(accuracy.group(2)));
+            }
+            this.owner.tell(new Metric(this.name, "accuracy", value), ActorRef.noSender());
+        }
+    }
+
+    private void checkLimits() {
+        if (!this.process.isAlive() || this.killReason != null) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - this.startedAt;
+        if (this.limits.timeoutMillis > 0 && elapsed > this.limits.timeoutMillis) {
+            this.kill("running for " + elapsed + " ms, limit is " + this.limits.timeoutMillis + " ms");
+            return;
+        }
+        if (this.limits.memoryLimitMB > 0) {
+            long residentMB = residentMemoryMB(this.pid);
+            if (residentMB > this.limits.memoryLimitMB) {
+                this.kill("using " + residentMB + " MB, limit is " + this.limits.memoryLimitMB + " MB");
+            }
+        }
+    }
+
+    private void kill(String reason) {
+        this.killReason = reason;
+        this.log.warning("Killing process " + this.pid + ", " + reason);
+        destroyDescendants(this.process);
+        this.process.destroyForcibly();
+    }
+
+    // Kills processes started by the module, e.g. data loader workers, they would keep its output open.
+    // Process.descendants() exists since JDK 9
+    private static void destroyDescendants(Process process) {
+        try {
+            Method destroy = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+            Stream<?> descendants = (Stream<?>) Process.class.getMethod("descendants").invoke(process);
+            for (Object descendant : descendants.toArray()) {
+                destroy.invoke(descendant);
+            }
+        } catch (ReflectiveOperationException e) {
+            // Only the process itself is killed on older JDKs
+        }
+    }
+
+    // Resident memory of the process read from /proc, -1 when it is not available
+    private static long residentMemoryMB(long pid) {
+        File status = new File("/proc/" + pid + "/status");
+        if (pid < 0 || !status.isFile()) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) / 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    // Process.pid() exists since JDK 9, older JDKs keep it in a private field
+    private static long pid(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        } catch (ReflectiveOperationException e) {
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getLong(process);
+            } catch (ReflectiveOperationException | RuntimeException inner) {
+                return -1;
+            }
+        }
+    }
+
+    // Metric parsed from the process output, progress is a fraction of finished epochs
+    public static class Metric {
+        public Metric(String process, String name, double value) {
+            this.process = process;
+            this.name = name;
+            this.value = value;
+        }
+        public String process;
+        public String name;
+        public double value;
+    }
+
+    // Line of the process output starting with the message prefix, without the prefix
+    public static class Output {
+        public Output(String process, String line) {
+            this.process = process;
+            this.line = line;
+        }
+        public String process;
+        public String line;
+    }
+
+    // Message that the process ended, killReason is null when it was not killed. Source is the process returned
+    // by start, owners which restart the process use it to ignore exits of the replaced one
+    public static class Exited {
+        public Exited(String process, Process source, int exitCode, long durationMillis, String killReason) {
+            this.process = process;
+            this.source = source;
+            this.exitCode = exitCode;
+            this.durationMillis = durationMillis;
+            this.killReason = killReason;
+        }
+        public String process;
+        public Process source;
+        public int exitCode;
+        public long durationMillis;
+        public String killReason;
+    }
+}
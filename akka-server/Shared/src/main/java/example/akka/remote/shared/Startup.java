@@ -0,0 +1,45 @@
+package example.akka.remote.shared;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+// Reports that an entry point finished starting. The line printed here is what StartupBenchmark waits for.
+// With -Dstartup.exit-after-start=true the process stops right after starting, which is used to record the
+// classes of the AppCDS archive (-XX:ArchiveClassesAtExit) and to measure cold start. Such a dry run must not
+// touch the deployment: it listens on a random port, and entry points skip starting rounds and joining servers.
+public class Startup {
+
+    public static final String READY = "Startup finished";
+
+    public static boolean isDryRun() {
+        return Boolean.getBoolean("startup.exit-after-start");
+    }
+
+    // Configuration of the actor system, a dry run does not take the port of a running server or client
+    public static Config config(Config config) {
+        if (!isDryRun()) {
+            return config;
+        }
+        return ConfigFactory.parseString("akka.remote.netty.tcp.port = 0\nbulk-transport.port = 0")
+                .withFallback(config);
+    }
+
+    // Loads classes which a dry run does not instantiate, so they are part of the archive anyway
+    public static void preload(Class<?>... classes) {
+        for (Class<?> type : classes) {
+            type.getDeclaredMethods();
+        }
+    }
+
+    // Start is the System.nanoTime() at the beginning of main
+    public static void ready(ActorSystem system, String name, long start) {
+        long millis = (System.nanoTime() - start) / 1000000;
+        // Printed directly, the log is asynchronous and would delay the measurement
+        System.out.println(READY + ": " + name + " in " + millis + " ms");
+
+        if (isDryRun()) {
+            system.terminate();
+        }
+    }
+}
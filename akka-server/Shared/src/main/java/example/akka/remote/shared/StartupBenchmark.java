@@ -0,0 +1,99 @@
+package example.akka.remote.shared;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Measures cold start of an entry point, i.e. time from launching a new JVM until Startup.ready prints its line.
+// Every run starts a fresh process with -Dstartup.exit-after-start=true. Runs are repeated without class data
+// sharing, with the default CDS archive of the JDK and, when given, with the AppCDS archive of the application.
+//
+// Usage: StartupBenchmark [--runs N] [--archive app.jsa] [--classpath path] mainClass [arguments...]
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int runs = 5;
+        String archive = null;
+        String classpath = System.getProperty("java.class.path");
+        int index = 0;
+        while (index < args.length && args[index].startsWith("--")) {
+            switch (args[index]) {
+                case "--runs":
+                    runs = Integer.parseInt(args[index + 1]);
+                    break;
+                case "--archive":
+                    archive = args[index + 1];
+                    break;
+                case "--classpath":
+                    classpath = args[index + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[index]);
+            }
+            index += 2;
+        }
+        if (index >= args.length) {
+            System.out.println("Usage: StartupBenchmark [--runs N] [--archive app.jsa] [--classpath path] mainClass [arguments...]");
+            return;
+        }
+        List<String> entryPoint = Arrays.asList(args).subList(index, args.length);
+
+        report("no CDS", measure(runs, classpath, "-Xshare:off", entryPoint));
+        report("JDK CDS", measure(runs, classpath, null, entryPoint));
+        if (archive != null) {
+            if (new File(archive).isFile()) {
+                report("AppCDS", measure(runs, classpath, "-XX:SharedArchiveFile=" + archive, entryPoint));
+            } else {
+                System.out.println("Archive " + archive + " does not exist, build it with the fast-startup profile");
+            }
+        }
+    }
+
+    // Returns startup times of the runs in milliseconds
+    private static long[] measure(int runs, String classpath, String option, List<String> entryPoint) throws IOException, InterruptedException {
+        long[] times = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            if (option != null) {
+                command.add(option);
+            }
+            command.add("-Dstartup.exit-after-start=true");
+            command.add("-cp");
+            command.add(classpath);
+            command.addAll(entryPoint);
+
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            long ready = -1;
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    if (ready < 0 && line.startsWith(Startup.READY)) {
+                        ready = System.nanoTime() - start;
+                    }
+                }
+            }
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+            if (ready < 0) {
+                throw new IllegalStateException("Entry point did not start, exit code " + process.exitValue());
+            }
+            times[run] = TimeUnit.NANOSECONDS.toMillis(ready);
+        }
+        return times;
+    }
+
+    private static void report(String name, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-8s median %5d ms, min %5d ms, max %5d ms, runs %s",
+                name, sorted[sorted.length / 2], sorted[0], sorted[sorted.length - 1], Arrays.toString(times)));
+    }
+}
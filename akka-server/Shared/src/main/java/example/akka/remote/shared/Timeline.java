@@ -0,0 +1,236 @@
+package example.akka.remote.shared;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.typesafe.config.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Records handled messages and round phases of actors into a binary file for offline analysis, see TimelineTool.
+// Actors write events into a preallocated ring buffer without locking, a background thread writes them to the
+// file. When the buffer is full the oldest events are dropped instead of slowing down actors.
+// Recording is switched on with timeline.enabled, otherwise start() and record() do nothing.
+public class Timeline implements Extension {
+
+    public static final Id ID = new Id();
+
+    public static Timeline get(ActorSystem system) {
+        return ID.get(system);
+    }
+
+    // File format: MAGIC, process name, then records each starting with its type
+    public static final int MAGIC = 0x544c4e31;
+    public static final byte NAME_RECORD = 1;
+    public static final byte EVENT_RECORD = 2;
+
+    // Kinds of events
+    public static final byte MESSAGE = 'H';
+    public static final byte MARK = 'M';
+
+    private Timeline(ActorSystem system) {
+        Config config = system.settings().config().getConfig("timeline");
+        this.enabled = config.getBoolean("enabled");
+        int capacity = Integer.highestOneBit(Math.max(1024, config.getInt("buffer-size")));
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.starts = new long[capacity];
+        this.durations = new int[capacity];
+        this.sources = new short[capacity];
+        this.names = new short[capacity];
+        this.rounds = new int[capacity];
+        this.kinds = new byte[capacity];
+        // Wall clock in microseconds at nanoTime 0, events of different processes can be merged
+        this.baseMicros = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+
+        if (this.enabled) {
+            String path = config.getString("path");
+            if (path.isEmpty()) {
+                path = "./timeline-" + system.name() + "-" + System.currentTimeMillis() + ".bin";
+            }
+            this.start(system.name(), path, config.getDuration("flush-interval", TimeUnit.MILLISECONDS), system);
+        }
+    }
+
+    private final boolean enabled;
+    private final int mask;
+
+    // Sequence + 1 of the event stored in the slot, tells the writer thread that the slot is complete
+    private final AtomicLongArray sequences;
+    private final long[] starts;
+    private final int[] durations;
+    private final short[] sources;
+    private final short[] names;
+    private final int[] rounds;
+    private final byte[] kinds;
+    private final long baseMicros;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    // Names of actors, messages and marks replaced by numbers in the events
+    private final ConcurrentHashMap<String, Short> nameIds = new ConcurrentHashMap<>();
+    private final List<String> nameList = new ArrayList<>();
+
+    private volatile boolean running = true;
+    private long dropped;
+
+    // Returns start time of handling a message, 0 when recording is off
+    public long start() {
+        return this.enabled ? System.nanoTime() : 0;
+    }
+
+    // Records message handled by the actor since start, round is 0 when it is not known
+    public void record(String source, Object message, long start, int round) {
+        if (!this.enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        this.add(MESSAGE, source, message.getClass().getSimpleName(), start, now - start, round);
+    }
+
+    // Records point in time, e.g. beginning of a phase of the round
+    public void mark(String source, String name, int round) {
+        if (!this.enabled) {
+            return;
+        }
+        this.add(MARK, source, name, System.nanoTime(), 0, round);
+    }
+
+    private void add(byte kind, String source, String name, long startNanos, long durationNanos, int round) {
+        long sequence = this.nextSequence.getAndIncrement();
+        int slot = (int) (sequence & this.mask);
+        // Slot is invalid while it is being written
+        this.sequences.set(slot, 0);
+        this.starts[slot] = this.baseMicros + startNanos / 1000;
+        this.durations[slot] = (int) Math.min(Integer.MAX_VALUE, durationNanos / 1000);
+        this.sources[slot] = this.nameId(source);
+        this.names[slot] = this.nameId(name);
+        this.rounds[slot] = round;
+        this.kinds[slot] = kind;
+        this.sequences.lazySet(slot, sequence + 1);
+    }
+
+    private short nameId(String name) {
+        Short id = this.nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this.nameList) {
+            return this.nameIds.computeIfAbsent(name, key -> {
+                this.nameList.add(key);
+                return (short) (this.nameList.size() - 1);
+            });
+        }
+    }
+
+    private void start(String processName, String path, long flushIntervalMillis, ActorSystem system) {
+        Thread writer = new Thread(() -> {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+                output.writeInt(MAGIC);
+                output.writeUTF(processName);
+                long sequence = 0;
+                int writtenNames = 0;
+                boolean last = false;
+                while (!last) {
+                    last = !this.running;
+                    writtenNames = this.writeNames(output, writtenNames);
+                    sequence = this.writeEvents(output, sequence);
+                    output.flush();
+                    if (!last) {
+                        Thread.sleep(flushIntervalMillis);
+                    }
+                }
+                if (this.dropped > 0) {
+                    system.log().warning("Timeline dropped " + this.dropped + " events, increase timeline.buffer-size");
+                }
+            } catch (IOException | InterruptedException e) {
+                system.log().error(e, "Timeline could not be written to " + path);
+            }
+        }, "timeline-writer");
+        writer.setDaemon(true);
+        writer.start();
+        system.registerOnTermination(() -> {
+            this.running = false;
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        system.log().info("Recording timeline to " + path);
+    }
+
+    private int writeNames(DataOutputStream output, int writtenNames) throws IOException {
+        synchronized (this.nameList) {
+            for (int id = writtenNames; id < this.nameList.size(); id++) {
+                output.writeByte(NAME_RECORD);
+                output.writeShort(id);
+                output.writeUTF(this.nameList.get(id));
+            }
+            return this.nameList.size();
+        }
+    }
+
+    // Writes events published since the given sequence, returns sequence to continue with
+    private long writeEvents(DataOutputStream output, long sequence) throws IOException {
+        long end = this.nextSequence.get();
+        if (end - sequence > this.mask + 1) {
+            // Writer was lapped, older events were overwritten
+            this.dropped += end - sequence - (this.mask + 1);
+            sequence = end - (this.mask + 1);
+        }
+        for (; sequence < end; sequence++) {
+            int slot = (int) (sequence & this.mask);
+            if (this.sequences.get(slot) != sequence + 1) {
+                if (this.sequences.get(slot) == 0 || this.sequences.get(slot) < sequence + 1) {
+                    // Actor is still writing the event, continue with it next time
+                    break;
+                }
+                this.dropped++;
+                continue;
+            }
+            long start = this.starts[slot];
+            int duration = this.durations[slot];
+            short source = this.sources[slot];
+            short name = this.names[slot];
+            int round = this.rounds[slot];
+            byte kind = this.kinds[slot];
+            if (this.sequences.get(slot) != sequence + 1) {
+                // Overwritten while it was being read
+                this.dropped++;
+                continue;
+            }
+            output.writeByte(EVENT_RECORD);
+            output.writeByte(kind);
+            output.writeLong(start);
+            output.writeInt(duration);
+            output.writeShort(source);
+            output.writeShort(name);
+            output.writeInt(round);
+        }
+        return sequence;
+    }
+
+    public static class Id extends AbstractExtensionId<Timeline> implements ExtensionIdProvider {
+        @Override
+        public Timeline createExtension(ExtendedActorSystem system) {
+            return new Timeline(system);
+        }
+
+        @Override
+        public Id lookup() {
+            return ID;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package example.akka.remote.shared;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.*;
+
+public class ModelDeltaTest {
+
+    // Longer than one encoded block
+    private static final int LENGTH = (1 << 16) * 2 + 123;
+
+    @Test
+    public void identicalModelsGiveSmallDelta() throws Exception {
+        float[] base = randomWeights(LENGTH, 1);
+        byte[] delta = encode(base, base.clone());
+
+        // Under 1% of the model
+        assertTrue(delta.length < LENGTH * 4 / 100);
+        assertArrayEquals(base, ModelDelta.apply(base, delta), 0f);
+    }
+
+    @Test
+    public void deltaRestoresDifferentModelExactly() throws Exception {
+        float[] base = randomWeights(LENGTH, 1);
+        float[] target = base.clone();
+        Random random = new Random(2);
+        for (int i = 0; i < target.length; i++) {
+            target[i] += (float) random.nextGaussian() * 1e-3f;
+        }
+        target[0] = Float.NaN;
+        target[LENGTH - 1] = -0f;
+
+        float[] applied = ModelDelta.apply(base, encode(base, target));
+
+        assertEquals(target.length, applied.length);
+        for (int i = 0; i < target.length; i++) {
+            assertEquals(Float.floatToRawIntBits(target[i]), Float.floatToRawIntBits(applied[i]));
+        }
+        assertEquals(ModelDelta.checksum(ModelDelta.checkpoint(3, target)), ModelDelta.checksum(ModelDelta.checkpoint(3, applied)));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void rejectsDeltaForLongerBase() throws Exception {
+        float[] base = randomWeights(100, 1);
+        ModelDelta.apply(randomWeights(101, 1), encode(base, randomWeights(100, 2)));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void rejectsDeltaForShorterBase() throws Exception {
+        float[] base = randomWeights(100, 1);
+        ModelDelta.apply(randomWeights(99, 1), encode(base, randomWeights(100, 2)));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void rejectsTruncatedDelta() throws Exception {
+        float[] base = randomWeights(100, 1);
+        byte[] delta = encode(base, randomWeights(100, 2));
+        ModelDelta.apply(base, Arrays.copyOf(delta, delta.length / 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeRejectsModelsOfDifferentLength() throws Exception {
+        encode(randomWeights(100, 1), randomWeights(101, 2));
+    }
+
+    @Test
+    public void checksumCoversVersionAndWeights() {
+        float[] weights = randomWeights(100, 1);
+        String checksum = ModelDelta.checksum(ModelDelta.checkpoint(1, weights));
+
+        assertEquals(32, checksum.length());
+        assertEquals(checksum, ModelDelta.checksum(ModelDelta.checkpoint(1, weights.clone())));
+        assertNotEquals(checksum, ModelDelta.checksum(ModelDelta.checkpoint(2, weights)));
+        weights[50] = Math.nextUp(weights[50]);
+        assertNotEquals(checksum, ModelDelta.checksum(ModelDelta.checkpoint(1, weights)));
+    }
+
+    private static byte[] encode(float[] base, float[] target) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long written = ModelDelta.encode(FloatBuffer.wrap(base), FloatBuffer.wrap(target), output);
+        assertEquals(written, output.size());
+        return output.toByteArray();
+    }
+
+    private static float[] randomWeights(int length, long seed) {
+        Random random = new Random(seed);
+        float[] weights = new float[length];
+        for (int i = 0; i < length; i++) {
+            weights[i] = (float) random.nextGaussian();
+        }
+        return weights;
+    }
+}